@@ -0,0 +1,22 @@
+package import_xml.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@Configuration
+public class ImportTransactionConfig {
+
+    /**
+     * Транзакции для порций импорта. REQUIRES_NEW: порция фиксируется сразу,
+     * даже если импорт вызван из внешней транзакции (например, SyncService.syncData).
+     */
+    @Bean
+    public TransactionTemplate importTransactionTemplate(PlatformTransactionManager transactionManager) {
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        template.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        return template;
+    }
+}
@@ -11,8 +11,13 @@ public class ImportXmlProperties {
     private Api api = new Api();
     private ImportSection importSection = new ImportSection();
     private XmlDownload xmlDownload = new XmlDownload();
+    private Processing processing = new Processing();
     private Sync sync = new Sync();
     private Http http = new Http();
+    private FullReload fullReload = new FullReload();
+    private Deactivation deactivation = new Deactivation();
+    private Checkpoint checkpoint = new Checkpoint();
+    private Jobs jobs = new Jobs();
 
     @Data
     public static class Api {
@@ -26,15 +31,9 @@ public class ImportXmlProperties {
     @Data
     public static class ImportSection {
         private String directory;
-        private RateLimit rateLimit = new RateLimit();
         private ImportFiles files = new ImportFiles();
         private String catalogue;
 
-        @Data
-        public static class RateLimit {
-            private int delay = 1000;
-        }
-
         @Data
         public static class ImportFiles {
             private String product;
@@ -49,9 +48,68 @@ public class ImportXmlProperties {
     @Data
     public static class XmlDownload {
         private String tempDir = "./temp/xml";
-        private int rateLimit = 5;
-        private int retryAttempts = 3;
-        private int retryDelay = 5;
+        private int rateLimit = 5; // Запросов к API в секунду (0 - без ограничения)
+        private int rateLimitBurst = 1; // Сколько запросов можно сделать подряд без ожидания
+        private int retryAttempts = 3; // Попыток на каждое подключение, в т.ч. на докачку после обрыва
+        private int retryDelay = 5; // Начальная задержка между попытками, секунды; дальше удваивается
+        private int retryMaxDelay = 60; // Верхняя граница задержки, секунды
+        private int maxConnections = 3; // Одновременных загрузок файлов API
+        private boolean streaming = true; // Разбирать тело ответа по мере загрузки, без промежуточного файла
+        private boolean keepCopy = false; // Сохранять копию загруженного файла в директории импорта
+        private boolean conditional = true; // Условные запросы по ETag/Last-Modified и пропуск файлов с прежней контрольной суммой
+        private boolean compression = true; // Запрашивать gzip/deflate (Accept-Encoding) и распаковывать ответ потоком
+    }
+
+    @Data
+    public static class Processing {
+        private int chunkSize = 500; // Элементов на одну транзакцию записи
+        private int idAllocationSize = 1000; // Первичных ключей, резервируемых в id_generators за одно обращение
+        private Pipeline pipeline = new Pipeline();
+        private Parser parser = new Parser();
+
+        @Data
+        public static class Pipeline {
+            private boolean enabled = true;
+            private int parserThreads = 4; // Потоков построения сущностей из фрагментов
+            private int writerThreads = 1; // Потоков записи порций; при 1 порядок документа сохраняется
+            private int queueCapacity = 1000; // Емкость очередей между стадиями
+            private int partitionThresholdMb = 64; // Файлы больше порога читаются параллельно по диапазонам
+        }
+
+        @Data
+        public static class Parser {
+            private Backend backend = Backend.WOODSTOX;
+            private boolean asyncFeeding = false; // Только для aalto: разбор байтов по мере поступления
+            private int feedBufferSize = 65536;
+
+            public enum Backend {
+                WOODSTOX, AALTO, JDK
+            }
+        }
+    }
+
+    @Data
+    public static class FullReload {
+        private boolean loadData = true; // LOAD DATA LOCAL INFILE в теневые таблицы, если разрешен клиентом и сервером
+        private double minRowRatio = 0.5; // Минимальная доля от числа живых строк, при которой таблицы подменяются
+    }
+
+    @Data
+    public static class Deactivation {
+        private boolean enabled = true; // Снимать is_active со строк, которых нет в полном файле
+        private double maxPercent = 20; // Не деактивировать, если без строки в файле больше этой доли активных, %
+    }
+
+    @Data
+    public static class Checkpoint {
+        private boolean enabled = true; // Хранить загруженный файл и точку продолжения до конца импорта
+    }
+
+    @Data
+    public static class Jobs {
+        private int maxConcurrent = 2; // Задач импорта, выполняемых одновременно (из разных очередей)
+        private int queueCapacity = 10; // Задач, ждущих в одной очереди; следующая отклоняется
+        private long progressIntervalMs = 1000; // Как часто прогресс задач записывается в import_log
     }
 
     @Data
@@ -66,7 +124,9 @@ public class ImportXmlProperties {
         @Data
         public static class Client {
             private int connectTimeout = 30000;
-            private int socketTimeout = 30000;
+            private int socketTimeout = 30000; // Простой без данных, а не срок всего ответа
+            private int maxPerRoute = 4; // Одновременных соединений к API поставщика
+            private boolean http2 = true; // Согласовывать HTTP/2, где сервер его поддерживает
         }
     }
 }
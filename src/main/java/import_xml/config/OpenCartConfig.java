@@ -13,6 +13,8 @@ public class OpenCartConfig {
     private String username;
     private String password;
     private Sync sync = new Sync();
+    private RateLimit rateLimit = new RateLimit();
+    private Http http = new Http();
 
     @Data
     public static class Sync {
@@ -21,4 +23,18 @@ public class OpenCartConfig {
         private int retryDelay = 5000;
         private String cron = "0 0 */4 * * *"; // Каждые 4 часа
     }
+
+    @Data
+    public static class RateLimit {
+        private double requestsPerSecond = 10; // 0 - без ограничения
+        private int burst = 10;
+    }
+
+    @Data
+    public static class Http {
+        private int connectTimeout = 5000;
+        private int readTimeout = 10000;
+        private int maxPerRoute = 8; // Одновременных соединений к OpenCart
+        private boolean http2 = true;
+    }
 }
@@ -0,0 +1,50 @@
+package import_xml.config;
+
+import import_xml.util.RateLimiters;
+import import_xml.util.TokenBucket;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class RateLimiterConfig {
+
+    /**
+     * Ограничители запросов: API поставщика - xml-download.rate-limit (запросов в секунду) и
+     * rate-limit-burst, OpenCart - opencart.rate-limit. Состояние ведер публикуется в метриках
+     * import.rate.limiter.* с тегом client.
+     */
+    @Bean
+    public RateLimiters rateLimiters(ImportXmlProperties properties, OpenCartConfig openCartConfig,
+                                     ObjectProvider<MeterRegistry> meterRegistry) {
+        ImportXmlProperties.XmlDownload download = properties.getXmlDownload();
+        OpenCartConfig.RateLimit openCartLimit = openCartConfig.getRateLimit();
+        RateLimiters limiters = new RateLimiters(
+                new TokenBucket("supplier", download.getRateLimit(), download.getRateLimitBurst()),
+                new TokenBucket("opencart", openCartLimit.getRequestsPerSecond(), openCartLimit.getBurst()));
+        meterRegistry.ifAvailable(registry -> {
+            bind(registry, limiters.supplier());
+            bind(registry, limiters.openCart());
+        });
+        return limiters;
+    }
+
+    private static void bind(MeterRegistry registry, TokenBucket bucket) {
+        Gauge.builder("import.rate.limiter.available", bucket, TokenBucket::available)
+                .tag("client", bucket.getName())
+                .description("Свободных токенов в ведре")
+                .register(registry);
+        FunctionCounter.builder("import.rate.limiter.acquired", bucket, TokenBucket::getAcquired)
+                .tag("client", bucket.getName())
+                .description("Выдано разрешений на запрос")
+                .register(registry);
+        FunctionCounter.builder("import.rate.limiter.wait", bucket, TokenBucket::getWaitedSeconds)
+                .tag("client", bucket.getName())
+                .baseUnit("seconds")
+                .description("Суммарное ожидание токенов")
+                .register(registry);
+    }
+}
@@ -1,37 +1,55 @@
 package import_xml.config;
 
+import import_xml.util.ApiClients;
+import import_xml.util.ReadIdleTimeout;
+import import_xml.util.RouteConnectionLimiter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.client.ClientHttpRequestInterceptor;
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
 import java.util.Base64;
-import java.util.Collections;
-import import_xml.config.ImportXmlProperties;
+import java.util.List;
 
 @Configuration
 public class RestTemplateConfig {
 
     private final ImportXmlProperties properties;
+    private final OpenCartConfig openCartConfig;
 
-    public RestTemplateConfig(ImportXmlProperties properties) {
+    public RestTemplateConfig(ImportXmlProperties properties, OpenCartConfig openCartConfig) {
         this.properties = properties;
+        this.openCartConfig = openCartConfig;
     }
 
+    /**
+     * Два независимых клиента на JDK HttpClient: keep-alive соединения переиспользуются, HTTP/2
+     * согласуется через ALPN (с откатом на HTTP/1.1), число соединений на маршрут ограничено
+     * {@link RouteConnectionLimiter}. Статистика пулов - метрики import.http.client.* с тегом client.
+     * Клиент поставщика качает фиды по сотне мегабайт, поэтому socket-timeout у него - тайм-аут
+     * простоя ({@link ReadIdleTimeout}), а не срок всего ответа, как read-timeout у OpenCart.
+     */
     @Bean
-    public RestTemplate restTemplate() {
-        int connectTimeout = properties.getHttp().getClient().getConnectTimeout();
-        int socketTimeout = properties.getHttp().getClient().getSocketTimeout();
+    public ApiClients apiClients(ObjectProvider<MeterRegistry> meterRegistry) {
+        ImportXmlProperties.Http.Client supplier = properties.getHttp().getClient();
+        OpenCartConfig.Http openCart = openCartConfig.getHttp();
+        RouteConnectionLimiter supplierPool = new RouteConnectionLimiter(supplier.getMaxPerRoute());
+        RouteConnectionLimiter openCartPool = new RouteConnectionLimiter(openCart.getMaxPerRoute());
+        meterRegistry.ifAvailable(registry -> {
+            bind(registry, "supplier", supplierPool);
+            bind(registry, "opencart", openCartPool);
+        });
+
         String username = properties.getApi().getUsername();
         String password = properties.getApi().getPassword();
-
-        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
-        factory.setConnectTimeout(connectTimeout);
-        factory.setReadTimeout(socketTimeout);
-
-        RestTemplate restTemplate = new RestTemplate(factory);
-
-        // Add Basic Auth interceptor
+        // Basic Auth нужен только API поставщика; OpenCart авторизуется заголовком X-API-Key
         ClientHttpRequestInterceptor authInterceptor = (request, body, execution) -> {
             String auth = username + ":" + password;
             String encodedAuth = Base64.getEncoder().encodeToString(auth.getBytes());
@@ -39,7 +57,50 @@ public class RestTemplateConfig {
             return execution.execute(request, body);
         };
 
-        restTemplate.setInterceptors(Collections.singletonList(authInterceptor));
+        ReadIdleTimeout idleTimeout = new ReadIdleTimeout(Duration.ofMillis(supplier.getSocketTimeout()));
+
+        return new ApiClients(
+                restTemplate(supplier.getConnectTimeout(), supplier.isHttp2(), null,
+                        List.of(supplierPool, authInterceptor, idleTimeout)),
+                restTemplate(openCart.getConnectTimeout(), openCart.isHttp2(), Duration.ofMillis(openCart.getReadTimeout()),
+                        List.of(openCartPool)));
+    }
+
+    private static RestTemplate restTemplate(int connectTimeout, boolean http2, Duration readTimeout,
+                                             List<ClientHttpRequestInterceptor> interceptors) {
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(connectTimeout))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+        JdkClientHttpRequestFactory factory = new JdkClientHttpRequestFactory(httpClient);
+        if (readTimeout != null) {
+            factory.setReadTimeout(readTimeout);
+        }
+
+        RestTemplate restTemplate = new RestTemplate(factory);
+        restTemplate.setInterceptors(interceptors);
         return restTemplate;
     }
+
+    private static void bind(MeterRegistry registry, String client, RouteConnectionLimiter pool) {
+        Gauge.builder("import.http.client.connections.leased", pool, RouteConnectionLimiter::getLeased)
+                .tag("client", client)
+                .description("Занятых соединений")
+                .register(registry);
+        Gauge.builder("import.http.client.connections.pending", pool, RouteConnectionLimiter::getPending)
+                .tag("client", client)
+                .description("Запросов в ожидании свободного соединения")
+                .register(registry);
+        Gauge.builder("import.http.client.connections.max", pool, RouteConnectionLimiter::getMaxPerRoute)
+                .tag("client", client)
+                .description("Предел соединений на маршрут")
+                .register(registry);
+        Gauge.builder("import.http.client.routes", pool, RouteConnectionLimiter::getRoutes)
+                .tag("client", client)
+                .register(registry);
+        FunctionCounter.builder("import.http.client.requests", pool, RouteConnectionLimiter::getRequests)
+                .tag("client", client)
+                .register(registry);
+    }
 }
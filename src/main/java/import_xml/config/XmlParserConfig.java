@@ -0,0 +1,54 @@
+package import_xml.config;
+
+import com.ctc.wstx.stax.WstxInputFactory;
+import com.fasterxml.aalto.stax.InputFactoryImpl;
+import import_xml.util.XmlReaderFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.codehaus.stax2.XMLInputFactory2;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.xml.stream.XMLInputFactory;
+
+@Slf4j
+@Configuration
+public class XmlParserConfig {
+
+    /**
+     * StAX-парсер для импорта выбирается явно (import-xml.processing.parser.backend), а не через
+     * XMLInputFactory.newInstance(): на classpath есть и Woodstox, и Aalto, и JDK-парсер.
+     * Настройки для потокового импорта: без склейки текста (coalescing), без DTD и внешних
+     * сущностей, с интернированием имен элементов.
+     */
+    @Bean
+    public XmlReaderFactory xmlReaderFactory(ImportXmlProperties properties) {
+        ImportXmlProperties.Processing.Parser parser = properties.getProcessing().getParser();
+        XMLInputFactory factory = switch (parser.getBackend()) {
+            case WOODSTOX -> new WstxInputFactory();
+            case AALTO -> new InputFactoryImpl();
+            case JDK -> XMLInputFactory.newDefaultFactory();
+        };
+        setIfSupported(factory, XMLInputFactory.IS_COALESCING, false);
+        setIfSupported(factory, XMLInputFactory.SUPPORT_DTD, false);
+        setIfSupported(factory, XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        setIfSupported(factory, XMLInputFactory2.P_INTERN_NAMES, true);
+        setIfSupported(factory, XMLInputFactory2.P_INTERN_NS_URIS, true);
+        setIfSupported(factory, XMLInputFactory2.P_PRESERVE_LOCATION, false);
+        setIfSupported(factory, XMLInputFactory2.P_LAZY_PARSING, true);
+
+        if (parser.isAsyncFeeding() && parser.getBackend() != ImportXmlProperties.Processing.Parser.Backend.AALTO) {
+            log.warn("Асинхронная подача байтов поддерживается только парсером aalto, для {} отключена",
+                    parser.getBackend());
+        }
+        XmlReaderFactory readerFactory = new XmlReaderFactory(factory, parser.isAsyncFeeding(), parser.getFeedBufferSize());
+        log.info("StAX-парсер импорта: {}{}", readerFactory.getImplementation(),
+                readerFactory.isAsyncFeeding() ? " (асинхронная подача байтов)" : "");
+        return readerFactory;
+    }
+
+    private static void setIfSupported(XMLInputFactory factory, String property, Object value) {
+        if (factory.isPropertySupported(property)) {
+            factory.setProperty(property, value);
+        }
+    }
+}
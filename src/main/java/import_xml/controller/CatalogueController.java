@@ -1,25 +1,31 @@
 package import_xml.controller;
 
+import import_xml.service.ImportJobService;
 import import_xml.service.XmlProcessingService;
+import import_xml.util.XmlUploads;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.util.concurrent.RejectedExecutionException;
+
 @RestController
 @RequestMapping("/api/v1/catalogue")
 @RequiredArgsConstructor
 public class CatalogueController {
     private final XmlProcessingService xmlProcessingService;
+    private final ImportJobService importJobService;
 
     @PostMapping("/upload-xml")
     public ResponseEntity<String> uploadCatalogueXml(@RequestParam("file") MultipartFile file) {
         try {
-            java.io.File tempFile = java.io.File.createTempFile("catalogue", ".xml");
-            file.transferTo(tempFile);
-            xmlProcessingService.processCatalogueXml(tempFile);
-            tempFile.delete();
-            return ResponseEntity.ok("Catalogue XML uploaded and processed successfully");
+            java.io.File tempFile = XmlUploads.toTempFile(file, "catalogue");
+            long jobId = importJobService.submit("catalogue", tempFile,
+                    () -> xmlProcessingService.processCatalogueXml(tempFile));
+            return ImportJobController.accepted(jobId, "Catalogue XML");
+        } catch (RejectedExecutionException e) {
+            return ImportJobController.rejected(e);
         } catch (Exception e) {
             return ResponseEntity.status(500).body("Error processing Catalogue XML: " + e.getMessage());
         }
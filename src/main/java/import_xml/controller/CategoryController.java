@@ -2,7 +2,9 @@ package import_xml.controller;
 
 import import_xml.model.Category;
 import import_xml.service.CategoryService;
+import import_xml.service.ImportJobService;
 import import_xml.service.XmlProcessingService;
+import import_xml.util.XmlUploads;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -11,6 +13,7 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/v1/categories")
@@ -18,6 +21,7 @@ import java.util.List;
 public class CategoryController {
     private final CategoryService categoryService;
     private final XmlProcessingService xmlProcessingService;
+    private final ImportJobService importJobService;
 
     @GetMapping
     public ResponseEntity<Page<Category>> getAllCategories(
@@ -40,6 +44,13 @@ public class CategoryController {
         return ResponseEntity.ok(categoryService.getCategoryTree(active != null ? active : true));
     }
 
+    @GetMapping("/{categoryId}/subtree")
+    public ResponseEntity<List<Category>> getCategorySubtree(
+            @PathVariable String categoryId,
+            @RequestParam(required = false) Boolean active) {
+        return ResponseEntity.ok(categoryService.getSubtree(categoryId, active != null ? active : true));
+    }
+
     @GetMapping("/{categoryId}/products")
     public ResponseEntity<Page<Category>> getCategoryWithProducts(
             @PathVariable String categoryId,
@@ -48,19 +59,23 @@ public class CategoryController {
     }
 
     @PostMapping("/upload-xml")
-    public ResponseEntity<String> uploadCategoryXml(@RequestParam("file") MultipartFile file, @RequestParam("type") String type) {
+    public ResponseEntity<String> uploadCategoryXml(@RequestParam("file") MultipartFile file, @RequestParam("type") String type,
+                                                    @RequestParam(value = "fullReload", defaultValue = "false") boolean fullReload) {
+        boolean tree = "tree".equalsIgnoreCase(type);
+        if (!tree && !"catalogue".equalsIgnoreCase(type)) {
+            return ResponseEntity.badRequest().body("Unknown type: " + type);
+        }
         try {
-            java.io.File tempFile = java.io.File.createTempFile("category", ".xml");
-            file.transferTo(tempFile);
-            if ("tree".equalsIgnoreCase(type)) {
-                xmlProcessingService.processTreeXml(tempFile);
-            } else if ("catalogue".equalsIgnoreCase(type)) {
-                xmlProcessingService.processCatalogueXml(tempFile);
-            } else {
-                return ResponseEntity.badRequest().body("Unknown type: " + type);
-            }
-            tempFile.delete();
-            return ResponseEntity.ok("Category XML uploaded and processed successfully");
+            java.io.File tempFile = XmlUploads.toTempFile(file, "category");
+            long jobId = importJobService.submit(tree ? "tree" : "catalogue", tree && fullReload, tempFile, () -> {
+                if (tree && fullReload) {
+                    return xmlProcessingService.reloadTreeXml(tempFile);
+                }
+                return tree ? xmlProcessingService.processTreeXml(tempFile) : xmlProcessingService.processCatalogueXml(tempFile);
+            });
+            return ImportJobController.accepted(jobId, "Category XML");
+        } catch (RejectedExecutionException e) {
+            return ImportJobController.rejected(e);
         } catch (Exception e) {
             return ResponseEntity.status(500).body("Error processing Category XML: " + e.getMessage());
         }
@@ -1,6 +1,7 @@
 package import_xml.controller;
 
 import import_xml.service.XmlProcessingService;
+import import_xml.util.XmlUploads;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -15,8 +16,7 @@ public class ComplectController {
     @PostMapping("/upload-xml")
     public ResponseEntity<String> uploadComplectsXml(@RequestParam("file") MultipartFile file) {
         try {
-            java.io.File tempFile = java.io.File.createTempFile("complects", ".xml");
-            file.transferTo(tempFile);
+            java.io.File tempFile = XmlUploads.toTempFile(file, "complects");
             xmlProcessingService.processComplectsXml(tempFile);
             tempFile.delete();
             return ResponseEntity.ok("Complects XML uploaded and processed successfully");
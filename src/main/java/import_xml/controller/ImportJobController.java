@@ -0,0 +1,46 @@
+package import_xml.controller;
+
+import import_xml.model.ImportLog;
+import import_xml.service.ImportJobService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.util.concurrent.RejectedExecutionException;
+
+@RestController
+@RequestMapping("/api/v1/import-jobs")
+@RequiredArgsConstructor
+public class ImportJobController {
+    private final ImportJobService importJobService;
+
+    @GetMapping("/{id}")
+    public ResponseEntity<ImportLog> getJob(@PathVariable long id) {
+        return importJobService.find(id)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    @PostMapping("/{id}/cancel")
+    public ResponseEntity<ImportLog> cancelJob(@PathVariable long id) {
+        return importJobService.cancel(id)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Ответ на постановку задачи: 202 и адрес, по которому виден ее статус.
+     */
+    static ResponseEntity<String> accepted(long jobId, String description) {
+        return ResponseEntity.accepted()
+                .location(ServletUriComponentsBuilder.fromCurrentContextPath()
+                        .path("/api/v1/import-jobs/{id}").buildAndExpand(jobId).toUri())
+                .body(String.format("%s queued as import job %d", description, jobId));
+    }
+
+    static ResponseEntity<String> rejected(RejectedExecutionException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(e.getMessage());
+    }
+}
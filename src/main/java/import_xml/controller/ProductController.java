@@ -1,8 +1,10 @@
 package import_xml.controller;
 
 import import_xml.model.Product;
+import import_xml.service.ImportJobService;
 import import_xml.service.ProductService;
 import import_xml.service.XmlProcessingService;
+import import_xml.util.XmlUploads;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -10,12 +12,15 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.util.concurrent.RejectedExecutionException;
+
 @RestController
 @RequestMapping("/api/v1/products")
 @RequiredArgsConstructor
 public class ProductController {
     private final ProductService productService;
     private final XmlProcessingService xmlProcessingService;
+    private final ImportJobService importJobService;
 
     @GetMapping
     public ResponseEntity<Page<Product>> getAllProducts(
@@ -48,13 +53,24 @@ public class ProductController {
     }
 
     @PostMapping("/upload-xml")
-    public ResponseEntity<String> uploadProductXml(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<String> uploadProductXml(@RequestParam("file") MultipartFile file,
+                                                   @RequestParam(value = "fullReload", defaultValue = "false") boolean fullReload,
+                                                   @RequestParam(value = "statusOnly", defaultValue = "false") boolean statusOnly) {
+        if (fullReload && statusOnly) {
+            return ResponseEntity.badRequest().body("fullReload and statusOnly cannot be combined");
+        }
         try {
-            java.io.File tempFile = java.io.File.createTempFile("product", ".xml");
-            file.transferTo(tempFile);
-            xmlProcessingService.processProductsXml(tempFile);
-            tempFile.delete();
-            return ResponseEntity.ok("Product XML uploaded and processed successfully");
+            java.io.File tempFile = XmlUploads.toTempFile(file, "product");
+            long jobId = importJobService.submit("products", fullReload, tempFile, () -> {
+                if (statusOnly) {
+                    return xmlProcessingService.processProductStatusesXml(tempFile);
+                }
+                return fullReload ? xmlProcessingService.reloadProductsXml(tempFile)
+                        : xmlProcessingService.processProductsXml(tempFile);
+            });
+            return ImportJobController.accepted(jobId, "Product XML");
+        } catch (RejectedExecutionException e) {
+            return ImportJobController.rejected(e);
         } catch (Exception e) {
             return ResponseEntity.status(500).body("Error processing Product XML: " + e.getMessage());
         }
@@ -63,8 +79,7 @@ public class ProductController {
     @PostMapping("/import-10")
     public ResponseEntity<String> importFirst10Products(@RequestParam("file") MultipartFile file) {
         try {
-            java.io.File tempFile = java.io.File.createTempFile("product10", ".xml");
-            file.transferTo(tempFile);
+            java.io.File tempFile = XmlUploads.toTempFile(file, "product10");
             xmlProcessingService.processFirstNProductsXml(tempFile, 10);
             tempFile.delete();
             return ResponseEntity.ok("First 10 products imported successfully");
@@ -1,25 +1,30 @@
 package import_xml.controller;
 
+import import_xml.service.ImportJobService;
 import import_xml.service.XmlProcessingService;
+import import_xml.util.XmlUploads;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.util.concurrent.RejectedExecutionException;
+
 @RestController
 @RequestMapping("/api/v1/stock")
 @RequiredArgsConstructor
 public class StockController {
     private final XmlProcessingService xmlProcessingService;
+    private final ImportJobService importJobService;
 
     @PostMapping("/upload-xml")
     public ResponseEntity<String> uploadStockXml(@RequestParam("file") MultipartFile file) {
         try {
-            java.io.File tempFile = java.io.File.createTempFile("stock", ".xml");
-            file.transferTo(tempFile);
-            xmlProcessingService.processStockXml(tempFile);
-            tempFile.delete();
-            return ResponseEntity.ok("Stock XML uploaded and processed successfully");
+            java.io.File tempFile = XmlUploads.toTempFile(file, "stock");
+            long jobId = importJobService.submit("stock", tempFile, () -> xmlProcessingService.processStockXml(tempFile));
+            return ImportJobController.accepted(jobId, "Stock XML");
+        } catch (RejectedExecutionException e) {
+            return ImportJobController.rejected(e);
         } catch (Exception e) {
             return ResponseEntity.status(500).body("Error processing Stock XML: " + e.getMessage());
         }
@@ -1,5 +1,6 @@
 package import_xml.controller;
 
+import import_xml.service.ImportJobService;
 import import_xml.service.SyncService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
@@ -7,17 +8,25 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.concurrent.RejectedExecutionException;
+
 @RestController
 @RequestMapping("/api")
 @RequiredArgsConstructor
 public class SyncController {
     private final SyncService syncService;
+    private final ImportJobService importJobService;
 
     @PostMapping("/sync")
     public ResponseEntity<String> sync() {
         try {
-            syncService.syncData();
-            return ResponseEntity.ok("Синхронизация с OpenCart запущена");
+            long jobId = importJobService.submit("sync", null, () -> {
+                syncService.syncData();
+                return null;
+            });
+            return ImportJobController.accepted(jobId, "Синхронизация с OpenCart");
+        } catch (RejectedExecutionException e) {
+            return ImportJobController.rejected(e);
         } catch (Exception e) {
             return ResponseEntity.status(500).body("Ошибка синхронизации: " + e.getMessage());
         }
@@ -12,11 +12,15 @@ import java.util.Set;
         indexes = {
                 @Index(name = "idx_category_id", columnList = "category_id"),
                 @Index(name = "idx_parent_id", columnList = "parent_id"),
-                @Index(name = "idx_uri", columnList = "uri")
+                @Index(name = "idx_uri", columnList = "uri"),
+                @Index(name = "idx_category_lft", columnList = "lft, rgt"),
+                @Index(name = "idx_category_path", columnList = "path")
         })
 public class Category {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "categories_id")
+    @TableGenerator(name = "categories_id", table = "id_generators", pkColumnName = "sequence_name",
+            valueColumnName = "next_val", pkColumnValue = "categories", allocationSize = 50)
     private Long id;
 
     @Column(name = "category_id", unique = true)
@@ -40,6 +44,17 @@ public class Category {
     @Column(name = "sort_order")
     private Integer sortOrder;
 
+    // Материализованный путь от корня: /10/11/
+    @Column(name = "path", length = 512)
+    private String path;
+
+    // Интервал вложенного множества: потомки лежат строго внутри [lft, rgt]
+    @Column(name = "lft")
+    private Long lft;
+
+    @Column(name = "rgt")
+    private Long rgt;
+
     @Column(name = "image")
     private String image;
 
@@ -68,4 +83,17 @@ public class Category {
             }
     )
     private Set<Product> products;
+
+    // Равенство по первичному ключу, как и у Product
+    @Override
+    public final boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Category other)) return false;
+        return getId() != null && getId().equals(other.getId());
+    }
+
+    @Override
+    public final int hashCode() {
+        return getId() != null ? getId().hashCode() : System.identityHashCode(this);
+    }
 }
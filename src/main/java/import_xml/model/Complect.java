@@ -15,7 +15,9 @@ import java.util.Map;
         })
 public class Complect {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "complects_id")
+    @TableGenerator(name = "complects_id", table = "id_generators", pkColumnName = "sequence_name",
+            valueColumnName = "next_val", pkColumnValue = "complects", allocationSize = 50)
     private Long id;
 
     @Column(name = "complect_id", unique = true)
@@ -93,4 +95,17 @@ public class Complect {
         @Column(name = "print_description")
         private String printDescription;
     }
+
+    // Равенство по первичному ключу, как и у Product
+    @Override
+    public final boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Complect other)) return false;
+        return getId() != null && getId().equals(other.getId());
+    }
+
+    @Override
+    public final int hashCode() {
+        return getId() != null ? getId().hashCode() : System.identityHashCode(this);
+    }
 }
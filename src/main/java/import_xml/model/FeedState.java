@@ -0,0 +1,44 @@
+package import_xml.model;
+
+import lombok.Data;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Валидаторы последней загрузки файла API: по ним следующая загрузка делается условной
+ * (If-None-Match / If-Modified-Since), а неизменившееся содержимое не импортируется повторно.
+ */
+@Data
+@Entity
+@Table(name = "feed_state")
+public class FeedState {
+    @Id
+    @Column(name = "file_name", length = 100)
+    private String fileName;
+
+    @Column(name = "etag")
+    private String etag;
+
+    @Column(name = "last_modified")
+    private String lastModified;
+
+    @Column(name = "sha256", length = 64)
+    private String sha256;
+
+    @Column(name = "content_length")
+    private Long contentLength;
+
+    @Column(name = "transfer_length")
+    private Long transferLength; // Передано по сети, с учетом сжатия
+
+    @Column(name = "last_checked")
+    private LocalDateTime lastChecked;
+
+    @Column(name = "last_imported")
+    private LocalDateTime lastImported;
+
+    public boolean hasValidators() {
+        return etag != null || lastModified != null;
+    }
+}
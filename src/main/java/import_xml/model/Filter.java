@@ -15,7 +15,9 @@ import java.util.Set;
         })
 public class Filter {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "filters_id")
+    @TableGenerator(name = "filters_id", table = "id_generators", pkColumnName = "sequence_name",
+            valueColumnName = "next_val", pkColumnValue = "filters", allocationSize = 50)
     private Long id;
 
     @Column(name = "filter_id", unique = true)
@@ -60,4 +62,17 @@ public class Filter {
 
     @Column(name = "parent_filter_type_id")
     private String parentFilterTypeId;
+
+    // Равенство по первичному ключу, как и у Product
+    @Override
+    public final boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Filter other)) return false;
+        return getId() != null && getId().equals(other.getId());
+    }
+
+    @Override
+    public final int hashCode() {
+        return getId() != null ? getId().hashCode() : System.identityHashCode(this);
+    }
 }
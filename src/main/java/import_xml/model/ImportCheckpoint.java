@@ -0,0 +1,53 @@
+package import_xml.model;
+
+import lombok.Data;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Контрольная точка незавершенного импорта файла API: сохраненная копия файла, ее SHA-256
+ * и сколько элементов от начала файла уже записано. После сбоя импорт продолжается с байта
+ * byteOffset, на котором начинается элемент elementOrdinal. Строка удаляется по завершении импорта.
+ */
+@Data
+@Entity
+@Table(name = "import_checkpoint")
+public class ImportCheckpoint {
+    @Id
+    @Column(name = "file_name", length = 100)
+    private String fileName;
+
+    @Column(name = "file_type", length = 50)
+    private String fileType;
+
+    @Column(name = "local_file", length = 500)
+    private String localFile;
+
+    @Column(name = "sha256", length = 64)
+    private String sha256;
+
+    @Column(name = "content_length")
+    private Long contentLength;
+
+    @Column(name = "transfer_length")
+    private Long transferLength;
+
+    @Column(name = "etag")
+    private String etag;
+
+    @Column(name = "last_modified")
+    private String lastModified;
+
+    @Column(name = "element_ordinal")
+    private long elementOrdinal; // Элементов от начала файла, записанных подряд
+
+    @Column(name = "byte_offset")
+    private long byteOffset; // Начало элемента elementOrdinal в файле
+
+    @Column(name = "started_at")
+    private LocalDateTime startedAt;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+}
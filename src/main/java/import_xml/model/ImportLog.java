@@ -0,0 +1,60 @@
+package import_xml.model;
+
+import lombok.Data;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Задача импорта в import_log: статус и прогресс обновляются, пока задача выполняется.
+ */
+@Data
+@Entity
+@Table(name = "import_log")
+public class ImportLog {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "type", length = 50, nullable = false)
+    private String type; // Тип файла: products, stock, tree, catalogue или sync
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", length = 20, nullable = false)
+    private Status status;
+
+    @Column(name = "total_items")
+    private Integer totalItems;
+
+    @Column(name = "processed_items")
+    private Integer processedItems;
+
+    @Column(name = "failed_items")
+    private Integer failedItems;
+
+    @Column(name = "source_file")
+    private String sourceFile;
+
+    @Column(name = "error_message", length = 1000)
+    private String errorMessage;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    @Column(name = "completed_at")
+    private LocalDateTime completedAt;
+
+    @Column(name = "execution_time_ms")
+    private Long executionTimeMs;
+
+    public enum Status {
+        QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED;
+
+        public boolean isFinished() {
+            return this == SUCCEEDED || this == FAILED || this == CANCELLED;
+        }
+    }
+}
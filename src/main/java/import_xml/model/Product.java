@@ -14,8 +14,11 @@ import java.util.Set;
                 @Index(name = "idx_article", columnList = "article")
         })
 public class Product {
+    // id из пула id_generators (pooled-lo), общего с IdAllocator пакетной записи
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "products_id")
+    @TableGenerator(name = "products_id", table = "id_generators", pkColumnName = "sequence_name",
+            valueColumnName = "next_val", pkColumnValue = "products", allocationSize = 50)
     private Long id;
 
     @Column(name = "product_id", unique = true)
@@ -105,6 +108,12 @@ public class Product {
     @Column(name = "multiplicity")
     private Integer multiplicity;
 
+    /**
+     * Отпечаток содержимого из фида (см. ProductFingerprint), по нему пропускаются неизмененные товары.
+     */
+    @Column(name = "content_hash")
+    private Long contentHash;
+
     @ManyToMany
     @JoinTable(
         name = "product_filters",
@@ -220,4 +229,20 @@ public class Product {
     @ElementCollection
     @CollectionTable(name = "product_currencies", joinColumns = @JoinColumn(name = "product_id"))
     private Set<Currency> currencies;
+
+    /**
+     * Равенство по первичному ключу. Методы final, чтобы прокси Hibernate не инициализировались
+     * при помещении ссылок {@code getReference} в множества: getId() у прокси не обращается к БД.
+     */
+    @Override
+    public final boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Product other)) return false;
+        return getId() != null && getId().equals(other.getId());
+    }
+
+    @Override
+    public final int hashCode() {
+        return getId() != null ? getId().hashCode() : System.identityHashCode(this);
+    }
 }
@@ -0,0 +1,267 @@
+package import_xml.repository;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Пакетная запись каталога через JDBC: многострочный upsert по натуральному ключу
+ * с первичными ключами из пула {@link IdAllocator} и замена дочерних строк (коллекций
+ * и таблиц связей) для набора родителей.
+ * Каждый вызов отправляет в БД несколько многострочных запросов вместо запроса на строку.
+ */
+@Slf4j
+@Repository
+@RequiredArgsConstructor
+public class BulkUpsertRepository {
+    private static final int MAX_ROWS_PER_STATEMENT = 500;
+    private static final int MAX_PARAMS_PER_STATEMENT = 30_000;
+    private static final int MAX_IN_LIST = 1000;
+    private static final int FETCH_SIZE = 10_000;
+    static final String ID_COLUMN = "id";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final IdAllocator idAllocator;
+    private volatile UpsertDialect dialect;
+
+    public UpsertDialect getDialect() {
+        UpsertDialect result = dialect;
+        if (result == null) {
+            String productName = jdbcTemplate.execute(
+                    (ConnectionCallback<String>) con -> con.getMetaData().getDatabaseProductName());
+            result = UpsertDialect.fromDatabaseProductName(productName);
+            dialect = result;
+            log.info("Диалект upsert: {} ({})", result, productName);
+        }
+        return result;
+    }
+
+    /**
+     * Вставляет или обновляет строки по уникальному натуральному ключу keyColumn.
+     * Порядок значений в каждой строке соответствует columns.
+     *
+     * @return первичные ключи строк по натуральному id
+     */
+    public Map<String, Long> upsert(String table, String keyColumn, List<String> columns, List<Object[]> rows) {
+        return upsert(table, keyColumn, columns, rows, key -> null, false);
+    }
+
+    /**
+     * Upsert с первичными ключами из пула {@link IdAllocator}: id существующих строк берутся из
+     * known, остальные - одним SELECT по натуральным ключам, новым строкам выдаются id из пула,
+     * и запрос пишет их вместе с данными. Если known знал все строки таблицы на начало импорта
+     * (complete), этот SELECT не нужен. Строку могли вставить параллельно (например, тот же
+     * товар из catalogue.xml): upsert id существующей строки не меняет, поэтому id новых строк
+     * после записи перечитываются.
+     *
+     * @return первичные ключи строк по натуральному id
+     */
+    public Map<String, Long> upsert(String table, String keyColumn, List<String> columns, List<Object[]> rows,
+                                    Function<String, Long> known, boolean complete) {
+        int keyIndex = columns.indexOf(keyColumn);
+        Map<String, Long> ids = new LinkedHashMap<>(rows.size() * 2);
+        List<String> unknown = new ArrayList<>();
+        for (Object[] row : rows) {
+            String key = (String) row[keyIndex];
+            Long id = known.apply(key);
+            if (id != null) {
+                ids.put(key, id);
+            } else {
+                unknown.add(key);
+            }
+        }
+        if (!complete) {
+            ids.putAll(findIds(table, keyColumn, unknown));
+        }
+        List<String> created = unknown.stream().filter(key -> !ids.containsKey(key)).toList();
+        long[] newIds = idAllocator.allocate(table, created.size());
+        for (int i = 0; i < newIds.length; i++) {
+            ids.put(created.get(i), newIds[i]);
+        }
+
+        List<String> withId = new ArrayList<>(columns.size() + 1);
+        withId.add(ID_COLUMN);
+        withId.addAll(columns);
+        List<Object[]> rowsWithId = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            Object[] withIdRow = new Object[row.length + 1];
+            withIdRow[0] = ids.get((String) row[keyIndex]);
+            System.arraycopy(row, 0, withIdRow, 1, row.length);
+            rowsWithId.add(withIdRow);
+        }
+        UpsertDialect upsertDialect = getDialect();
+        executeMultiRow(rowsWithId, withId.size(),
+                rowCount -> upsertDialect.upsertSql(table, keyColumn, withId, rowCount));
+        if (!created.isEmpty()) {
+            ids.putAll(findIds(table, keyColumn, created));
+        }
+        return ids;
+    }
+
+    public void insert(String table, List<String> columns, List<Object[]> rows) {
+        String prefix = "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES ";
+        executeMultiRow(rows, columns.size(),
+                rowCount -> prefix + UpsertDialect.valuesList(columns.size(), rowCount));
+    }
+
+    /**
+     * Полностью заменяет дочерние строки родителей: DELETE ... WHERE parentColumn IN (...)
+     * и многострочный INSERT новых строк. Первая колонка в columns - parentColumn.
+     */
+    public void replaceChildren(String table, String parentColumn, Collection<Long> parentIds,
+                                List<String> columns, List<Object[]> rows) {
+        deleteByParent(table, parentColumn, parentIds);
+        insert(table, columns, rows);
+    }
+
+    /**
+     * Приводит строки таблицы связей к заданным для набора родителей, меняя только разницу:
+     * текущие связи родителей читаются, сравниваются с новыми как отсортированные массивы
+     * ({@link LinkSet}), затем многострочно удаляются лишние и вставляются недостающие.
+     * Если связи не изменились, таблица не трогается. Строки rows - пары (родитель, потомок);
+     * строки без потомка пропускаются.
+     */
+    public LinkDelta syncLinks(String table, String parentColumn, String childColumn, Collection<Long> parentIds,
+                               List<Object[]> rows) {
+        LinkSet.Builder wanted = new LinkSet.Builder();
+        for (Object[] row : rows) {
+            if (row[0] != null && row[1] != null) {
+                wanted.add(((Number) row[0]).longValue(), ((Number) row[1]).longValue());
+            }
+        }
+        LinkSet.Builder stored = new LinkSet.Builder();
+        forEachInList(new ArrayList<>(parentIds), (part, placeholders) ->
+                jdbcTemplate.query("SELECT " + parentColumn + ", " + childColumn + " FROM " + table
+                                + " WHERE " + parentColumn + " IN (" + placeholders + ")",
+                        rs -> {
+                            stored.add(rs.getLong(1), rs.getLong(2));
+                        },
+                        part.toArray()));
+        LinkSet target = wanted.build();
+        LinkSet current = stored.build();
+        LinkSet removed = current.minus(target);
+        LinkSet added = target.minus(current);
+
+        String pair = "(" + parentColumn + ", " + childColumn + ")";
+        executeMultiRow(removed.rows(), 2,
+                rowCount -> "DELETE FROM " + table + " WHERE " + pair + " IN (" + UpsertDialect.valuesList(2, rowCount) + ")");
+        insert(table, List.of(parentColumn, childColumn), added.rows());
+        if (log.isDebugEnabled()) {
+            log.debug("Связи {}: родителей {}, добавлено {}, удалено {}, без изменений {}",
+                    table, parentIds.size(), added.size(), removed.size(), current.size() - removed.size());
+        }
+        return new LinkDelta(added.size(), removed.size());
+    }
+
+    public record LinkDelta(int added, int removed) {
+    }
+
+    public void deleteByParent(String table, String parentColumn, Collection<Long> parentIds) {
+        forEachInList(new ArrayList<>(parentIds), (part, placeholders) ->
+                jdbcTemplate.update("DELETE FROM " + table + " WHERE " + parentColumn + " IN (" + placeholders + ")",
+                        part.toArray()));
+    }
+
+    /**
+     * Передает натуральные id активных строк таблицы по мере чтения, не собирая их в список.
+     */
+    public void forEachActiveKey(String table, String keyColumn, Consumer<String> consumer) {
+        jdbcTemplate.query(con -> {
+            PreparedStatement statement = con.prepareStatement("SELECT " + keyColumn + " FROM " + table
+                    + " WHERE is_active = TRUE AND " + keyColumn + " IS NOT NULL");
+            statement.setFetchSize(FETCH_SIZE);
+            return statement;
+        }, (RowCallbackHandler) rs -> consumer.accept(rs.getString(1)));
+    }
+
+    /**
+     * Снимает флаг is_active у строк с перечисленными натуральными id запросами UPDATE ... IN (...)
+     * по {@value #MAX_IN_LIST} id.
+     *
+     * @return число деактивированных строк
+     */
+    public int deactivate(String table, String keyColumn, List<String> keys, LocalDateTime lastUpdated) {
+        int[] deactivated = new int[1];
+        forEachInList(keys, (part, placeholders) -> {
+            Object[] args = new Object[part.size() + 1];
+            args[0] = lastUpdated;
+            System.arraycopy(part.toArray(), 0, args, 1, part.size());
+            deactivated[0] += jdbcTemplate.update("UPDATE " + table + " SET is_active = FALSE, last_updated = ?"
+                    + " WHERE " + keyColumn + " IN (" + placeholders + ") AND is_active = TRUE", args);
+        });
+        return deactivated[0];
+    }
+
+    /**
+     * Возвращает первичные ключи строк по натуральным id.
+     */
+    public Map<String, Long> findIds(String table, String keyColumn, Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, Long> ids = new HashMap<>(keys.size() * 2);
+        forEachInList(new ArrayList<>(keys), (part, placeholders) ->
+                jdbcTemplate.query("SELECT id, " + keyColumn + " FROM " + table
+                                + " WHERE " + keyColumn + " IN (" + placeholders + ")",
+                        rs -> {
+                            ids.put(rs.getString(2), rs.getLong(1));
+                        },
+                        part.toArray()));
+        return ids;
+    }
+
+    private void executeMultiRow(List<Object[]> rows, int columnCount,
+                                 IntFunction<String> sqlForRowCount) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        int rowsPerStatement = Math.max(1, Math.min(MAX_ROWS_PER_STATEMENT, MAX_PARAMS_PER_STATEMENT / columnCount));
+        String fullSql = null;
+        for (int from = 0; from < rows.size(); from += rowsPerStatement) {
+            int to = Math.min(from + rowsPerStatement, rows.size());
+            int rowCount = to - from;
+            String sql;
+            if (rowCount == rowsPerStatement) {
+                if (fullSql == null) {
+                    fullSql = sqlForRowCount.apply(rowsPerStatement);
+                }
+                sql = fullSql;
+            } else {
+                sql = sqlForRowCount.apply(rowCount);
+            }
+            Object[] args = new Object[rowCount * columnCount];
+            for (int i = 0; i < rowCount; i++) {
+                System.arraycopy(rows.get(from + i), 0, args, i * columnCount, columnCount);
+            }
+            jdbcTemplate.update(sql, args);
+        }
+    }
+
+    private <T> void forEachInList(List<T> values, InListCallback<T> callback) {
+        for (int from = 0; from < values.size(); from += MAX_IN_LIST) {
+            List<T> part = values.subList(from, Math.min(from + MAX_IN_LIST, values.size()));
+            callback.accept(part, String.join(", ", Collections.nCopies(part.size(), "?")));
+        }
+    }
+
+    @FunctionalInterface
+    private interface InListCallback<T> {
+        void accept(List<T> part, String placeholders);
+    }
+}
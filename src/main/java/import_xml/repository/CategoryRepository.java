@@ -23,8 +23,16 @@ public interface CategoryRepository extends JpaRepository<Category, Long> {
             @Param("isActive") boolean isActive,
             Pageable pageable);
 
-    @Query("SELECT c FROM Category c WHERE c.isActive = :isActive ORDER BY c.level ASC, c.sortOrder ASC")
-    List<Category> findByIsActiveOrderByLevelAscSortOrderAsc(@Param("isActive") boolean isActive);
+    // Все дерево в прямом порядке обхода - один проход по индексу вложенного множества
+    @Query("SELECT c FROM Category c WHERE c.isActive = :isActive ORDER BY c.lft ASC")
+    List<Category> findByIsActiveOrderByLft(@Param("isActive") boolean isActive);
+
+    // Поддерево категории: все интервалы внутри [lft, rgt]
+    @Query("SELECT c FROM Category c WHERE c.lft BETWEEN :lft AND :rgt AND c.isActive = :isActive ORDER BY c.lft ASC")
+    List<Category> findSubtree(
+            @Param("lft") long lft,
+            @Param("rgt") long rgt,
+            @Param("isActive") boolean isActive);
 
     @Query("SELECT DISTINCT c FROM Category c " +
             "LEFT JOIN FETCH c.products p " +
@@ -0,0 +1,9 @@
+package import_xml.repository;
+
+import import_xml.model.FeedState;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface FeedStateRepository extends JpaRepository<FeedState, String> {
+}
@@ -0,0 +1,105 @@
+package import_xml.repository;
+
+import import_xml.config.ImportXmlProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Пулы первичных ключей каталога в таблице id_generators - той же, что у @TableGenerator
+ * сущностей (оптимизатор pooled-lo): next_val - первый свободный id. Блок из
+ * processing.id-allocation-size id забирается короткой отдельной транзакцией и раздается
+ * из памяти, поэтому строки вставляются с готовыми id и без IDENTITY. Граница блока
+ * не опускается ниже MAX(id) таблицы: строки, вставленные раньше через AUTO_INCREMENT,
+ * не пересекутся с выданными.
+ */
+@Slf4j
+@Repository
+public class IdAllocator {
+    private static final List<String> TABLES = List.of("products", "categories", "filters", "complects");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ImportXmlProperties properties;
+    private final Map<String, Block> blocks = new ConcurrentHashMap<>();
+
+    public IdAllocator(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                       ImportXmlProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.properties = properties;
+    }
+
+    private static final class Block {
+        private long next;
+        private long end;
+    }
+
+    /**
+     * Выдает count новых id для таблицы (подряд в пределах блока).
+     */
+    public long[] allocate(String table, int count) {
+        long[] ids = new long[count];
+        Block block = blocks.computeIfAbsent(table, key -> new Block());
+        synchronized (block) {
+            for (int i = 0; i < count; i++) {
+                if (block.next == block.end) {
+                    int size = Math.max(Math.max(1, properties.getProcessing().getIdAllocationSize()), count - i);
+                    block.next = reserve(table, size);
+                    block.end = block.next + size;
+                }
+                ids[i] = block.next++;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Поднимает next_val над уже существующими строками, чтобы и Hibernate-генератор
+     * сущностей не выдал занятый id после перехода с AUTO_INCREMENT.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void alignWithExistingRows() {
+        for (String table : TABLES) {
+            try {
+                reserve(table, 0);
+            } catch (Exception e) {
+                log.warn("Не удалось выровнять пул id таблицы {}: {}", table, e.getMessage());
+            }
+        }
+    }
+
+    private long reserve(String table, int size) {
+        while (true) {
+            try {
+                Long start = transactionTemplate.execute(status -> {
+                    List<Long> stored = jdbcTemplate.queryForList(
+                            "SELECT next_val FROM id_generators WHERE sequence_name = ? FOR UPDATE", Long.class, table);
+                    Long maxId = jdbcTemplate.queryForObject("SELECT MAX(id) FROM " + table, Long.class);
+                    long floor = maxId != null ? maxId + 1 : 1;
+                    if (stored.isEmpty()) {
+                        jdbcTemplate.update("INSERT INTO id_generators (sequence_name, next_val) VALUES (?, ?)",
+                                table, floor + size);
+                        return floor;
+                    }
+                    long first = Math.max(stored.get(0), floor);
+                    jdbcTemplate.update("UPDATE id_generators SET next_val = ? WHERE sequence_name = ?",
+                            first + size, table);
+                    return first;
+                });
+                log.debug("Пул id {}: блок {}..{}", table, start, start + size - 1);
+                return start;
+            } catch (DuplicateKeyException e) {
+                // строку пула одновременно создал другой процесс - читаем ее заново
+            }
+        }
+    }
+}
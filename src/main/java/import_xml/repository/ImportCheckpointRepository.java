@@ -0,0 +1,27 @@
+package import_xml.repository;
+
+import import_xml.model.ImportCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface ImportCheckpointRepository extends JpaRepository<ImportCheckpoint, String> {
+
+    /**
+     * Сдвигает контрольную точку в собственной транзакции: точка должна пережить сбой,
+     * даже если импорт вызван из внешней транзакции.
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    @Modifying
+    @Query("UPDATE ImportCheckpoint c SET c.elementOrdinal = :ordinal, c.byteOffset = :offset, c.updatedAt = :now " +
+            "WHERE c.fileName = :fileName")
+    int advance(@Param("fileName") String fileName, @Param("ordinal") long ordinal, @Param("offset") long offset,
+                @Param("now") LocalDateTime now);
+}
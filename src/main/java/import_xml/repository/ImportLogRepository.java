@@ -0,0 +1,35 @@
+package import_xml.repository;
+
+import import_xml.model.ImportLog;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+
+@Repository
+public interface ImportLogRepository extends JpaRepository<ImportLog, Long> {
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    @Modifying
+    @Query("UPDATE ImportLog l SET l.totalItems = :total, l.processedItems = :processed, l.failedItems = :failed, " +
+            "l.executionTimeMs = :executionTimeMs, l.updatedAt = :now WHERE l.id = :id")
+    int updateProgress(@Param("id") Long id, @Param("total") int total, @Param("processed") int processed,
+                       @Param("failed") int failed, @Param("executionTimeMs") long executionTimeMs,
+                       @Param("now") LocalDateTime now);
+
+    /**
+     * Задачи, оставшиеся незавершенными после остановки процесса.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE ImportLog l SET l.status = import_xml.model.ImportLog.Status.FAILED, l.errorMessage = :message, " +
+            "l.completedAt = :now, l.updatedAt = :now WHERE l.status IN :statuses")
+    int failAll(@Param("statuses") Collection<ImportLog.Status> statuses, @Param("message") String message,
+                @Param("now") LocalDateTime now);
+}
@@ -0,0 +1,95 @@
+package import_xml.repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Множество связей (родитель, потомок) таблицы связей в виде отсортированного массива long:
+ * старшие 32 бита - первичный ключ родителя, младшие - потомка. Разница двух множеств
+ * считается одним слиянием отсортированных массивов, без коробок и хеш-таблиц.
+ */
+final class LinkSet {
+    private static final long MAX_ID = 0xFFFF_FFFFL;
+
+    private final long[] edges;
+
+    private LinkSet(long[] edges) {
+        this.edges = edges;
+    }
+
+    static long pack(long parent, long child) {
+        if (parent < 0 || parent > MAX_ID || child < 0 || child > MAX_ID) {
+            throw new IllegalArgumentException("Первичный ключ связи (" + parent + ", " + child + ") не помещается в 32 бита");
+        }
+        return parent << 32 | child;
+    }
+
+    static long parent(long edge) {
+        return edge >>> 32;
+    }
+
+    static long child(long edge) {
+        return edge & MAX_ID;
+    }
+
+    int size() {
+        return edges.length;
+    }
+
+    /**
+     * Связи этого множества, которых нет в other.
+     */
+    LinkSet minus(LinkSet other) {
+        long[] result = new long[edges.length];
+        int size = 0;
+        int j = 0;
+        for (long edge : edges) {
+            while (j < other.edges.length && other.edges[j] < edge) {
+                j++;
+            }
+            if (j == other.edges.length || other.edges[j] != edge) {
+                result[size++] = edge;
+            }
+        }
+        return new LinkSet(Arrays.copyOf(result, size));
+    }
+
+    /**
+     * Строки (родитель, потомок) для многострочных запросов.
+     */
+    List<Object[]> rows() {
+        List<Object[]> rows = new ArrayList<>(edges.length);
+        for (long edge : edges) {
+            rows.add(new Object[]{parent(edge), child(edge)});
+        }
+        return rows;
+    }
+
+    static final class Builder {
+        private long[] edges = new long[16];
+        private int size;
+
+        Builder add(long parent, long child) {
+            if (size == edges.length) {
+                edges = Arrays.copyOf(edges, size * 2);
+            }
+            edges[size++] = pack(parent, child);
+            return this;
+        }
+
+        /**
+         * Сортирует и убирает повторы.
+         */
+        LinkSet build() {
+            Arrays.sort(edges, 0, size);
+            int distinct = 0;
+            for (int i = 0; i < size; i++) {
+                if (distinct == 0 || edges[distinct - 1] != edges[i]) {
+                    edges[distinct++] = edges[i];
+                }
+            }
+            return new LinkSet(Arrays.copyOf(edges, distinct));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package import_xml.repository;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Файл строк таблицы в формате LOAD DATA по умолчанию: поля через табуляцию, строки через \n,
+ * NULL - \N, спецсимволы экранируются обратной косой чертой. Порции дописываются из
+ * нескольких потоков записи. Колонки, в которые пришли Boolean, запоминаются: их значения
+ * загружаются через переменные с приведением к числу (колонки bit в MySQL).
+ */
+public final class LoadDataFile implements Closeable {
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS");
+
+    private final Path path;
+    private final List<String> columns;
+    private final BufferedWriter out;
+    private final BitSet booleanColumns = new BitSet();
+    private long rows;
+
+    public LoadDataFile(Path path, List<String> columns) throws IOException {
+        this.path = path;
+        this.columns = List.copyOf(columns);
+        this.out = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+    }
+
+    public synchronized void append(List<Object[]> rows) {
+        try {
+            for (Object[] row : rows) {
+                for (int i = 0; i < row.length; i++) {
+                    if (i > 0) {
+                        out.write('\t');
+                    }
+                    write(i, row[i]);
+                }
+                out.write('\n');
+            }
+            this.rows += rows.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось записать строки в " + path, e);
+        }
+    }
+
+    private void write(int column, Object value) throws IOException {
+        if (value == null) {
+            out.write("\\N");
+        } else if (value instanceof Boolean flag) {
+            booleanColumns.set(column);
+            out.write(flag ? '1' : '0');
+        } else if (value instanceof LocalDateTime dateTime) {
+            out.write(DATE_TIME.format(dateTime));
+        } else if (value instanceof BigDecimal decimal) {
+            out.write(decimal.toPlainString());
+        } else {
+            String text = value.toString();
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                switch (c) {
+                    case '\\' -> out.write("\\\\");
+                    case '\t' -> out.write("\\t");
+                    case '\n' -> out.write("\\n");
+                    case '\r' -> out.write("\\r");
+                    case '\0' -> out.write("\\0");
+                    default -> out.write(c);
+                }
+            }
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    public synchronized boolean isBoolean(int column) {
+        return booleanColumns.get(column);
+    }
+
+    public synchronized long getRows() {
+        return rows;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
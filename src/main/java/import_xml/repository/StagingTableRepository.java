@@ -0,0 +1,469 @@
+package import_xml.repository;
+
+import com.google.common.collect.Lists;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Теневые таблицы полной перезагрузки: копия структуры живой таблицы (t_stage), загрузка
+ * без внешних ключей, затем ключи, подмена одним RENAME TABLE (t -> t_old, t_stage -> t)
+ * и удаление старых таблиц. Внешние ключи и индексы читаются из метаданных JDBC, поэтому
+ * семейство таблиц задается только списком имен: первой идет основная таблица, за ней дочерние.
+ * На H2 таблицы переименовываются по одной - этого достаточно для тестов.
+ */
+@Slf4j
+@Repository
+@RequiredArgsConstructor
+public class StagingTableRepository {
+    private static final String STAGE_SUFFIX = "_stage";
+    private static final String OLD_SUFFIX = "_old";
+    // имена индексов и ключей на H2 уникальны в схеме: копия чередует суффикс
+    private static final String ALTERNATE_SUFFIX = "_s";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final BulkUpsertRepository bulkUpsertRepository;
+
+    /**
+     * Внешний ключ columns таблицы table на referencedColumns таблицы referencedTable.
+     * optional - ссылку на исчезнувшую строку можно обнулить, а не удалять строку целиком
+     * (колонки допускают NULL и не входят в первичный ключ).
+     */
+    public record ForeignKey(String name, String table, List<String> columns,
+                             String referencedTable, List<String> referencedColumns, boolean optional) {
+    }
+
+    /**
+     * Семейство таблиц с созданными теневыми копиями: внешние ключи самих таблиц
+     * и ключи сторонних таблиц, ссылающиеся на семейство.
+     */
+    public record StagedFamily(List<String> tables, List<ForeignKey> foreignKeys, List<ForeignKey> inboundKeys) {
+        public String root() {
+            return tables.get(0);
+        }
+
+        boolean contains(String table) {
+            return tables.contains(table);
+        }
+    }
+
+    public static String stage(String table) {
+        return table + STAGE_SUFFIX;
+    }
+
+    static String old(String table) {
+        return table + OLD_SUFFIX;
+    }
+
+    /**
+     * Удаляет остатки прерванной перезагрузки и создает пустые теневые копии таблиц без внешних ключей.
+     */
+    public StagedFamily prepare(List<String> tables) {
+        UpsertDialect dialect = bulkUpsertRepository.getDialect();
+        return jdbcTemplate.execute((ConnectionCallback<StagedFamily>) con -> {
+            try (Statement statement = con.createStatement()) {
+                withoutForeignKeyChecks(statement, dialect, () -> {
+                    for (String table : Lists.reverse(tables)) {
+                        execute(statement, dropSql(stage(table), dialect));
+                        execute(statement, dropSql(old(table), dialect));
+                    }
+                });
+                DatabaseMetaData meta = con.getMetaData();
+                List<ForeignKey> foreignKeys = new ArrayList<>();
+                List<ForeignKey> inboundKeys = new ArrayList<>();
+                for (String table : tables) {
+                    try (ResultSet rs = meta.getImportedKeys(con.getCatalog(), con.getSchema(), table)) {
+                        foreignKeys.addAll(foreignKeys(rs));
+                    }
+                    try (ResultSet rs = meta.getExportedKeys(con.getCatalog(), con.getSchema(), table)) {
+                        for (ForeignKey key : foreignKeys(rs)) {
+                            if (!tables.contains(key.table())) {
+                                inboundKeys.add(withOptionality(con, key));
+                            }
+                        }
+                    }
+                }
+                for (String table : tables) {
+                    copyStructure(con, statement, table, dialect);
+                }
+                log.info("Созданы теневые таблицы {}: внешних ключей {}, входящих {}",
+                        tables, foreignKeys.size(), inboundKeys.size());
+                return new StagedFamily(List.copyOf(tables), foreignKeys, inboundKeys);
+            }
+        });
+    }
+
+    private void copyStructure(Connection con, Statement statement, String table, UpsertDialect dialect)
+            throws SQLException {
+        String stage = stage(table);
+        if (dialect == UpsertDialect.MYSQL) {
+            execute(statement, "CREATE TABLE " + stage + " LIKE " + table);
+            return;
+        }
+        execute(statement, "CREATE TABLE " + stage + " AS SELECT * FROM " + table + " WITH NO DATA");
+        DatabaseMetaData meta = con.getMetaData();
+        // CREATE TABLE AS на H2 не переносит NOT NULL
+        List<String> notNull = new ArrayList<>();
+        try (ResultSet rs = meta.getColumns(con.getCatalog(), con.getSchema(), table, null)) {
+            while (rs.next()) {
+                if (rs.getInt("NULLABLE") == DatabaseMetaData.columnNoNulls) {
+                    notNull.add(rs.getString("COLUMN_NAME"));
+                }
+            }
+        }
+        for (String column : notNull) {
+            execute(statement, "ALTER TABLE " + stage + " ALTER COLUMN " + column + " SET NOT NULL");
+        }
+        Map<Integer, String> keyColumns = new TreeMap<>();
+        String keyName = null;
+        try (ResultSet rs = meta.getPrimaryKeys(con.getCatalog(), con.getSchema(), table)) {
+            while (rs.next()) {
+                keyName = rs.getString("PK_NAME");
+                keyColumns.put(rs.getInt("KEY_SEQ"), rs.getString("COLUMN_NAME"));
+            }
+        }
+        if (!keyColumns.isEmpty()) {
+            execute(statement, "ALTER TABLE " + stage + " ADD CONSTRAINT " + alternate(keyName)
+                    + " PRIMARY KEY (" + String.join(", ", keyColumns.values()) + ")");
+        }
+        Map<String, Map<Integer, String>> indexColumns = new LinkedHashMap<>();
+        Set<String> unique = new LinkedHashSet<>();
+        try (ResultSet rs = meta.getIndexInfo(con.getCatalog(), con.getSchema(), table, false, false)) {
+            while (rs.next()) {
+                String name = rs.getString("INDEX_NAME");
+                if (name == null) {
+                    continue;
+                }
+                indexColumns.computeIfAbsent(name, key -> new TreeMap<>())
+                        .put(rs.getInt("ORDINAL_POSITION"), rs.getString("COLUMN_NAME"));
+                if (!rs.getBoolean("NON_UNIQUE")) {
+                    unique.add(name);
+                }
+            }
+        }
+        List<String> primaryKey = List.copyOf(keyColumns.values());
+        indexColumns.forEach((name, columns) -> {
+            List<String> indexed = List.copyOf(columns.values());
+            if (unique.contains(name) && indexed.equals(primaryKey)) {
+                return;
+            }
+            try {
+                execute(statement, "CREATE " + (unique.contains(name) ? "UNIQUE " : "") + "INDEX " + alternate(name)
+                        + " ON " + stage + " (" + String.join(", ", indexed) + ")");
+            } catch (SQLException e) {
+                throw new IllegalStateException("Не удалось скопировать индекс " + name + " таблицы " + table, e);
+            }
+        });
+    }
+
+    /**
+     * Переносит в основную теневую таблицу значения колонок, которых нет в файле (например,
+     * остатки и цены из stock.xml), из живых строк с тем же первичным ключом.
+     *
+     * @return перенесенные колонки
+     */
+    public List<String> carryOverColumns(String table, Collection<String> loadedColumns) {
+        UpsertDialect dialect = bulkUpsertRepository.getDialect();
+        List<String> columns = jdbcTemplate.execute((ConnectionCallback<List<String>>) con -> {
+            List<String> result = new ArrayList<>();
+            try (ResultSet rs = con.getMetaData().getColumns(con.getCatalog(), con.getSchema(), table, null)) {
+                while (rs.next()) {
+                    String column = rs.getString("COLUMN_NAME");
+                    if (!column.equalsIgnoreCase(BulkUpsertRepository.ID_COLUMN) && !loadedColumns.contains(column)) {
+                        result.add(column);
+                    }
+                }
+            }
+            return result;
+        });
+        if (columns.isEmpty()) {
+            return columns;
+        }
+        String stage = stage(table);
+        String sql = dialect == UpsertDialect.MYSQL
+                ? "UPDATE " + stage + " s JOIN " + table + " t ON t.id = s.id SET "
+                + columns.stream().map(column -> "s." + column + " = t." + column).collect(Collectors.joining(", "))
+                : "MERGE INTO " + stage + " s USING " + table + " t ON s.id = t.id WHEN MATCHED THEN UPDATE SET "
+                + columns.stream().map(column -> column + " = t." + column).collect(Collectors.joining(", "));
+        int updated = jdbcTemplate.update(sql);
+        log.info("В {} перенесены колонки {} для {} строк", stage, columns, updated);
+        return columns;
+    }
+
+    /**
+     * Удаляет из теневых таблиц строки, чьи внешние ключи ссылаются на отсутствующие строки
+     * (например, связи с товарами, которых нет в файле), затем создает сами ключи.
+     */
+    public void addForeignKeys(StagedFamily family) {
+        UpsertDialect dialect = bulkUpsertRepository.getDialect();
+        jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+            try (Statement statement = con.createStatement()) {
+                for (ForeignKey key : family.foreignKeys()) {
+                    String referenced = family.contains(key.referencedTable())
+                            ? stage(key.referencedTable()) : key.referencedTable();
+                    int orphans = deleteOrphans(statement, stage(key.table()), key, referenced);
+                    if (orphans > 0) {
+                        log.info("Из {} удалено {} строк без {}", stage(key.table()), orphans, referenced);
+                    }
+                }
+                withoutForeignKeyChecks(statement, dialect, () -> {
+                    for (ForeignKey key : family.foreignKeys()) {
+                        String referenced = family.contains(key.referencedTable())
+                                ? stage(key.referencedTable()) : key.referencedTable();
+                        execute(statement, addForeignKeySql(stage(key.table()), alternate(key.name()), key, referenced));
+                    }
+                });
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Подменяет живые таблицы теневыми, перенаправляет на новые таблицы внешние ключи
+     * сторонних таблиц (их ссылки на исчезнувшие записи удаляются или обнуляются) и удаляет старые таблицы.
+     */
+    public void swap(StagedFamily family) {
+        UpsertDialect dialect = bulkUpsertRepository.getDialect();
+        jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+            try (Statement statement = con.createStatement()) {
+                if (dialect == UpsertDialect.MYSQL) {
+                    execute(statement, "RENAME TABLE " + family.tables().stream()
+                            .map(table -> table + " TO " + old(table) + ", " + stage(table) + " TO " + table)
+                            .collect(Collectors.joining(", ")));
+                } else {
+                    for (String table : family.tables()) {
+                        execute(statement, "ALTER TABLE " + table + " RENAME TO " + old(table));
+                        execute(statement, "ALTER TABLE " + stage(table) + " RENAME TO " + table);
+                    }
+                }
+                log.info("Таблицы {} подменены теневыми", family.tables());
+                for (ForeignKey key : family.inboundKeys()) {
+                    int orphans = deleteOrphans(statement, key.table(), key, key.referencedTable());
+                    if (orphans > 0) {
+                        log.info("В {} {} строк без {}: {}", key.table(), orphans, key.referencedTable(),
+                                key.optional() ? "ссылки обнулены" : "строки удалены");
+                    }
+                }
+                withoutForeignKeyChecks(statement, dialect, () -> {
+                    for (ForeignKey key : family.inboundKeys()) {
+                        execute(statement, "ALTER TABLE " + key.table()
+                                + (dialect == UpsertDialect.MYSQL ? " DROP FOREIGN KEY " : " DROP CONSTRAINT ") + key.name());
+                        execute(statement, addForeignKeySql(key.table(), key.name(), key, key.referencedTable()));
+                    }
+                    for (String table : Lists.reverse(family.tables())) {
+                        execute(statement, dropSql(old(table), dialect));
+                    }
+                });
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Удаляет теневые таблицы после неудачной загрузки; живые таблицы не меняются.
+     */
+    public void dropStage(StagedFamily family) {
+        UpsertDialect dialect = bulkUpsertRepository.getDialect();
+        jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+            try (Statement statement = con.createStatement()) {
+                withoutForeignKeyChecks(statement, dialect, () -> {
+                    for (String table : Lists.reverse(family.tables())) {
+                        execute(statement, dropSql(stage(table), dialect));
+                    }
+                });
+            }
+            return null;
+        });
+    }
+
+    public long count(String table) {
+        Long count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table, Long.class);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * Проверяет, что LOAD DATA LOCAL INFILE разрешен и клиентом (allowLoadLocalInfile /
+     * allowLoadLocalInfileInPath в URL), и сервером (local_infile): загружает пустой файл.
+     */
+    public boolean supportsLoadData(String table, Path directory) {
+        if (bulkUpsertRepository.getDialect() != UpsertDialect.MYSQL) {
+            return false;
+        }
+        Path probe = null;
+        try {
+            probe = Files.createTempFile(directory, "load-data-probe", ".tsv");
+            LoadDataFile file = new LoadDataFile(probe, List.of(BulkUpsertRepository.ID_COLUMN));
+            file.close();
+            loadData(table, file);
+            return true;
+        } catch (IOException | DataAccessException e) {
+            log.info("LOAD DATA LOCAL INFILE недоступен, теневые таблицы заполняются многострочными INSERT: {}",
+                    e.getMessage());
+            return false;
+        } finally {
+            if (probe != null) {
+                probe.toFile().delete();
+            }
+        }
+    }
+
+    /**
+     * Загружает закрытый файл в таблицу; повторяющиеся ключи пропускаются (IGNORE)
+     * и обнаруживаются сверкой числа строк.
+     *
+     * @return число загруженных строк
+     */
+    public long loadData(String table, LoadDataFile file) {
+        List<String> targets = new ArrayList<>();
+        List<String> assignments = new ArrayList<>();
+        List<String> columns = file.getColumns();
+        for (int i = 0; i < columns.size(); i++) {
+            if (file.isBoolean(i)) {
+                targets.add("@c" + i);
+                assignments.add(columns.get(i) + " = CAST(@c" + i + " AS UNSIGNED)");
+            } else {
+                targets.add(columns.get(i));
+            }
+        }
+        String path = file.getPath().toAbsolutePath().toString().replace("\\", "\\\\").replace("'", "\\'");
+        String sql = "LOAD DATA LOCAL INFILE '" + path + "' IGNORE INTO TABLE " + table
+                + " CHARACTER SET utf8mb4 (" + String.join(", ", targets) + ")"
+                + (assignments.isEmpty() ? "" : " SET " + String.join(", ", assignments));
+        Integer loaded = jdbcTemplate.execute((ConnectionCallback<Integer>) con -> {
+            try (Statement statement = con.createStatement()) {
+                return statement.executeUpdate(sql);
+            }
+        });
+        return loaded != null ? loaded : 0;
+    }
+
+    private static List<ForeignKey> foreignKeys(ResultSet rs) throws SQLException {
+        Map<String, ForeignKey> keys = new LinkedHashMap<>();
+        while (rs.next()) {
+            String name = rs.getString("FK_NAME");
+            ForeignKey key = keys.computeIfAbsent(name, ignored -> {
+                try {
+                    return new ForeignKey(name, rs.getString("FKTABLE_NAME"), new ArrayList<>(),
+                            rs.getString("PKTABLE_NAME"), new ArrayList<>(), false);
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            key.columns().add(rs.getString("FKCOLUMN_NAME"));
+            key.referencedColumns().add(rs.getString("PKCOLUMN_NAME"));
+        }
+        return new ArrayList<>(keys.values());
+    }
+
+    private static ForeignKey withOptionality(Connection con, ForeignKey key) throws SQLException {
+        DatabaseMetaData meta = con.getMetaData();
+        Set<String> primaryKey = new LinkedHashSet<>();
+        try (ResultSet rs = meta.getPrimaryKeys(con.getCatalog(), con.getSchema(), key.table())) {
+            while (rs.next()) {
+                primaryKey.add(rs.getString("COLUMN_NAME"));
+            }
+        }
+        boolean optional = true;
+        try (ResultSet rs = meta.getColumns(con.getCatalog(), con.getSchema(), key.table(), null)) {
+            while (rs.next()) {
+                String column = rs.getString("COLUMN_NAME");
+                if (key.columns().contains(column) && (primaryKey.contains(column)
+                        || rs.getInt("NULLABLE") == DatabaseMetaData.columnNoNulls)) {
+                    optional = false;
+                }
+            }
+        }
+        return new ForeignKey(key.name(), key.table(), key.columns(), key.referencedTable(), key.referencedColumns(),
+                optional);
+    }
+
+    /**
+     * Удаляет строки table, ссылающиеся на отсутствующие строки referenced, а у необязательных
+     * ссылок только обнуляет колонки ключа.
+     */
+    private static int deleteOrphans(Statement statement, String table, ForeignKey key, String referenced)
+            throws SQLException {
+        StringBuilder sql = new StringBuilder();
+        if (key.optional()) {
+            sql.append("UPDATE ").append(table).append(" SET ").append(key.columns().stream()
+                    .map(column -> column + " = NULL").collect(Collectors.joining(", "))).append(" WHERE ");
+        } else {
+            sql.append("DELETE FROM ").append(table).append(" WHERE ");
+        }
+        for (String column : key.columns()) {
+            sql.append(table).append('.').append(column).append(" IS NOT NULL AND ");
+        }
+        sql.append("NOT EXISTS (SELECT 1 FROM ").append(referenced).append(" r WHERE ");
+        for (int i = 0; i < key.columns().size(); i++) {
+            sql.append(i > 0 ? " AND " : "").append("r.").append(key.referencedColumns().get(i))
+                    .append(" = ").append(table).append('.').append(key.columns().get(i));
+        }
+        sql.append(')');
+        log.debug("{}", sql);
+        return statement.executeUpdate(sql.toString());
+    }
+
+    private static String addForeignKeySql(String table, String name, ForeignKey key, String referenced) {
+        return "ALTER TABLE " + table + " ADD CONSTRAINT " + name + " FOREIGN KEY ("
+                + String.join(", ", key.columns()) + ") REFERENCES " + referenced
+                + " (" + String.join(", ", key.referencedColumns()) + ")";
+    }
+
+    private static String dropSql(String table, UpsertDialect dialect) {
+        return "DROP TABLE IF EXISTS " + table + (dialect == UpsertDialect.H2 ? " CASCADE" : "");
+    }
+
+    private static String alternate(String name) {
+        return name.endsWith(ALTERNATE_SUFFIX)
+                ? name.substring(0, name.length() - ALTERNATE_SUFFIX.length()) : name + ALTERNATE_SUFFIX;
+    }
+
+    /**
+     * На MySQL отключает проверку внешних ключей в сессии: ключи добавляются без полной
+     * перепроверки (строки-сироты удалены заранее), таблицы удаляются в любом порядке.
+     */
+    private static void withoutForeignKeyChecks(Statement statement, UpsertDialect dialect, SqlBlock block)
+            throws SQLException {
+        if (dialect != UpsertDialect.MYSQL) {
+            block.run();
+            return;
+        }
+        statement.execute("SET FOREIGN_KEY_CHECKS = 0");
+        try {
+            block.run();
+        } finally {
+            statement.execute("SET FOREIGN_KEY_CHECKS = 1");
+        }
+    }
+
+    private static void execute(Statement statement, String sql) throws SQLException {
+        log.debug("{}", sql);
+        statement.execute(sql);
+    }
+
+    @FunctionalInterface
+    private interface SqlBlock {
+        void run() throws SQLException;
+    }
+}
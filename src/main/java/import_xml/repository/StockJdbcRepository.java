@@ -0,0 +1,51 @@
+package import_xml.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Пакетное обновление остатков напрямую через JDBC, без загрузки сущностей Product.
+ * Отсутствующие в stock.xml атрибуты не затирают текущие значения (COALESCE).
+ */
+@Repository
+@RequiredArgsConstructor
+public class StockJdbcRepository {
+    private static final String UPDATE_SQL = "UPDATE products SET " +
+            "quantity = COALESCE(?, quantity), " +
+            "price = COALESCE(?, price), " +
+            "status_id = COALESCE(?, status_id), " +
+            "status_name = COALESCE(?, status_name), " +
+            "last_updated = ? " +
+            "WHERE product_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * @return число совпавших строк для каждого элемента пакета (0 - товар не найден)
+     */
+    public int[] updateStock(List<StockUpdate> updates, LocalDateTime lastUpdated) {
+        if (updates.isEmpty()) {
+            return new int[0];
+        }
+        Timestamp timestamp = Timestamp.valueOf(lastUpdated);
+        return jdbcTemplate.batchUpdate(UPDATE_SQL, updates, updates.size(), (ps, update) -> {
+            ps.setObject(1, update.quantity(), Types.INTEGER);
+            ps.setObject(2, update.price(), Types.DECIMAL);
+            ps.setObject(3, update.statusId(), Types.INTEGER);
+            ps.setObject(4, update.statusName(), Types.VARCHAR);
+            ps.setTimestamp(5, timestamp);
+            ps.setString(6, update.productId());
+        })[0];
+    }
+
+    public record StockUpdate(String productId, Integer quantity, BigDecimal price,
+                              Integer statusId, String statusName) {
+    }
+}
@@ -0,0 +1,65 @@
+package import_xml.repository;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Диалект многострочного upsert по натуральному ключу.
+ */
+public enum UpsertDialect {
+    /**
+     * INSERT ... ON DUPLICATE KEY UPDATE; ключ - уникальный индекс по натуральному id.
+     * Первичный ключ существующей строки не обновляется.
+     */
+    MYSQL {
+        @Override
+        public String upsertSql(String table, String keyColumn, List<String> columns, int rowCount) {
+            String updates = columns.stream()
+                    .filter(column -> !column.equals(keyColumn) && !column.equals(BulkUpsertRepository.ID_COLUMN))
+                    .map(column -> column + " = VALUES(" + column + ")")
+                    .collect(Collectors.joining(", "));
+            return "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES "
+                    + valuesList(columns.size(), rowCount)
+                    + " ON DUPLICATE KEY UPDATE " + updates;
+        }
+    },
+    /**
+     * MERGE INTO ... KEY (...) для локальных тестов на H2.
+     */
+    H2 {
+        @Override
+        public String upsertSql(String table, String keyColumn, List<String> columns, int rowCount) {
+            return "MERGE INTO " + table + " (" + String.join(", ", columns) + ") KEY (" + keyColumn + ") VALUES "
+                    + valuesList(columns.size(), rowCount);
+        }
+    };
+
+    public abstract String upsertSql(String table, String keyColumn, List<String> columns, int rowCount);
+
+    public static UpsertDialect fromDatabaseProductName(String productName) {
+        String name = productName != null ? productName.toLowerCase() : "";
+        if (name.contains("mysql") || name.contains("mariadb")) {
+            return MYSQL;
+        }
+        if (name.contains("h2")) {
+            return H2;
+        }
+        throw new IllegalStateException("Upsert не поддерживается для СУБД: " + productName);
+    }
+
+    static String valuesList(int columnCount, int rowCount) {
+        StringBuilder row = new StringBuilder("(");
+        for (int i = 0; i < columnCount; i++) {
+            row.append(i == 0 ? "?" : ", ?");
+        }
+        row.append(')');
+        StringBuilder values = new StringBuilder(rowCount * (row.length() + 2));
+        for (int i = 0; i < rowCount; i++) {
+            if (i > 0) {
+                values.append(", ");
+            }
+            values.append(row);
+        }
+        return values.toString();
+    }
+}
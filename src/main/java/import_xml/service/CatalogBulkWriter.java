@@ -0,0 +1,339 @@
+package import_xml.service;
+
+import com.google.common.collect.ImmutableMap;
+import import_xml.model.Category;
+import import_xml.model.Complect;
+import import_xml.model.Filter;
+import import_xml.model.Product;
+import import_xml.repository.BulkUpsertRepository;
+import import_xml.repository.IdAllocator;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Запись порций каталога через {@link BulkUpsertRepository}: основные строки - upsert
+ * по натуральному id, коллекции - замена строк для всех родителей порции, таблицы связей
+ * many-to-many - только разница между файлом и БД.
+ * Сущности здесь используются только как контейнеры разобранных значений и в контекст
+ * Hibernate не попадают.
+ */
+@Service
+@RequiredArgsConstructor
+public class CatalogBulkWriter {
+    static final List<String> PRODUCT_COLUMNS = List.of(
+            "product_id", "name", "group_id", "code", "product_size", "matherial", "alert",
+            "small_image", "super_big_image", "content", "status_id", "status_name", "brand",
+            "barcode", "weight", "volume", "ondemand", "moq", "days", "demandtype", "multiplicity",
+            "pack_amount", "pack_weight", "pack_volume", "pack_sizex", "pack_sizey", "pack_sizez",
+            "pack_minpackamount", "print_name", "print_description", "content_hash", "last_updated", "is_active");
+    static final List<String> CATEGORY_COLUMNS = List.of(
+            "category_id", "name", "description", "parent_id", "uri", "level", "sort_order", "path", "lft", "rgt",
+            "image", "last_updated", "is_active");
+    static final Map<String, List<String>> PRODUCT_CHILD_COLUMNS = ImmutableMap.of(
+            "product_alerts", List.of("product_id", "alert"),
+            "product_subproducts", List.of("product_id", "subproduct_id"),
+            "product_subproducts_entities", List.of("product_id", "subproduct_id"),
+            "product_attachments", List.of("product_id", "attachment_meaning", "attachment_file", "attachment_image",
+                    "attachment_name", "attachment_description"),
+            "product_prices", List.of("product_id", "price_value", "price_type", "price_currency",
+                    "price_date_start", "price_date_end"),
+            "product_currencies", List.of("product_id", "currency_code", "currency_rate", "currency_date"),
+            "product_filters", List.of("product_id", "filter_id"));
+    static final Map<String, List<String>> CATEGORY_CHILD_COLUMNS = ImmutableMap.of(
+            "category_products", List.of("category_id", "product_id"),
+            "category_products_on_page", List.of("category_id", "product_id"));
+    static final List<String> FILTER_COLUMNS = List.of(
+            "filter_id", "filter_type_id", "name", "sort_order", "filter_type_name", "filter_name",
+            "parent_filter_type_id", "last_updated", "is_active");
+    static final List<String> COMPLECT_COLUMNS = List.of(
+            "complect_id", "name", "description", "tocomplect", "complectprice", "last_updated", "is_active");
+
+    private final BulkUpsertRepository bulkUpsertRepository;
+    private final IdAllocator idAllocator;
+
+    public void writeProducts(List<Product> products, ReferenceIndex index) {
+        Map<String, Product> byId = distinctBy(products, Product::getProductId);
+        List<Object[]> rows = new ArrayList<>(byId.size());
+        for (Product product : byId.values()) {
+            rows.add(productRow(product));
+        }
+        // индекс загружен со всеми товарами, поэтому неизвестный ему товар считается новым
+        Map<String, Long> pks = bulkUpsertRepository.upsert("products", "product_id", PRODUCT_COLUMNS, rows,
+                index::findWrittenProductPk, true);
+        index.registerProductPks(pks);
+
+        Collection<Long> parentIds = pks.values();
+        productChildRows(byId.values(), pks).forEach((table, childRows) -> {
+            if (table.equals("product_filters")) {
+                bulkUpsertRepository.syncLinks(table, "product_id", "filter_id", parentIds, childRows);
+            } else {
+                bulkUpsertRepository.replaceChildren(table, "product_id", parentIds,
+                        PRODUCT_CHILD_COLUMNS.get(table), childRows);
+            }
+        });
+    }
+
+    public void writeCategories(List<Category> categories) {
+        Map<String, Category> byId = distinctBy(categories, Category::getCategoryId);
+        List<Object[]> rows = new ArrayList<>(byId.size());
+        for (Category category : byId.values()) {
+            rows.add(categoryRow(category));
+        }
+        Map<String, Long> pks = bulkUpsertRepository.upsert("categories", "category_id", CATEGORY_COLUMNS, rows);
+
+        Map<String, List<Object[]>> children = categoryChildRows(byId.values(), pks);
+        bulkUpsertRepository.syncLinks("category_products", "category_id", "product_id", pks.values(),
+                children.get("category_products"));
+        bulkUpsertRepository.replaceChildren("category_products_on_page", "category_id", pks.values(),
+                CATEGORY_CHILD_COLUMNS.get("category_products_on_page"), children.get("category_products_on_page"));
+    }
+
+    /**
+     * Пишет порцию товаров в теневые таблицы полной перезагрузки: строки только вставляются,
+     * существующие товары сохраняют первичный ключ из индекса, новые получают id из пула.
+     */
+    void stageProducts(List<Product> products, ReferenceIndex index, StageSink sink) {
+        Map<String, Product> byId = distinctBy(products, Product::getProductId);
+        Map<String, Long> pks = assignIds("products", byId.keySet(), index::findWrittenProductPk);
+        index.registerProductPks(pks);
+        List<Object[]> rows = new ArrayList<>(byId.size());
+        for (Product product : byId.values()) {
+            rows.add(withId(pks.get(product.getProductId()), productRow(product)));
+        }
+        sink.insert("products", withIdColumn(PRODUCT_COLUMNS), rows);
+        productChildRows(byId.values(), pks).forEach((table, childRows) ->
+                sink.insert(table, PRODUCT_CHILD_COLUMNS.get(table), childRows));
+    }
+
+    /**
+     * Пишет порцию категорий в теневые таблицы; id существующих категорий берутся из живой таблицы.
+     */
+    void stageCategories(List<Category> categories, StageSink sink) {
+        Map<String, Category> byId = distinctBy(categories, Category::getCategoryId);
+        Map<String, Long> existing = bulkUpsertRepository.findIds("categories", "category_id", byId.keySet());
+        Map<String, Long> pks = assignIds("categories", byId.keySet(), existing::get);
+        List<Object[]> rows = new ArrayList<>(byId.size());
+        for (Category category : byId.values()) {
+            rows.add(withId(pks.get(category.getCategoryId()), categoryRow(category)));
+        }
+        sink.insert("categories", withIdColumn(CATEGORY_COLUMNS), rows);
+        categoryChildRows(byId.values(), pks).forEach((table, childRows) ->
+                sink.insert(table, CATEGORY_CHILD_COLUMNS.get(table), childRows));
+    }
+
+    private Map<String, Long> assignIds(String table, Collection<String> keys, Function<String, Long> known) {
+        Map<String, Long> pks = new LinkedHashMap<>(keys.size() * 2);
+        List<String> created = new ArrayList<>();
+        for (String key : keys) {
+            Long pk = known.apply(key);
+            if (pk != null) {
+                pks.put(key, pk);
+            } else {
+                created.add(key);
+            }
+        }
+        long[] ids = idAllocator.allocate(table, created.size());
+        for (int i = 0; i < ids.length; i++) {
+            pks.put(created.get(i), ids[i]);
+        }
+        return pks;
+    }
+
+    public void writeFilters(List<Filter> filters) {
+        // Вложенные фильтры записываются вместе с родителями, затем связываются через filter_children
+        Map<String, Filter> byId = new LinkedHashMap<>();
+        for (Filter filter : filters) {
+            collectFilters(filter, byId);
+        }
+        List<Object[]> rows = new ArrayList<>(byId.size());
+        for (Filter filter : byId.values()) {
+            rows.add(new Object[]{filter.getFilterId(), filter.getFilterTypeId(), filter.getName(),
+                    filter.getSortOrder(), filter.getFilterTypeName(), filter.getFilterName(),
+                    filter.getParentFilterTypeId(), filter.getLastUpdated(), filter.getIsActive()});
+        }
+        Map<String, Long> pks = bulkUpsertRepository.upsert("filters", "filter_id", FILTER_COLUMNS, rows);
+
+        List<Object[]> productLinks = new ArrayList<>();
+        List<Object[]> childLinks = new ArrayList<>();
+        for (Filter filter : byId.values()) {
+            Long pk = pks.get(filter.getFilterId());
+            for (Product product : nullSafe(filter.getProducts())) {
+                productLinks.add(new Object[]{pk, product.getId()});
+            }
+            for (Filter child : nullSafe(filter.getFilters())) {
+                childLinks.add(new Object[]{pk, pks.get(child.getFilterId())});
+            }
+        }
+        bulkUpsertRepository.syncLinks("product_filters", "filter_id", "product_id", pks.values(), productLinks);
+        bulkUpsertRepository.syncLinks("filter_children", "parent_id", "child_id", pks.values(), childLinks);
+    }
+
+    public void writeComplects(List<Complect> complects) {
+        Map<String, Complect> byId = distinctBy(complects, Complect::getComplectId);
+        List<Object[]> rows = new ArrayList<>(byId.size());
+        for (Complect complect : byId.values()) {
+            rows.add(new Object[]{complect.getComplectId(), complect.getName(), complect.getDescription(),
+                    complect.getTocomplect(), complect.getComplectprice(), complect.getLastUpdated(),
+                    complect.getIsActive()});
+        }
+        Map<String, Long> pks = bulkUpsertRepository.upsert("complects", "complect_id", COMPLECT_COLUMNS, rows);
+
+        List<Object[]> productLinks = new ArrayList<>();
+        List<Object[]> quantities = new ArrayList<>();
+        List<Object[]> parts = new ArrayList<>();
+        for (Complect complect : byId.values()) {
+            Long pk = pks.get(complect.getComplectId());
+            for (Product product : nullSafe(complect.getProducts())) {
+                productLinks.add(new Object[]{pk, product.getId()});
+            }
+            if (complect.getProductQuantities() != null) {
+                complect.getProductQuantities().forEach((product, quantity) ->
+                        quantities.add(new Object[]{pk, product.getId(), quantity}));
+            }
+            for (Complect.ComplectPart part : nullSafe(complect.getParts())) {
+                parts.add(new Object[]{pk, part.getPartId(), part.getPublished(), part.getProductId(),
+                        part.getProduct() != null ? part.getProductId() : null, part.getCode(), part.getName(),
+                        part.getSmallImage(), part.getSuperBigImage(), part.getPrintName(),
+                        part.getPrintDescription()});
+            }
+        }
+        bulkUpsertRepository.syncLinks("complect_products", "complect_id", "product_id", pks.values(), productLinks);
+        bulkUpsertRepository.replaceChildren("complect_product_quantities", "complect_id", pks.values(),
+                List.of("complect_id", "product_id", "quantity"), quantities);
+        bulkUpsertRepository.replaceChildren("complect_parts", "complect_id", pks.values(),
+                List.of("complect_id", "part_id", "published", "product_id", "product_ref_id", "code", "name",
+                        "small_image", "super_big_image", "print_name", "print_description"), parts);
+    }
+
+    static Object[] productRow(Product product) {
+        Object[] feedValues = productFeedValues(product);
+        Object[] row = Arrays.copyOf(feedValues, feedValues.length + 3);
+        row[feedValues.length] = product.getContentHash();
+        row[feedValues.length + 1] = product.getLastUpdated();
+        row[feedValues.length + 2] = product.getIsActive();
+        return row;
+    }
+
+    /**
+     * Значения колонок товара, пришедшие из фида, в порядке {@link #PRODUCT_COLUMNS}.
+     */
+    static Object[] productFeedValues(Product product) {
+        Product.Pack pack = product.getPack() != null ? product.getPack() : new Product.Pack();
+        Product.Print print = product.getPrint() != null ? product.getPrint() : new Product.Print();
+        return new Object[]{product.getProductId(), product.getName(), product.getGroup(), product.getCode(),
+                product.getProductSize(), product.getMatherial(), product.getAlert(), product.getSmallImage(),
+                product.getSuperBigImage(), product.getContent(), product.getStatusId(), product.getStatusName(),
+                product.getBrand(), product.getBarcode(), product.getWeight(), product.getVolume(),
+                product.getOndemand(), product.getMoq(), product.getDays(), product.getDemandtype(),
+                product.getMultiplicity(), pack.getAmount(), pack.getWeight(), pack.getVolume(), pack.getSizex(),
+                pack.getSizey(), pack.getSizez(), pack.getMinpackamount(), print.getName(), print.getDescription()};
+    }
+
+    /**
+     * Строки коллекций и связей товаров по таблицам в порядке {@link #PRODUCT_CHILD_COLUMNS}.
+     */
+    private static Map<String, List<Object[]>> productChildRows(Collection<Product> products, Map<String, Long> pks) {
+        Map<String, List<Object[]>> rows = emptyRows(PRODUCT_CHILD_COLUMNS);
+        for (Product product : products) {
+            Long pk = pks.get(product.getProductId());
+            for (String alert : nullSafe(product.getAlerts())) {
+                rows.get("product_alerts").add(new Object[]{pk, alert});
+            }
+            for (String subproductId : nullSafe(product.getSubproducts())) {
+                rows.get("product_subproducts").add(new Object[]{pk, subproductId});
+            }
+            for (Product subproduct : nullSafe(product.getSubproductEntities())) {
+                rows.get("product_subproducts_entities").add(new Object[]{pk, subproduct.getId()});
+            }
+            for (Product.ProductAttachment attachment : nullSafe(product.getAttachments())) {
+                rows.get("product_attachments").add(new Object[]{pk, attachment.getMeaning(), attachment.getFile(),
+                        attachment.getImage(), attachment.getName(), attachment.getDescription()});
+            }
+            for (Product.Price price : nullSafe(product.getPrices())) {
+                rows.get("product_prices").add(new Object[]{pk, price.getValue(), price.getType(),
+                        price.getCurrency(), price.getDateStart(), price.getDateEnd()});
+            }
+            for (Product.Currency currency : nullSafe(product.getCurrencies())) {
+                rows.get("product_currencies").add(new Object[]{pk, currency.getCode(), currency.getRate(),
+                        currency.getDate()});
+            }
+            for (Filter filter : nullSafe(product.getFilters())) {
+                rows.get("product_filters").add(new Object[]{pk, filter.getId()});
+            }
+        }
+        return rows;
+    }
+
+    private static Object[] categoryRow(Category category) {
+        return new Object[]{category.getCategoryId(), category.getName(), category.getDescription(),
+                category.getParentId(), category.getUri(), category.getLevel(), category.getSortOrder(),
+                category.getPath(), category.getLft(), category.getRgt(),
+                category.getImage(), category.getLastUpdated(), category.getIsActive()};
+    }
+
+    private static Map<String, List<Object[]>> categoryChildRows(Collection<Category> categories,
+                                                                 Map<String, Long> pks) {
+        Map<String, List<Object[]>> rows = emptyRows(CATEGORY_CHILD_COLUMNS);
+        for (Category category : categories) {
+            Long pk = pks.get(category.getCategoryId());
+            for (Product product : nullSafe(category.getProducts())) {
+                rows.get("category_products").add(new Object[]{pk, product.getId()});
+            }
+            for (String productId : nullSafe(category.getProductsOnPage())) {
+                rows.get("category_products_on_page").add(new Object[]{pk, productId});
+            }
+        }
+        return rows;
+    }
+
+    private static Map<String, List<Object[]>> emptyRows(Map<String, List<String>> tables) {
+        Map<String, List<Object[]>> rows = new LinkedHashMap<>();
+        tables.keySet().forEach(table -> rows.put(table, new ArrayList<>()));
+        return rows;
+    }
+
+    private static List<String> withIdColumn(List<String> columns) {
+        List<String> result = new ArrayList<>(columns.size() + 1);
+        result.add("id");
+        result.addAll(columns);
+        return result;
+    }
+
+    private static Object[] withId(Long id, Object[] row) {
+        Object[] result = new Object[row.length + 1];
+        result[0] = id;
+        System.arraycopy(row, 0, result, 1, row.length);
+        return result;
+    }
+
+    private void collectFilters(Filter filter, Map<String, Filter> byId) {
+        byId.put(filter.getFilterId(), filter);
+        for (Filter child : nullSafe(filter.getFilters())) {
+            collectFilters(child, byId);
+        }
+    }
+
+    /**
+     * Последнее вхождение натурального id в порции побеждает, как при последовательном сохранении.
+     */
+    private static <T> Map<String, T> distinctBy(List<T> items, Function<T, String> key) {
+        Map<String, T> result = new LinkedHashMap<>(items.size() * 2);
+        for (T item : items) {
+            result.put(key.apply(item), item);
+        }
+        return result;
+    }
+
+    private static <T> Set<T> nullSafe(Set<T> values) {
+        return values != null ? values : Set.of();
+    }
+}
@@ -8,11 +8,8 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
@@ -31,29 +28,29 @@ public class CategoryService {
         return categoryRepository.findByCategoryId(categoryId);
     }
 
+    /**
+     * Дерево категорий в прямом порядке обхода: у каждой есть level и path, по которым дерево
+     * восстанавливается без рекурсии. У категорий с потомками товары не отдаются.
+     */
     public List<Category> getCategoryTree(boolean active) {
-        List<Category> allCategories = categoryRepository.findByIsActiveOrderByLevelAscSortOrderAsc(active);
-        Map<String, List<Category>> categoriesByParent = allCategories.stream()
-                .collect(Collectors.groupingBy(category ->
-                        category.getParentId() != null ? category.getParentId() : "root"));
-
-        return buildCategoryTree("root", categoriesByParent);
+        List<Category> categories = categoryRepository.findByIsActiveOrderByLft(active);
+        categories.stream().filter(this::hasChildren).forEach(category -> category.setProducts(null));
+        return categories;
     }
 
-    private List<Category> buildCategoryTree(String parentId, Map<String, List<Category>> categoriesByParent) {
-        List<Category> children = categoriesByParent.get(parentId);
-        if (children == null) {
-            return new ArrayList<>();
-        }
+    /**
+     * Категория со всеми потомками - одна выборка по диапазону [lft, rgt].
+     */
+    public List<Category> getSubtree(String categoryId, boolean active) {
+        return categoryRepository.findByCategoryId(categoryId)
+                .map(category -> category.getLft() != null && category.getRgt() != null
+                        ? categoryRepository.findSubtree(category.getLft(), category.getRgt(), active)
+                        : List.of(category))
+                .orElse(List.of());
+    }
 
-        return children.stream()
-                .peek(category -> {
-                    List<Category> childCategories = buildCategoryTree(category.getCategoryId(), categoriesByParent);
-                    if (!childCategories.isEmpty()) {
-                        category.setProducts(null); // Очищаем продукты для родительских категорий
-                    }
-                })
-                .collect(Collectors.toList());
+    private boolean hasChildren(Category category) {
+        return category.getLft() != null && category.getRgt() != null && category.getRgt() - category.getLft() > 1;
     }
 
     public Page<Category> findCategoryWithProducts(String categoryId, Pageable pageable) {
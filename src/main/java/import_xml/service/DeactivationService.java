@@ -0,0 +1,70 @@
+package import_xml.service;
+
+import import_xml.config.ImportXmlProperties;
+import import_xml.repository.BulkUpsertRepository;
+import import_xml.util.NaturalIdSet;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+
+/**
+ * Деактивация строк, пропавших из фида: натуральные id, прочитанные из полного файла,
+ * сравниваются с id активных строк таблицы как сжатые битовые множества, и разность
+ * деактивируется пакетными UPDATE. Если без строки в файле оказывается больше
+ * deactivation.max-percent активных строк (обрезанный или пустой файл) или часть элементов
+ * не записана либо не разобрана из-за ошибки, ничего не меняется.
+ * Вернувшиеся в фид строки снова становятся активными при обычной записи.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DeactivationService {
+    private final BulkUpsertRepository bulkUpsertRepository;
+    private final ImportXmlProperties properties;
+
+    /**
+     * @param seen натуральные id всех элементов файла, включая неизмененные
+     * @return число деактивированных строк
+     */
+    public int sweep(String table, String keyColumn, NaturalIdSet seen, ImportSummary summary) {
+        ImportXmlProperties.Deactivation settings = properties.getDeactivation();
+        if (!settings.isEnabled()) {
+            return 0;
+        }
+        if (summary.getResumedFrom() > 0) {
+            log.warn("Деактивация {} пропущена: импорт продолжен с элемента {}, id начала файла не собраны",
+                    table, summary.getResumedFrom());
+            return 0;
+        }
+        if (summary.getFailed() > 0) {
+            log.warn("Деактивация {} пропущена: при импорте не записано {} элементов", table, summary.getFailed());
+            return 0;
+        }
+        if (summary.getMalformed() > 0) {
+            // id элемента с ошибкой разбора не попал в seen, хотя строка из файла не пропала
+            log.warn("Деактивация {} пропущена: {} элементов не разобрано из-за ошибок", table, summary.getMalformed());
+            return 0;
+        }
+        long start = System.currentTimeMillis();
+        NaturalIdSet active = new NaturalIdSet();
+        bulkUpsertRepository.forEachActiveKey(table, keyColumn, active::add);
+        NaturalIdSet missing = active.minus(seen);
+        int count = missing.size();
+        if (count == 0) {
+            return 0;
+        }
+        double percent = 100.0 * count / active.size();
+        if (percent > settings.getMaxPercent()) {
+            log.warn("Деактивация {} отменена: в файле нет {} из {} активных строк ({}%), порог {}%",
+                    table, count, active.size(), Math.round(percent), settings.getMaxPercent());
+            return 0;
+        }
+        int deactivated = bulkUpsertRepository.deactivate(table, keyColumn, missing.toList(), LocalDateTime.now());
+        summary.addDeactivated(deactivated);
+        log.info("Деактивировано {} строк {} из {} активных за {} мс (битмап id {} байт)",
+                deactivated, table, active.size(), System.currentTimeMillis() - start, active.sizeInBytes());
+        return deactivated;
+    }
+}
@@ -0,0 +1,319 @@
+package import_xml.service;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import import_xml.config.ImportXmlProperties;
+import import_xml.util.ApiClients;
+import import_xml.util.RateLimiters;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Загрузка файлов API с докачкой: при обрыве соединения тело ответа продолжает читаться
+ * с того же байта запросом с Range (и If-Range, чтобы не склеить разные версии файла).
+ * Обрывы и ответы 5xx повторяются с ограниченной экспоненциальной задержкой
+ * (xml-download.retry-attempts, retry-delay, retry-max-delay). В конце сверяются размер
+ * (Content-Length) и, если сервер его прислал, SHA-256 из Repr-Digest/Digest. Каждый запрос,
+ * включая докачку, берет токен ограничителя API поставщика. Докачка повторяет заголовки
+ * исходного запроса (Accept-Encoding, авторизацию), кроме условных, и принимается, только если
+ * Content-Encoding совпал с первым ответом - позиция считается в байтах сжатого тела.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class FeedDownloader {
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+|\\*)");
+    private static final Pattern SHA256_DIGEST = Pattern.compile("sha-256=:?([A-Za-z0-9+/=]+):?", Pattern.CASE_INSENSITIVE);
+
+    private final ApiClients apiClients;
+    private final ImportXmlProperties properties;
+    private final RateLimiters rateLimiters;
+
+    /**
+     * Выполняет GET; тело ответа - поток, который сам докачивает данные после обрыва.
+     * Ошибки 4xx не повторяются и выбрасываются как {@link HttpClientErrorException}.
+     */
+    public ClientHttpResponse open(String url, Consumer<HttpHeaders> requestHeaders) throws IOException {
+        URI uri = URI.create(url);
+        ClientHttpResponse response = withRetries(url, () -> execute(uri, requestHeaders));
+        if (response.getStatusCode().is2xxSuccessful()) {
+            return new ResumableResponse(uri, response, requestHeaders);
+        }
+        return response;
+    }
+
+    private ClientHttpResponse execute(URI uri, Consumer<HttpHeaders> requestHeaders) throws IOException {
+        try {
+            rateLimiters.supplier().acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Загрузка прервана");
+        }
+        ClientHttpRequest request = apiClients.supplier().getRequestFactory().createRequest(uri, HttpMethod.GET);
+        requestHeaders.accept(request.getHeaders());
+        ClientHttpResponse response = request.execute();
+        HttpStatusCode status = response.getStatusCode();
+        if (status.is5xxServerError()) {
+            response.close();
+            throw new IOException("Сервер ответил " + status.value());
+        }
+        if (status.is4xxClientError()) {
+            response.close();
+            throw HttpClientErrorException.create(status, "Ошибка загрузки " + uri, response.getHeaders(), null, null);
+        }
+        return response;
+    }
+
+    private <T> T withRetries(String what, IoCall<T> call) throws IOException {
+        int attempts = Math.max(1, properties.getXmlDownload().getRetryAttempts());
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return call.call();
+            } catch (NotResumableException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt >= attempts) {
+                    throw e;
+                }
+                long delay = backoffMillis(attempt);
+                log.warn("{}: попытка {} из {} не удалась ({}), повтор через {} мс",
+                        what, attempt, attempts, e.getMessage(), delay);
+                sleep(delay);
+            }
+        }
+    }
+
+    long backoffMillis(int attempt) {
+        ImportXmlProperties.XmlDownload settings = properties.getXmlDownload();
+        long max = settings.getRetryMaxDelay() * 1000L;
+        long delay = (settings.getRetryDelay() * 1000L) << Math.min(attempt - 1, 20);
+        return Math.min(delay, max);
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Загрузка прервана");
+        }
+    }
+
+    @FunctionalInterface
+    private interface IoCall<T> {
+        T call() throws IOException;
+    }
+
+    /**
+     * Докачка невозможна или бессмысленна (нет валидатора, файл на сервере изменился) - не повторяем.
+     */
+    private static final class NotResumableException extends IOException {
+        NotResumableException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * Ответ, чье тело при обрыве переоткрывается с текущей позиции.
+     */
+    private final class ResumableResponse implements ClientHttpResponse {
+        private final URI uri;
+        private final ClientHttpResponse first;
+        private final Consumer<HttpHeaders> requestHeaders;
+        private final ResumableBody body;
+
+        ResumableResponse(URI uri, ClientHttpResponse first, Consumer<HttpHeaders> requestHeaders) throws IOException {
+            this.uri = uri;
+            this.first = first;
+            this.requestHeaders = requestHeaders;
+            this.body = new ResumableBody(first);
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return first.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return first.getStatusText();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return first.getHeaders();
+        }
+
+        @Override
+        public InputStream getBody() {
+            return body;
+        }
+
+        @Override
+        public void close() {
+            body.closeCurrent();
+        }
+
+        private final class ResumableBody extends InputStream {
+            private final String validator;
+            private final String contentEncoding;
+            private final long expectedLength;
+            private final String expectedSha256;
+            private final Hasher hasher = Hashing.sha256().newHasher();
+            private ClientHttpResponse current;
+            private InputStream in;
+            private long position;
+            private long resumedAt = -1;
+            private int failures;
+            private boolean finished;
+
+            ResumableBody(ClientHttpResponse response) throws IOException {
+                HttpHeaders headers = response.getHeaders();
+                this.validator = headers.getETag() != null ? headers.getETag() : headers.getFirst(HttpHeaders.LAST_MODIFIED);
+                this.contentEncoding = contentEncoding(headers);
+                this.expectedLength = headers.getContentLength();
+                this.expectedSha256 = sha256Digest(headers);
+                this.current = response;
+                this.in = response.getBody();
+            }
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                int n = read(one, 0, 1);
+                return n < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (finished) {
+                    return -1;
+                }
+                while (true) {
+                    int n;
+                    try {
+                        n = in.read(b, off, len);
+                    } catch (IOException e) {
+                        resume(e);
+                        continue;
+                    }
+                    if (n < 0) {
+                        if (expectedLength >= 0 && position < expectedLength) {
+                            resume(new EOFException("Получено " + position + " из " + expectedLength + " байт"));
+                            continue;
+                        }
+                        finish();
+                        return -1;
+                    }
+                    position += n;
+                    hasher.putBytes(b, off, n);
+                    return n;
+                }
+            }
+
+            private void resume(IOException cause) throws IOException {
+                if (validator == null) {
+                    throw new NotResumableException("Сервер не прислал ETag/Last-Modified, докачка невозможна", cause);
+                }
+                // обрывы без продвижения тоже ограничены retry-attempts
+                failures = position > resumedAt ? 1 : failures + 1;
+                if (failures > properties.getXmlDownload().getRetryAttempts()) {
+                    throw cause;
+                }
+                resumedAt = position;
+                log.warn("Обрыв загрузки {} на байте {} ({}), докачиваем", uri, position, cause.getMessage());
+                closeCurrent();
+                sleep(backoffMillis(1));
+                current = withRetries(uri.toString(), () -> {
+                    ClientHttpResponse response = execute(uri, headers -> {
+                        requestHeaders.accept(headers);
+                        headers.remove(HttpHeaders.IF_NONE_MATCH);
+                        headers.remove(HttpHeaders.IF_MODIFIED_SINCE);
+                        headers.set(HttpHeaders.RANGE, "bytes=" + position + "-");
+                        headers.set(HttpHeaders.IF_RANGE, validator);
+                    });
+                    checkRange(response, cause);
+                    return response;
+                });
+                in = current.getBody();
+            }
+
+            private void checkRange(ClientHttpResponse response, IOException cause) throws IOException {
+                Matcher range = CONTENT_RANGE.matcher(String.valueOf(response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE)));
+                if (response.getStatusCode().value() != 206 || !range.matches()
+                        || Long.parseLong(range.group(1)) != position) {
+                    response.close();
+                    throw new NotResumableException("Сервер не продолжил загрузку с байта " + position
+                            + " (ответ " + response.getStatusCode().value() + ", файл мог измениться)", cause);
+                }
+                String encoding = contentEncoding(response.getHeaders());
+                if (!encoding.equals(contentEncoding)) {
+                    response.close();
+                    throw new NotResumableException("Сервер сменил Content-Encoding при докачке: " + contentEncoding
+                            + " -> " + encoding, cause);
+                }
+            }
+
+            private static String contentEncoding(HttpHeaders headers) {
+                String encoding = headers.getFirst(HttpHeaders.CONTENT_ENCODING);
+                return encoding == null || encoding.isBlank() ? "identity" : encoding.trim().toLowerCase(Locale.ROOT);
+            }
+
+            private void finish() throws IOException {
+                finished = true;
+                if (expectedLength >= 0 && position != expectedLength) {
+                    throw new IOException("Размер загрузки " + position + " байт, ожидалось " + expectedLength);
+                }
+                if (expectedSha256 != null) {
+                    String actual = Base64.getEncoder().encodeToString(hasher.hash().asBytes());
+                    if (!actual.equals(expectedSha256)) {
+                        throw new IOException("Контрольная сумма загрузки " + uri + " не совпала с Digest сервера");
+                    }
+                }
+            }
+
+            private void closeCurrent() {
+                if (current != null) {
+                    current.close();
+                    current = null;
+                }
+            }
+
+            @Override
+            public void close() {
+                closeCurrent();
+            }
+        }
+    }
+
+    private static String sha256Digest(HttpHeaders headers) {
+        for (String name : new String[]{"Repr-Digest", "Digest"}) {
+            String value = headers.getFirst(name);
+            if (value != null) {
+                Matcher matcher = SHA256_DIGEST.matcher(value);
+                if (matcher.find()) {
+                    return matcher.group(1);
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,102 @@
+package import_xml.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Граф файлов API с зависимостями обработки. Каждый узел запускается сразу и получает future
+ * своих предпосылок: загрузку он может вести параллельно с ними, а обрабатывать файл - только
+ * после их завершения. Предпосылка считается выполненной и при ошибке: данные зависимого файла
+ * все равно загружаются, ссылки на незагруженное просто не разрешатся, как и раньше.
+ */
+final class FeedGraph {
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+
+    record Node(String fileType, String fileName, List<String> dependsOn) {
+    }
+
+    @FunctionalInterface
+    interface Task {
+        boolean run(Node node, CompletableFuture<Void> prerequisites) throws Exception;
+    }
+
+    /**
+     * Порядок файлов API: фильтры -> товары -> (остатки, дерево, комплекты, каталог). Каталог
+     * тоже пишет товары и их связи, поэтому идет после product.xml, а не наперегонки с ним.
+     */
+    static FeedGraph standard(String product, String stock, String tree, String filters, String complects,
+                              String catalogue) {
+        return new FeedGraph()
+                .add("filters", filters)
+                .add("products", product, "filters")
+                .add("stock", stock, "products")
+                .add("tree", tree, "products")
+                .add("complects", complects, "products")
+                .add("catalogue", catalogue, "products");
+    }
+
+    FeedGraph add(String fileType, String fileName, String... dependsOn) {
+        for (String dependency : dependsOn) {
+            if (!nodes.containsKey(dependency)) {
+                // узлы добавляются после своих предпосылок, поэтому цикл невозможен
+                throw new IllegalArgumentException("Неизвестная предпосылка " + dependency + " у " + fileType);
+            }
+        }
+        nodes.put(fileType, new Node(fileType, fileName, List.of(dependsOn)));
+        return this;
+    }
+
+    int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Executor должен вмещать все узлы сразу: узел ждет предпосылки, занимая поток.
+     */
+    Map<String, CompletableFuture<Boolean>> run(Executor executor, Task task) {
+        Map<String, CompletableFuture<Boolean>> futures = new LinkedHashMap<>();
+        for (Node node : nodes.values()) {
+            CompletableFuture<?>[] dependencies = node.dependsOn().stream().map(futures::get)
+                    .toArray(CompletableFuture[]::new);
+            CompletableFuture<Void> prerequisites = CompletableFuture.allOf(dependencies)
+                    .handle((ignored, error) -> null);
+            futures.put(node.fileType(), CompletableFuture.supplyAsync(() -> {
+                try {
+                    return task.run(node, prerequisites);
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }, executor));
+        }
+        return futures;
+    }
+
+    /**
+     * Ждет все узлы; ошибки собираются в одно исключение, когда завершатся остальные.
+     */
+    static void await(Map<String, CompletableFuture<Boolean>> futures) {
+        List<String> failed = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        futures.forEach((fileType, future) -> {
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                failed.add(fileType);
+                errors.add(e.getCause());
+            }
+        });
+        if (!failed.isEmpty()) {
+            RuntimeException error = new RuntimeException("Не загружены файлы: " + String.join(", ", failed),
+                    errors.get(0));
+            errors.stream().skip(1).forEach(error::addSuppressed);
+            throw error;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package import_xml.service;
+
+import import_xml.model.FeedState;
+import import_xml.repository.FeedStateRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+/**
+ * Хранит ETag, Last-Modified и SHA-256 последней успешно импортированной версии каждого файла API.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class FeedStateService {
+    private final FeedStateRepository feedStateRepository;
+
+    public Optional<FeedState> find(String fileName) {
+        return feedStateRepository.findById(fileName);
+    }
+
+    public void addConditionalHeaders(FeedState state, HttpHeaders headers) {
+        if (state == null) {
+            return;
+        }
+        if (state.getEtag() != null) {
+            headers.set(HttpHeaders.IF_NONE_MATCH, state.getEtag());
+        }
+        if (state.getLastModified() != null) {
+            headers.set(HttpHeaders.IF_MODIFIED_SINCE, state.getLastModified());
+        }
+    }
+
+    public boolean isUnchanged(FeedState state, String sha256) {
+        return state != null && sha256.equals(state.getSha256());
+    }
+
+    public void markChecked(String fileName) {
+        feedStateRepository.findById(fileName).ifPresent(state -> {
+            state.setLastChecked(LocalDateTime.now());
+            feedStateRepository.save(state);
+        });
+    }
+
+    /**
+     * Запоминает валидаторы ответа; вызывается только после успешного импорта, чтобы
+     * неудачная загрузка не помешала повторной.
+     */
+    public void markImported(String fileName, HttpHeaders responseHeaders, String sha256, long contentLength,
+                             long transferLength) {
+        FeedState state = feedStateRepository.findById(fileName).orElseGet(FeedState::new);
+        LocalDateTime now = LocalDateTime.now();
+        state.setFileName(fileName);
+        state.setEtag(responseHeaders.getETag());
+        state.setLastModified(responseHeaders.getFirst(HttpHeaders.LAST_MODIFIED));
+        state.setSha256(sha256);
+        state.setContentLength(contentLength);
+        state.setTransferLength(transferLength);
+        state.setLastChecked(now);
+        state.setLastImported(now);
+        feedStateRepository.save(state);
+        log.debug("Состояние файла {} обновлено: etag={}, sha256={}", fileName, state.getEtag(), sha256);
+    }
+
+    /**
+     * Импорт прошел с ошибками записи или был отменен: валидаторы сбрасываются, чтобы следующая
+     * синхронизация не получила 304 или совпадение контрольной суммы и импортировала файл заново.
+     */
+    public void markIncomplete(String fileName) {
+        feedStateRepository.findById(fileName).ifPresent(state -> {
+            state.setEtag(null);
+            state.setLastModified(null);
+            state.setSha256(null);
+            state.setLastChecked(LocalDateTime.now());
+            feedStateRepository.save(state);
+            log.debug("Валидаторы файла {} сброшены", fileName);
+        });
+    }
+}
@@ -0,0 +1,212 @@
+package import_xml.service;
+
+import import_xml.config.ImportXmlProperties;
+import import_xml.repository.BulkUpsertRepository;
+import import_xml.repository.LoadDataFile;
+import import_xml.repository.StagingTableRepository;
+import import_xml.repository.StagingTableRepository.StagedFamily;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import static import_xml.repository.StagingTableRepository.stage;
+
+/**
+ * Полная перезагрузка семейства таблиц через теневые копии: файл записывается в t_stage
+ * (LOAD DATA LOCAL INFILE из файлов, накопленных при разборе, либо многострочными INSERT
+ * по порциям, если LOCAL INFILE запрещен), число строк сверяется, и таблицы подменяются
+ * одним RENAME TABLE. До подмены живые таблицы не меняются: читатели API не видят
+ * полуимпортированный каталог и не ждут блокировок импорта. Строки, которых нет в файле,
+ * после подмены исчезают вместе со ссылками на них.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class FullReloadService {
+    static final List<String> PRODUCT_TABLES = List.of("products", "product_alerts", "product_subproducts",
+            "product_subproducts_entities", "product_attachments", "product_prices", "product_currencies",
+            "product_filters");
+    static final List<String> CATEGORY_TABLES = List.of("categories", "category_products",
+            "category_products_on_page");
+
+    private final StagingTableRepository stagingTableRepository;
+    private final BulkUpsertRepository bulkUpsertRepository;
+    private final ImportXmlProperties properties;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * @param tables основная таблица и ее дочерние
+     * @param load разбирает файл, записывая порции в переданный приемник
+     */
+    ImportSummary reload(List<String> tables, Function<StageSink, ImportSummary> load) {
+        if (!lock.tryLock()) {
+            throw new IllegalStateException("Полная перезагрузка уже выполняется");
+        }
+        try {
+            long start = System.currentTimeMillis();
+            StagedFamily family = stagingTableRepository.prepare(tables);
+            Spool spool = openSpool(family);
+            try {
+                CountingSink sink = new CountingSink(spool);
+                ImportSummary summary = load.apply(sink);
+                sink.finish();
+                validate(family, summary, sink);
+                stagingTableRepository.carryOverColumns(family.root(),
+                        sink.columns.getOrDefault(family.root(), List.of()));
+                stagingTableRepository.addForeignKeys(family);
+                stagingTableRepository.swap(family);
+                log.info("Полная перезагрузка {} завершена за {} мс: {}",
+                        family.root(), System.currentTimeMillis() - start, summary);
+                return summary;
+            } catch (RuntimeException e) {
+                log.error("Полная перезагрузка {} отменена, живые таблицы не изменены: {}", family.root(), e.getMessage());
+                stagingTableRepository.dropStage(family);
+                throw e;
+            } finally {
+                if (spool != null) {
+                    spool.delete();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Spool openSpool(StagedFamily family) {
+        if (!properties.getFullReload().isLoadData()) {
+            return null;
+        }
+        try {
+            Path tempDir = Path.of(properties.getXmlDownload().getTempDir());
+            Files.createDirectories(tempDir);
+            if (!stagingTableRepository.supportsLoadData(stage(family.root()), tempDir)) {
+                return null;
+            }
+            return new Spool(Files.createTempDirectory(tempDir, "full-reload"));
+        } catch (IOException e) {
+            log.warn("Не удалось подготовить файлы LOAD DATA, используются INSERT: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private void validate(StagedFamily family, ImportSummary summary, CountingSink sink) {
+        String root = family.root();
+        if (summary.getFailed() > 0) {
+            throw new IllegalStateException("Не записано элементов: " + summary.getFailed());
+        }
+        long written = sink.rows(root);
+        long staged = stagingTableRepository.count(stage(root));
+        if (staged != written) {
+            throw new IllegalStateException("В " + stage(root) + " " + staged + " строк, записано " + written
+                    + " (повторяющиеся id в файле?)");
+        }
+        long live = stagingTableRepository.count(root);
+        double minRowRatio = properties.getFullReload().getMinRowRatio();
+        if (staged < live * minRowRatio) {
+            throw new IllegalStateException("В файле " + staged + " строк против " + live + " в " + root
+                    + ", меньше доли full-reload.min-row-ratio = " + minRowRatio);
+        }
+        for (String table : family.tables()) {
+            log.info("Теневая таблица {}: {} строк", stage(table), stagingTableRepository.count(stage(table)));
+        }
+    }
+
+    /**
+     * Считает строки и запоминает колонки каждой таблицы; пишет либо в файлы LOAD DATA,
+     * либо сразу многострочными INSERT.
+     */
+    private final class CountingSink implements StageSink {
+        private final Spool spool;
+        private final Map<String, LongAdder> rows = new ConcurrentHashMap<>();
+        private final Map<String, List<String>> columns = new ConcurrentHashMap<>();
+
+        CountingSink(Spool spool) {
+            this.spool = spool;
+        }
+
+        @Override
+        public void insert(String table, List<String> tableColumns, List<Object[]> tableRows) {
+            columns.putIfAbsent(table, tableColumns);
+            if (tableRows.isEmpty()) {
+                return;
+            }
+            if (spool != null) {
+                spool.file(table, tableColumns).append(tableRows);
+            } else {
+                bulkUpsertRepository.insert(stage(table), tableColumns, tableRows);
+            }
+            rows.computeIfAbsent(table, key -> new LongAdder()).add(tableRows.size());
+        }
+
+        long rows(String table) {
+            LongAdder count = rows.get(table);
+            return count != null ? count.sum() : 0;
+        }
+
+        void finish() {
+            if (spool != null) {
+                spool.load();
+            }
+        }
+    }
+
+    /**
+     * Файлы LOAD DATA по таблицам во временной директории; удаляются после загрузки.
+     */
+    private final class Spool {
+        private final Path directory;
+        private final Map<String, LoadDataFile> files = new ConcurrentHashMap<>();
+
+        Spool(Path directory) {
+            this.directory = directory;
+        }
+
+        LoadDataFile file(String table, List<String> columns) {
+            return files.computeIfAbsent(table, key -> {
+                try {
+                    return new LoadDataFile(directory.resolve(key + ".tsv"), columns);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+
+        void load() {
+            try {
+                for (Map.Entry<String, LoadDataFile> entry : files.entrySet()) {
+                    LoadDataFile file = entry.getValue();
+                    file.close();
+                    long start = System.currentTimeMillis();
+                    long loaded = stagingTableRepository.loadData(stage(entry.getKey()), file);
+                    log.info("LOAD DATA {}: {} из {} строк за {} мс", stage(entry.getKey()), loaded, file.getRows(),
+                            System.currentTimeMillis() - start);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void delete() {
+            for (LoadDataFile file : files.values()) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    log.debug("Не удалось закрыть {}: {}", file.getPath(), e.getMessage());
+                }
+            }
+            FileUtils.deleteQuietly(directory.toFile());
+        }
+    }
+}
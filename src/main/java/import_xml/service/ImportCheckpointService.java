@@ -0,0 +1,179 @@
+package import_xml.service;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import import_xml.config.ImportXmlProperties;
+import import_xml.model.ImportCheckpoint;
+import import_xml.repository.ImportCheckpointRepository;
+import import_xml.util.XmlPartitioner;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Контрольные точки импорта файлов API. Пока файл импортируется, его копия хранится
+ * в директории импорта, а после каждой зафиксированной порции в import_checkpoint
+ * записывается, сколько элементов от начала файла уже записано и с какого байта начинается
+ * следующий. Если процесс упал, следующая загрузка сверяет SHA-256 копии и продолжает
+ * импорт с этого байта. Точка сдвигается после фиксации порции, поэтому после сбоя
+ * последняя порция может записаться повторно - запись идемпотентна (upsert по натуральным id).
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ImportCheckpointService {
+    // файлы с одним видом элементов верхнего уровня; остатки и catalogue.xml импортируются целиком.
+    // Дерево категорий тоже: интервалы вложенного множества [lft, rgt] нумеруются сквозным счетчиком
+    // от начала файла, и при продолжении новые корни пересеклись бы с уже записанными
+    private static final Set<String> FILE_TYPES = Set.of("products", "filters", "complects");
+
+    private final ImportCheckpointRepository importCheckpointRepository;
+    private final ImportXmlProperties properties;
+
+    public boolean supports(String fileType) {
+        return properties.getCheckpoint().isEnabled() && FILE_TYPES.contains(fileType);
+    }
+
+    /**
+     * Точка прерванного импорта, если сохраненная копия файла цела; иначе точка и копия удаляются.
+     */
+    public Optional<ImportCheckpoint> findResumable(String fileName) {
+        Optional<ImportCheckpoint> found = importCheckpointRepository.findById(fileName);
+        if (found.isEmpty()) {
+            return found;
+        }
+        ImportCheckpoint checkpoint = found.get();
+        File file = new File(checkpoint.getLocalFile());
+        try {
+            if (file.isFile() && file.length() == checkpoint.getContentLength()
+                    && Files.asByteSource(file).hash(Hashing.sha256()).toString().equals(checkpoint.getSha256())) {
+                return found;
+            }
+            log.warn("Копия {} для продолжения импорта {} отсутствует или изменилась, контрольная точка сброшена",
+                    file, fileName);
+        } catch (IOException e) {
+            log.warn("Не удалось проверить копию {} для продолжения импорта {}: {}", file, fileName, e.getMessage());
+        }
+        FileUtils.deleteQuietly(file);
+        importCheckpointRepository.delete(checkpoint);
+        return Optional.empty();
+    }
+
+    /**
+     * Заводит точку перед импортом загруженного файла.
+     */
+    public ImportCheckpoint start(String fileName, String fileType, File localFile, HttpHeaders responseHeaders,
+                                  String sha256, long contentLength, long transferLength) {
+        ImportCheckpoint checkpoint = new ImportCheckpoint();
+        LocalDateTime now = LocalDateTime.now();
+        checkpoint.setFileName(fileName);
+        checkpoint.setFileType(fileType);
+        checkpoint.setLocalFile(localFile.getAbsolutePath());
+        checkpoint.setEtag(responseHeaders.getETag());
+        checkpoint.setLastModified(responseHeaders.getFirst(HttpHeaders.LAST_MODIFIED));
+        checkpoint.setSha256(sha256);
+        checkpoint.setContentLength(contentLength);
+        checkpoint.setTransferLength(transferLength);
+        checkpoint.setStartedAt(now);
+        checkpoint.setUpdatedAt(now);
+        return importCheckpointRepository.save(checkpoint);
+    }
+
+    /**
+     * Валидаторы ответа, с которым был загружен файл точки: по ним запоминается импортированная версия.
+     */
+    public HttpHeaders validators(ImportCheckpoint checkpoint) {
+        HttpHeaders headers = new HttpHeaders();
+        if (checkpoint.getEtag() != null) {
+            headers.setETag(checkpoint.getEtag());
+        }
+        if (checkpoint.getLastModified() != null) {
+            headers.set(HttpHeaders.LAST_MODIFIED, checkpoint.getLastModified());
+        }
+        return headers;
+    }
+
+    /**
+     * Удаляет точку: импорт завершен или упал с ошибкой, которую повтор с того же места не исправит.
+     */
+    public void remove(ImportCheckpoint checkpoint) {
+        importCheckpointRepository.deleteById(checkpoint.getFileName());
+    }
+
+    /**
+     * Начинает отслеживать записанные порции файла, размеченного по элементам.
+     */
+    Tracker track(ImportCheckpoint checkpoint, XmlPartitioner.Layout layout) {
+        long ordinal = checkpoint.getElementOrdinal();
+        if (ordinal > 0 && (ordinal > layout.count() || layout.offset(ordinal) != checkpoint.getByteOffset())) {
+            log.warn("Контрольная точка {} (элемент {}, байт {}) не совпадает с разметкой файла, импорт начнется сначала",
+                    checkpoint.getFileName(), ordinal, checkpoint.getByteOffset());
+            ordinal = 0;
+        }
+        return new Tracker(checkpoint.getFileName(), layout, ordinal);
+    }
+
+    /**
+     * Собирает зафиксированные порции в непрерывный префикс файла и сохраняет точку каждый раз,
+     * когда префикс растет. Несколько писателей фиксируют порции не по порядку, поэтому порция
+     * за пропуском ждет, пока пропуск закроется; порция с ошибкой останавливает точку перед собой.
+     */
+    final class Tracker {
+        private final String fileName;
+        private final XmlPartitioner.Layout layout;
+        private final long resumeOrdinal;
+        private final TreeMap<Long, Long> committed = new TreeMap<>();
+        private long next;
+
+        private Tracker(String fileName, XmlPartitioner.Layout layout, long resumeOrdinal) {
+            this.fileName = fileName;
+            this.layout = layout;
+            this.resumeOrdinal = resumeOrdinal;
+            this.next = resumeOrdinal;
+        }
+
+        long resumeOrdinal() {
+            return resumeOrdinal;
+        }
+
+        long resumeOffset() {
+            return layout.offset(resumeOrdinal);
+        }
+
+        XmlPartitioner.Layout layout() {
+            return layout;
+        }
+
+        /**
+         * Порция с элементами [from, to) зафиксирована.
+         */
+        synchronized void committed(long from, long to) {
+            committed.put(from, to);
+            long advanced = next;
+            Long end;
+            while ((end = committed.remove(advanced)) != null) {
+                advanced = end;
+            }
+            if (advanced == next) {
+                return;
+            }
+            try {
+                importCheckpointRepository.advance(fileName, advanced, layout.offset(advanced), LocalDateTime.now());
+                next = advanced;
+            } catch (RuntimeException e) {
+                // порции уже записаны; точка сдвинется после следующей порции
+                committed.put(next, advanced);
+                log.warn("Не удалось сохранить контрольную точку {} (элемент {}): {}", fileName, advanced, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package import_xml.service;
+
+import import_xml.config.ImportXmlProperties;
+import import_xml.model.ImportLog;
+import import_xml.repository.ImportLogRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Асинхронные задачи импорта поверх import_log. Запрос только ставит задачу (строка в статусе
+ * QUEUED) и сразу получает ее id; выполняет задачи пул из jobs.max-concurrent потоков. Очереди
+ * заданы таблицами, которые пишет задача: импорт товаров, каталога, дерева категорий и
+ * синхронизация пишут таблицы каталога и идут по очереди, остатки пишут только свои колонки
+ * products и выполняются параллельно с ними (синхронизация занимает обе очереди). Полная
+ * перезагрузка подменяет таблицы, поэтому ждет завершения всех задач и выполняется одна, а
+ * задачи, поставленные после нее, ее не обгоняют. Ждать в каждой очереди может не больше
+ * jobs.queue-capacity задач. Пока задача выполняется, счетчики ее сводок импорта раз в
+ * jobs.progress-interval-ms записываются в import_log.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ImportJobService {
+    private static final int ERROR_MESSAGE_LENGTH = 1000;
+    private static final String CATALOGUE = "catalogue";
+    private static final String STOCK = "stock";
+    /**
+     * Очереди задач каждого типа; задача неизвестного типа получает очередь своего типа.
+     */
+    private static final Map<String, Set<String>> LANES = Map.of(
+            "products", Set.of(CATALOGUE),
+            "catalogue", Set.of(CATALOGUE),
+            "tree", Set.of(CATALOGUE),
+            "stock", Set.of(STOCK),
+            "sync", Set.of(CATALOGUE, STOCK));
+
+    private final ImportLogRepository importLogRepository;
+    private final ImportXmlProperties properties;
+
+    private final Deque<Job> waiting = new ArrayDeque<>(); // в порядке постановки
+    private final List<Job> running = new ArrayList<>(); // переданы пулу
+    private final Map<Long, Job> jobs = new ConcurrentHashMap<>();
+    private ExecutorService executor;
+    private ScheduledExecutorService progress;
+
+    /**
+     * Импорт, выполняемый задачей; результат (например, итог остатков) дополняет счетчики сводок.
+     */
+    @FunctionalInterface
+    public interface ImportTask {
+        Object run() throws Exception;
+    }
+
+    @PostConstruct
+    public void init() {
+        ImportXmlProperties.Jobs settings = properties.getJobs();
+        executor = Executors.newFixedThreadPool(Math.max(1, settings.getMaxConcurrent()),
+                new CustomizableThreadFactory("import-job-"));
+        progress = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("import-job-progress-"));
+        long interval = Math.max(100, settings.getProgressIntervalMs());
+        progress.scheduleWithFixedDelay(this::saveProgress, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        progress.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Задачи, которые не успели завершиться до остановки прошлого процесса, уже не выполнятся.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void failAbandonedJobs() {
+        int count = importLogRepository.failAll(List.of(ImportLog.Status.QUEUED, ImportLog.Status.RUNNING),
+                "Задача прервана остановкой процесса", LocalDateTime.now());
+        if (count > 0) {
+            log.warn("Задач импорта, прерванных остановкой процесса: {}", count);
+        }
+    }
+
+    public long submit(String type, File upload, ImportTask task) {
+        return submit(type, false, upload, task);
+    }
+
+    /**
+     * Ставит задачу в очереди таблиц, которые она пишет.
+     *
+     * @param exclusive задача выполняется без других задач (полная перезагрузка)
+     * @param upload временный файл задачи; удаляется, когда задача завершится или будет отменена
+     * @return id строки import_log
+     * @throws RejectedExecutionException очередь заполнена
+     */
+    public long submit(String type, boolean exclusive, File upload, ImportTask task) {
+        Set<String> lanes = LANES.getOrDefault(type, Set.of(type));
+        synchronized (this) {
+            long queued = waiting.stream().filter(job -> !Collections.disjoint(job.lanes, lanes)).count();
+            if (queued >= properties.getJobs().getQueueCapacity()) {
+                FileUtils.deleteQuietly(upload);
+                throw new RejectedExecutionException("Очередь задач импорта " + type + " заполнена: " + queued);
+            }
+            ImportLog entry = new ImportLog();
+            LocalDateTime now = LocalDateTime.now();
+            entry.setType(type);
+            entry.setStatus(ImportLog.Status.QUEUED);
+            entry.setSourceFile(upload != null ? upload.getName() : null);
+            entry.setProcessedItems(0);
+            entry.setFailedItems(0);
+            entry.setCreatedAt(now);
+            entry.setUpdatedAt(now);
+            entry = importLogRepository.save(entry);
+            Job job = new Job(entry.getId(), type, lanes, exclusive, upload, task);
+            jobs.put(job.id, job);
+            int ahead = running.size() + waiting.size();
+            waiting.addLast(job);
+            dispatch();
+            log.info("Задача импорта {} ({}{}) поставлена в очередь, задач до нее {}", job.id, type,
+                    exclusive ? ", монопольно" : "", ahead);
+            return job.id;
+        }
+    }
+
+    public Optional<ImportLog> find(long id) {
+        return importLogRepository.findById(id);
+    }
+
+    /**
+     * Задача из очереди снимается сразу; выполняемая прерывается и останавливается перед
+     * записью следующей порции - уже записанные порции остаются.
+     */
+    public Optional<ImportLog> cancel(long id) {
+        Job job = jobs.get(id);
+        if (job != null) {
+            boolean waiting;
+            synchronized (this) {
+                waiting = this.waiting.remove(job);
+                if (waiting) {
+                    jobs.remove(id);
+                    dispatch(); // снятая полная перезагрузка больше не задерживает задачи после нее
+                }
+            }
+            if (waiting) {
+                FileUtils.deleteQuietly(job.upload);
+                complete(job, ImportLog.Status.CANCELLED, null, null);
+            } else {
+                job.cancel();
+            }
+            log.info("Задача импорта {} ({}) отменена", id, job.type);
+        }
+        return importLogRepository.findById(id);
+    }
+
+    private void run(Job job) {
+        ImportLog.Status status = ImportLog.Status.CANCELLED;
+        String error = null;
+        Object result = null;
+        if (job.begin()) {
+            updateStatus(job.id, ImportLog.Status.RUNNING);
+            ImportSummary.observe(job::observe);
+            try {
+                result = job.task.run();
+                status = ImportLog.Status.SUCCEEDED;
+            } catch (Exception e) {
+                status = job.cancelled ? ImportLog.Status.CANCELLED : ImportLog.Status.FAILED;
+                error = e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+                if (!job.cancelled) {
+                    log.error("Задача импорта {} ({}) завершилась ошибкой", job.id, job.type, e);
+                }
+            } finally {
+                ImportSummary.observe(null);
+                job.end();
+            }
+        }
+        try {
+            FileUtils.deleteQuietly(job.upload);
+            complete(job, status, error, result);
+        } catch (Exception e) {
+            log.error("Не удалось записать итог задачи импорта {}", job.id, e);
+        } finally {
+            next(job);
+        }
+    }
+
+    private synchronized void next(Job job) {
+        jobs.remove(job.id);
+        running.remove(job);
+        dispatch();
+    }
+
+    /**
+     * Передает пулу ждущие задачи, чьи очереди свободны. Задача не обгоняет поставленные раньше
+     * задачи своих очередей, а ждущая монопольная задача - все, что поставлено после нее.
+     */
+    private void dispatch() {
+        Set<String> busy = new HashSet<>();
+        for (Job job : running) {
+            if (job.exclusive) {
+                return;
+            }
+            busy.addAll(job.lanes);
+        }
+        for (Iterator<Job> it = waiting.iterator(); it.hasNext(); ) {
+            Job job = it.next();
+            if (job.exclusive) {
+                if (running.isEmpty()) {
+                    start(it, job);
+                }
+                return;
+            }
+            boolean free = Collections.disjoint(job.lanes, busy);
+            busy.addAll(job.lanes);
+            if (free) {
+                start(it, job);
+            }
+        }
+    }
+
+    private void start(Iterator<Job> it, Job job) {
+        it.remove();
+        running.add(job);
+        executor.execute(() -> run(job));
+    }
+
+    private void updateStatus(long id, ImportLog.Status status) {
+        importLogRepository.findById(id).ifPresent(entry -> {
+            entry.setStatus(status);
+            entry.setUpdatedAt(LocalDateTime.now());
+            importLogRepository.save(entry);
+        });
+    }
+
+    private void complete(Job job, ImportLog.Status status, String error, Object result) {
+        importLogRepository.findById(job.id).ifPresent(entry -> {
+            Progress counts = job.progress();
+            if (result instanceof StockImportService.StockImportResult stock) {
+                counts = new Progress(stock.getTotal() + stock.getInvalid(), stock.getMatched() + stock.getUnmatched(),
+                        stock.getInvalid());
+            }
+            LocalDateTime now = LocalDateTime.now();
+            entry.setStatus(status);
+            entry.setTotalItems(counts.total());
+            entry.setProcessedItems(counts.processed());
+            entry.setFailedItems(counts.failed());
+            entry.setErrorMessage(error != null && error.length() > ERROR_MESSAGE_LENGTH
+                    ? error.substring(0, ERROR_MESSAGE_LENGTH) : error);
+            entry.setExecutionTimeMs(job.elapsedMs());
+            entry.setCompletedAt(now);
+            entry.setUpdatedAt(now);
+            importLogRepository.save(entry);
+            log.info("Задача импорта {} ({}): {}, обработано {} из {}, ошибок {}, {} мс", job.id, job.type, status,
+                    counts.processed(), counts.total(), counts.failed(), entry.getExecutionTimeMs());
+        });
+    }
+
+    private void saveProgress() {
+        LocalDateTime now = LocalDateTime.now();
+        for (Job job : jobs.values()) {
+            if (!job.isRunning()) {
+                continue;
+            }
+            try {
+                Progress counts = job.progress();
+                importLogRepository.updateProgress(job.id, counts.total(), counts.processed(), counts.failed(),
+                        job.elapsedMs(), now);
+            } catch (Exception e) {
+                log.debug("Не удалось записать прогресс задачи импорта {}: {}", job.id, e.getMessage());
+            }
+        }
+    }
+
+    private record Progress(int total, int processed, int failed) {
+    }
+
+    /**
+     * Задача, ее очереди и сводки импорта, созданные при ее выполнении.
+     */
+    private static final class Job {
+        private final long id;
+        private final String type;
+        private final Set<String> lanes;
+        private final boolean exclusive;
+        private final File upload;
+        private final ImportTask task;
+        private final List<ImportSummary> summaries = new CopyOnWriteArrayList<>();
+        private volatile boolean cancelled;
+        private volatile long startedAt;
+        private Thread thread; // поток выполнения; под монитором задачи
+
+        Job(long id, String type, Set<String> lanes, boolean exclusive, File upload, ImportTask task) {
+            this.id = id;
+            this.type = type;
+            this.lanes = lanes;
+            this.exclusive = exclusive;
+            this.upload = upload;
+            this.task = task;
+        }
+
+        /**
+         * @return false, если задачу отменили до начала выполнения
+         */
+        synchronized boolean begin() {
+            startedAt = System.currentTimeMillis();
+            if (cancelled) {
+                return false;
+            }
+            thread = Thread.currentThread();
+            return true;
+        }
+
+        synchronized void end() {
+            thread = null;
+            Thread.interrupted(); // прерывание отмены не должно достаться следующей задаче потока
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            summaries.forEach(ImportSummary::cancel);
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        synchronized boolean isRunning() {
+            return thread != null;
+        }
+
+        void observe(ImportSummary summary) {
+            summaries.add(summary);
+            if (cancelled) {
+                summary.cancel();
+            }
+        }
+
+        long elapsedMs() {
+            return startedAt > 0 ? System.currentTimeMillis() - startedAt : 0;
+        }
+
+        Progress progress() {
+            int total = 0;
+            int processed = 0;
+            int failed = 0;
+            for (ImportSummary summary : summaries) {
+                total += summary.getTotal();
+                processed += summary.getSaved() + summary.getUnchanged();
+                failed += summary.getFailed();
+            }
+            return new Progress(total, processed, failed);
+        }
+    }
+}
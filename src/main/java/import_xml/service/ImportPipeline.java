@@ -0,0 +1,422 @@
+package import_xml.service;
+
+import import_xml.config.ImportXmlProperties;
+import import_xml.util.XmlPartitioner;
+import import_xml.util.XmlReaderFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Многостадийный конвейер разбора XML:
+ * <ol>
+ *     <li>читатель (один поток) нарезает поток на фрагменты - по одному корневому элементу
+ *     (элементов может быть несколько видов, например категории и товары каталога);</li>
+ *     <li>разборщики (parser-threads потоков) строят из фрагментов сущности;</li>
+ *     <li>сборщик восстанавливает порядок документа и собирает порции по chunk-size элементов;</li>
+ *     <li>писатели (writer-threads потоков) записывают порции.</li>
+ * </ol>
+ * Большой файл можно вместо этого разделить на диапазоны ({@link XmlPartitioner}) и читать их
+ * параллельно - тогда каждый читатель сам строит сущности, а сборщик и писатели те же.
+ * Стадии связаны ограниченными очередями, поэтому память не растет с размером файла, а медленная
+ * стадия притормаживает быстрые. При одном писателе порции записываются строго в порядке документа.
+ * Ошибка любой стадии останавливает весь конвейер и пробрасывается вызывающему.
+ */
+@Slf4j
+class ImportPipeline {
+    private static final Object SKIPPED = new Object();
+    private static final long END = -1;
+
+    private final XmlReaderFactory readerFactory;
+    private final ImportXmlProperties.Processing settings;
+
+    ImportPipeline(XmlReaderFactory readerFactory, ImportXmlProperties.Processing settings) {
+        this.readerFactory = readerFactory;
+        this.settings = settings;
+    }
+
+    private record Fragment(long seq, String xml) {
+    }
+
+    private record Parsed(long seq, Object value) {
+    }
+
+    /**
+     * Порция записи и порядковые номера элементов файла [from, to), которые она покрывает:
+     * кроме записываемых элементов, это и пропущенные между ними (неизмененные, неразобранные).
+     */
+    record Chunk<T>(List<T> items, long from, long to) {
+    }
+
+    /**
+     * Один поток читает файл и нарезает его на фрагменты, parser-threads потоков строят сущности.
+     * Читатель берет разрешение окна на каждый фрагмент, а сборщик возвращает его, когда элемент
+     * выходит в порядке документа: элементов, разобранных раньше своей очереди, не больше окна.
+     *
+     * @param rootElements имена корневых элементов; обработчик различает их по имени элемента
+     * @param firstOrdinal порядковый номер первого элемента потока в файле
+     */
+    <T> void run(InputStream in, Set<String> rootElements, long firstOrdinal, ImportSummary summary,
+                 Function<XMLStreamReader, T> elementProcessor, Consumer<Chunk<T>> chunkWriter) throws Exception {
+        int parsers = Math.max(1, settings.getPipeline().getParserThreads());
+        BlockingQueue<Fragment> fragments = new ArrayBlockingQueue<>(queueCapacity());
+        BlockingQueue<Parsed> parsed = new ArrayBlockingQueue<>(queueCapacity());
+        Semaphore window = new Semaphore(2 * queueCapacity());
+        List<ThrowingRunnable> stages = new ArrayList<>();
+        stages.add(() -> read(in, rootElements, firstOrdinal, summary, fragments, window, parsers));
+        for (int i = 0; i < parsers; i++) {
+            stages.add(() -> parse(fragments, parsed, elementProcessor));
+        }
+        execute(String.join("-", rootElements), stages, new Reordered(parsed, parsers, firstOrdinal, window),
+                firstOrdinal, chunkWriter);
+    }
+
+    /**
+     * Диапазоны файла разбирают parser-threads потоков, каждый диапазон - собственным StAX-читателем
+     * в свою ограниченную очередь; сборщик вычитывает очереди по порядку диапазонов, поэтому порядок
+     * файла сохраняется без буфера перестановки. Поток берет следующий диапазон, только если
+     * сборщик отстал не больше чем на 2 * parser-threads диапазонов: в памяти не больше стольких
+     * очередей, сколько бы быстрее ни разбирались дальние диапазоны.
+     */
+    <T> void run(List<XmlPartitioner.Partition> partitions, String rootElement, ImportSummary summary,
+                 Function<XMLStreamReader, T> elementProcessor, Consumer<Chunk<T>> chunkWriter) throws Exception {
+        int parsers = Math.min(partitions.size(), Math.max(1, settings.getPipeline().getParserThreads()));
+        List<BlockingQueue<Parsed>> queues = new ArrayList<>(partitions.size());
+        for (int i = 0; i < partitions.size(); i++) {
+            queues.add(new LinkedBlockingQueue<>(queueCapacity()));
+        }
+        Semaphore ahead = new Semaphore(2 * parsers);
+        AtomicInteger claimed = new AtomicInteger();
+        List<ThrowingRunnable> stages = new ArrayList<>();
+        for (int i = 0; i < parsers; i++) {
+            stages.add(() -> {
+                while (true) {
+                    ahead.acquire();
+                    int index = claimed.getAndIncrement();
+                    if (index >= partitions.size()) {
+                        ahead.release();
+                        return;
+                    }
+                    readPartition(partitions.get(index), rootElement, summary, elementProcessor, queues.get(index));
+                }
+            });
+        }
+        execute(rootElement, stages, new InPartitionOrder(queues, ahead), partitions.get(0).firstOrdinal(),
+                chunkWriter);
+    }
+
+    /**
+     * Запускает производителей, сборщик и писателей и ждет их завершения.
+     *
+     * @param results разобранные элементы в порядке документа
+     * @param first порядковый номер первого элемента
+     */
+    private <T> void execute(String rootElement, List<ThrowingRunnable> stages, OrderedResults results, long first,
+                             Consumer<Chunk<T>> chunkWriter) throws Exception {
+        int writers = Math.max(1, settings.getPipeline().getWriterThreads());
+        BlockingQueue<Chunk<T>> chunks = new ArrayBlockingQueue<>(writers * 2);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        log.debug("Конвейер разбора {}: стадий чтения и разбора {}, писателей {}, емкость очередей {}",
+                rootElement, stages.size(), writers, queueCapacity());
+
+        ExecutorService executor = Executors.newFixedThreadPool(stages.size() + writers + 1,
+                new CustomizableThreadFactory("xml-pipeline-" + rootElement + "-"));
+        Consumer<ThrowingRunnable> stage = task -> executor.execute(() -> {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                if (failure.compareAndSet(null, e)) {
+                    executor.shutdownNow();
+                }
+            }
+        });
+
+        stages.forEach(stage);
+        stage.accept(() -> collect(results, chunks, first, writers));
+        for (int i = 0; i < writers; i++) {
+            stage.accept(() -> write(chunks, chunkWriter));
+        }
+
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // ждем завершения всех стадий
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+        Throwable error = failure.get();
+        if (error instanceof Exception exception) {
+            throw exception;
+        }
+        if (error != null) {
+            throw new IllegalStateException("Сбой конвейера разбора " + rootElement, error);
+        }
+    }
+
+    private int queueCapacity() {
+        return Math.max(1, settings.getPipeline().getQueueCapacity());
+    }
+
+    private void read(InputStream in, Set<String> rootElements, long firstOrdinal, ImportSummary summary,
+                      BlockingQueue<Fragment> fragments, Semaphore window, int parsers) throws Exception {
+        XMLStreamReader reader = readerFactory.createReader(in);
+        StringBuilder buffer = new StringBuilder(4096);
+        long seq = firstOrdinal;
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && rootElements.contains(reader.getLocalName())) {
+                    summary.incrementTotal();
+                    buffer.setLength(0);
+                    copyElement(reader, buffer);
+                    window.acquire();
+                    fragments.put(new Fragment(seq++, buffer.toString()));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        for (int i = 0; i < parsers; i++) {
+            fragments.put(new Fragment(END, null));
+        }
+    }
+
+    private <T> void parse(BlockingQueue<Fragment> fragments, BlockingQueue<Parsed> parsed,
+                           Function<XMLStreamReader, T> elementProcessor) throws Exception {
+        while (true) {
+            Fragment fragment = fragments.take();
+            if (fragment.seq() == END) {
+                parsed.put(new Parsed(END, null));
+                return;
+            }
+            XMLStreamReader reader = readerFactory.createReader(new StringReader(fragment.xml()));
+            T value;
+            try {
+                reader.nextTag();
+                value = elementProcessor.apply(reader);
+            } finally {
+                reader.close();
+            }
+            parsed.put(new Parsed(fragment.seq(), value != null ? value : SKIPPED));
+        }
+    }
+
+    private <T> void readPartition(XmlPartitioner.Partition partition, String rootElement, ImportSummary summary,
+                                   Function<XMLStreamReader, T> elementProcessor,
+                                   BlockingQueue<Parsed> parsed) throws Exception {
+        long seq = partition.firstOrdinal();
+        long last = partition.firstOrdinal() + partition.count();
+        try (InputStream in = partition.open()) {
+            XMLStreamReader reader = readerFactory.createReader(in);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT && rootElement.equals(reader.getLocalName())) {
+                        if (seq == last) {
+                            throw new IllegalStateException("В диапазоне " + partition + " больше элементов, чем найдено при разбиении");
+                        }
+                        summary.incrementTotal();
+                        T value = elementProcessor.apply(reader);
+                        parsed.put(new Parsed(seq++, value != null ? value : SKIPPED));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        if (seq != last) {
+            throw new IllegalStateException("В диапазоне " + partition + " меньше элементов, чем найдено при разбиении");
+        }
+        parsed.put(new Parsed(END, null));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void collect(OrderedResults results, BlockingQueue<Chunk<T>> chunks, long first, int writers)
+            throws InterruptedException {
+        int chunkSize = settings.getChunkSize();
+        List<T> batch = new ArrayList<>(chunkSize);
+        long next = first;
+        long batchStart = first;
+        Parsed result;
+        while ((result = results.next()).seq() != END) {
+            next = result.seq() + 1;
+            if (result.value() != SKIPPED) {
+                batch.add((T) result.value());
+                if (batch.size() >= chunkSize) {
+                    chunks.put(new Chunk<>(batch, batchStart, next));
+                    batch = new ArrayList<>(chunkSize);
+                    batchStart = next;
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            chunks.put(new Chunk<>(batch, batchStart, next));
+        }
+        for (int i = 0; i < writers; i++) {
+            chunks.put(new Chunk<>(List.of(), END, END));
+        }
+    }
+
+    /**
+     * Разобранные элементы в порядке документа; после последнего - маркер с seq == END.
+     */
+    @FunctionalInterface
+    private interface OrderedResults {
+        Parsed next() throws InterruptedException;
+    }
+
+    /**
+     * Восстанавливает порядок элементов, разобранных параллельно из одного потока фрагментов.
+     * Элемент выходит, когда вышли все предыдущие, и возвращает читателю разрешение окна.
+     */
+    private static final class Reordered implements OrderedResults {
+        private final BlockingQueue<Parsed> parsed;
+        private final int producers;
+        private final Semaphore window;
+        private final Map<Long, Object> pending = new HashMap<>();
+        private long next;
+        private int finished;
+
+        Reordered(BlockingQueue<Parsed> parsed, int producers, long first, Semaphore window) {
+            this.parsed = parsed;
+            this.producers = producers;
+            this.next = first;
+            this.window = window;
+        }
+
+        @Override
+        public Parsed next() throws InterruptedException {
+            while (true) {
+                Object value = pending.remove(next);
+                if (value != null) {
+                    window.release();
+                    return new Parsed(next++, value);
+                }
+                if (finished == producers) {
+                    return new Parsed(END, null);
+                }
+                Parsed result = parsed.take();
+                if (result.seq() == END) {
+                    finished++;
+                } else {
+                    pending.put(result.seq(), result.value());
+                }
+            }
+        }
+    }
+
+    /**
+     * Вычитывает очереди диапазонов по порядку; дочитанный диапазон освобождает место следующему.
+     */
+    private static final class InPartitionOrder implements OrderedResults {
+        private final List<BlockingQueue<Parsed>> queues;
+        private final Semaphore ahead;
+        private int current;
+
+        InPartitionOrder(List<BlockingQueue<Parsed>> queues, Semaphore ahead) {
+            this.queues = queues;
+            this.ahead = ahead;
+        }
+
+        @Override
+        public Parsed next() throws InterruptedException {
+            while (current < queues.size()) {
+                Parsed result = queues.get(current).take();
+                if (result.seq() != END) {
+                    return result;
+                }
+                queues.set(current++, null);
+                ahead.release();
+            }
+            return new Parsed(END, null);
+        }
+    }
+
+    private <T> void write(BlockingQueue<Chunk<T>> chunks, Consumer<Chunk<T>> chunkWriter) throws InterruptedException {
+        while (true) {
+            Chunk<T> chunk = chunks.take();
+            if (chunk.items().isEmpty()) {
+                return;
+            }
+            chunkWriter.accept(chunk);
+        }
+    }
+
+    /**
+     * Копирует текущий элемент со всем содержимым в буфер как XML-текст.
+     * Читатель должен стоять на START_ELEMENT; после копирования - на его END_ELEMENT.
+     */
+    private static void copyElement(XMLStreamReader reader, StringBuilder out) throws XMLStreamException {
+        int depth = 0;
+        int event = reader.getEventType();
+        while (true) {
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT -> {
+                    out.append('<').append(reader.getLocalName());
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        out.append(' ').append(reader.getAttributeLocalName(i)).append("=\"");
+                        escape(reader.getAttributeValue(i), out, true);
+                        out.append('"');
+                    }
+                    out.append('>');
+                    depth++;
+                }
+                case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA, XMLStreamConstants.SPACE ->
+                        escape(reader.getText(), out, false);
+                case XMLStreamConstants.END_ELEMENT -> {
+                    out.append("</").append(reader.getLocalName()).append('>');
+                    if (--depth == 0) {
+                        return;
+                    }
+                }
+                default -> {
+                    // комментарии и инструкции обработки во фрагмент не переносятся
+                }
+            }
+            event = reader.next();
+        }
+    }
+
+    private static void escape(String text, StringBuilder out, boolean attribute) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&' -> out.append("&amp;");
+                case '<' -> out.append("&lt;");
+                case '>' -> out.append("&gt;");
+                case '"' -> out.append(attribute ? "&quot;" : "\"");
+                case '\r' -> out.append("&#13;");
+                case '\n' -> out.append(attribute ? "&#10;" : "\n");
+                case '\t' -> out.append(attribute ? "&#9;" : "\t");
+                default -> out.append(c);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,161 @@
+package import_xml.service;
+
+import lombok.Getter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Итог импорта одного файла: сколько элементов прочитано, записано и не записано из-за ошибок.
+ * Для товаров дополнительно считаются новые, измененные и неизмененные (по хешу содержимого).
+ * Счетчики атомарные: их одновременно увеличивают потоки разбора и записи конвейера.
+ * Сводки, созданные в потоке задачи импорта (и в запущенных из него потоках), передаются
+ * наблюдателю задачи - по ним обновляется прогресс в import_log.
+ */
+public class ImportSummary {
+    private static final InheritableThreadLocal<Consumer<ImportSummary>> OBSERVER = new InheritableThreadLocal<>();
+
+    @Getter
+    private final String type;
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger changed = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    private final AtomicInteger saved = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger chunks = new AtomicInteger();
+    private final AtomicInteger deactivated = new AtomicInteger();
+    private final AtomicInteger malformed = new AtomicInteger();
+    @Getter
+    private volatile long executionTimeMs;
+    @Getter
+    private volatile long resumedFrom; // Номер элемента, с которого продолжен прерванный импорт
+    @Getter
+    private volatile boolean cancelled;
+
+    public ImportSummary(String type) {
+        this.type = type;
+        Consumer<ImportSummary> observer = OBSERVER.get();
+        if (observer != null) {
+            observer.accept(this);
+        }
+    }
+
+    /**
+     * Передает наблюдателю сводки, которые текущий поток и его будущие дочерние потоки создадут
+     * до вызова с null.
+     */
+    static void observe(Consumer<ImportSummary> observer) {
+        if (observer != null) {
+            OBSERVER.set(observer);
+        } else {
+            OBSERVER.remove();
+        }
+    }
+
+    /**
+     * Импорт отменен: следующая порция не записывается.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    void incrementCreated() {
+        created.incrementAndGet();
+    }
+
+    void incrementChanged() {
+        changed.incrementAndGet();
+    }
+
+    void incrementUnchanged() {
+        unchanged.incrementAndGet();
+    }
+
+    void incrementTotal() {
+        total.incrementAndGet();
+    }
+
+    void incrementMalformed() {
+        malformed.incrementAndGet();
+    }
+
+    void chunkSaved(int size) {
+        chunks.incrementAndGet();
+        saved.addAndGet(size);
+    }
+
+    void chunkFailed(int size) {
+        chunks.incrementAndGet();
+        failed.addAndGet(size);
+    }
+
+    void addDeactivated(int count) {
+        deactivated.addAndGet(count);
+    }
+
+    void setExecutionTimeMs(long executionTimeMs) {
+        this.executionTimeMs = executionTimeMs;
+    }
+
+    void setResumedFrom(long resumedFrom) {
+        this.resumedFrom = resumedFrom;
+    }
+
+    public int getTotal() {
+        return total.get();
+    }
+
+    public int getCreated() {
+        return created.get();
+    }
+
+    public int getChanged() {
+        return changed.get();
+    }
+
+    public int getUnchanged() {
+        return unchanged.get();
+    }
+
+    public int getSaved() {
+        return saved.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    public int getChunks() {
+        return chunks.get();
+    }
+
+    /**
+     * Строки, деактивированные после импорта, потому что их нет в файле.
+     */
+    public int getDeactivated() {
+        return deactivated.get();
+    }
+
+    /**
+     * Элементы, разбор которых упал с ошибкой (входят в пропущенные): их натуральные id
+     * неизвестны, поэтому после такого импорта строки не деактивируются.
+     */
+    public int getMalformed() {
+        return malformed.get();
+    }
+
+    /**
+     * Элементы, отброшенные при разборе (без обязательных полей или с ошибкой).
+     */
+    public int getSkipped() {
+        return getTotal() - getSaved() - getFailed() - getUnchanged();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: прочитано %d, новых %d, измененных %d, без изменений %d, пропущено %d (с ошибкой разбора %d), записано %d, ошибок %d, деактивировано %d (порций %d, %d мс)",
+                type, getTotal(), getCreated(), getChanged(), getUnchanged(), getSkipped(), getMalformed(), getSaved(), getFailed(),
+                getDeactivated(), getChunks(), executionTimeMs);
+    }
+}
@@ -1,25 +1,48 @@
 package import_xml.service;
 
+import com.google.common.base.Throwables;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.CountingInputStream;
 import import_xml.config.ImportXmlProperties;
+import import_xml.model.FeedState;
+import import_xml.model.ImportCheckpoint;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.input.TeeInputStream;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.retry.annotation.Backoff;
 import org.springframework.retry.annotation.Retryable;
 
 import jakarta.annotation.PostConstruct;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.Base64;
-import java.util.concurrent.TimeUnit;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
@@ -27,11 +50,15 @@ import java.time.format.DateTimeFormatter;
 @Service
 @RequiredArgsConstructor
 public class ImportXmlApiService {
-    private final RestTemplate restTemplate;
     private final ImportXmlProperties properties;
     private final XmlProcessingService xmlProcessingService;
+    private final FeedStateService feedStateService;
+    private final ImportCheckpointService importCheckpointService;
+    private final FeedDownloader feedDownloader;
 
-    private long rateLimitDelay;
+    private static final int DECODE_BUFFER_SIZE = 64 * 1024;
+
+    private Semaphore connections;
 
     @PostConstruct
     public void init() {
@@ -40,7 +67,7 @@ public class ImportXmlApiService {
             if (!Files.exists(tempDir)) {
                 Files.createDirectories(tempDir);
             }
-            this.rateLimitDelay = properties.getImportSection().getRateLimit().getDelay();
+            this.connections = new Semaphore(Math.max(1, properties.getXmlDownload().getMaxConnections()), true);
         } catch (Exception e) {
             log.error("Ошибка инициализации сервиса импорта", e);
             throw new RuntimeException("Не удалось инициализировать сервис импорта", e);
@@ -58,13 +85,10 @@ public class ImportXmlApiService {
             properties.getImportSection().getFiles().getComplects(),
             properties.getImportSection().getFiles().getCatalogue());
         try {
-            // Скачиваем и обрабатываем файлы
-            downloadAndProcessFile(properties.getImportSection().getFiles().getProduct(), "products");
-            downloadAndProcessFile(properties.getImportSection().getFiles().getStock(), "stock");
-            downloadAndProcessFile(properties.getImportSection().getFiles().getTree(), "tree");
-            downloadAndProcessFile(properties.getImportSection().getFiles().getFilters(), "filters");
-            downloadAndProcessFile(properties.getImportSection().getFiles().getComplects(), "complects");
-            downloadAndProcessFile(properties.getImportSection().getFiles().getCatalogue(), "catalogue");
+            // Скачиваем и обрабатываем файлы с учетом зависимостей между ними
+            ImportXmlProperties.ImportSection.ImportFiles files = properties.getImportSection().getFiles();
+            syncFeeds(FeedGraph.standard(files.getProduct(), files.getStock(), files.getTree(), files.getFilters(),
+                    files.getComplects(), files.getCatalogue()));
             log.info("Data sync completed successfully at {}", LocalDateTime.now());
         } catch (Exception e) {
             log.error("Error during data sync", e);
@@ -86,12 +110,8 @@ public class ImportXmlApiService {
             }
 
             // Скачиваем и обрабатываем все типы файлов
-            downloadAndProcessFile("product.xml", "products");
-            downloadAndProcessFile("stock.xml", "stock");
-            downloadAndProcessFile("tree.xml", "tree");
-            downloadAndProcessFile("filters.xml", "filters");
-            downloadAndProcessFile("complects.xml", "complects");
-            downloadAndProcessFile("catalogue.xml", "catalogue");
+            syncFeeds(FeedGraph.standard("product.xml", "stock.xml", "tree.xml", "filters.xml", "complects.xml",
+                    "catalogue.xml"));
 
             log.info("Full data import completed successfully at {}", LocalDateTime.now());
         } catch (Exception e) {
@@ -100,11 +120,41 @@ public class ImportXmlApiService {
         }
     }
 
-    @Retryable(
-            value = {Exception.class},
-            backoff = @Backoff(delay = 5000)
-    )
-    private void downloadAndProcessFile(String fileName, String fileType) {
+    /**
+     * Все файлы графа загружаются параллельно (не больше xml-download.max-connections соединений
+     * одновременно), а обрабатываются по мере готовности их предпосылок.
+     */
+    private void syncFeeds(FeedGraph graph) {
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(graph.size(), new CustomizableThreadFactory("feed-"));
+        try {
+            FeedGraph.await(graph.run(executor, (node, prerequisites) ->
+                    downloadAndProcessFile(node.fileName(), node.fileType(), prerequisites)));
+        } finally {
+            executor.shutdownNow();
+        }
+        log.info("Файлы API обработаны за {} мс", System.currentTimeMillis() - start);
+    }
+
+    boolean downloadAndProcessFile(String fileName, String fileType) throws InterruptedException {
+        return downloadAndProcessFile(fileName, fileType, CompletableFuture.completedFuture(null));
+    }
+
+    /**
+     * @param prerequisites файлы, которые должны быть обработаны раньше этого; пока они не готовы,
+     *                      файл загружается во временный файл, а не разбирается потоком
+     * @return true, если файл был импортирован; false, если он не изменился с прошлой загрузки
+     */
+    boolean downloadAndProcessFile(String fileName, String fileType, CompletableFuture<Void> prerequisites)
+            throws InterruptedException {
+        boolean checkpointing = importCheckpointService.supports(fileType);
+        if (checkpointing) {
+            Optional<ImportCheckpoint> resumable = importCheckpointService.findResumable(fileName);
+            if (resumable.isPresent()) {
+                prerequisites.join();
+                return resume(resumable.get(), fileName, fileType);
+            }
+        }
         String url = String.format("%s/export/v2/catalogue/%s", properties.getApi().getBaseUrl(), fileName);
         String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
         String localFileName = String.format("%s_%s.xml", fileType, timestamp);
@@ -113,51 +163,245 @@ public class ImportXmlApiService {
             importDir.mkdirs();
         }
         File localFile = new File(importDir, localFileName);
+        boolean keepCopy = properties.getXmlDownload().isKeepCopy();
+        ImportCheckpoint checkpoint = null;
+        FeedState state = properties.getXmlDownload().isConditional()
+                ? feedStateService.find(fileName).orElse(null) : null;
+        // если сервер не отдает ETag/Last-Modified, файл нужен для сверки контрольной суммы до импорта;
+        // с контрольными точками - чтобы после сбоя продолжить импорт с копии
+        boolean streaming = properties.getXmlDownload().isStreaming() && !checkpointing
+                && (state == null || state.hasValidators()) && prerequisites.isDone();
+        Consumer<HttpHeaders> requestHeaders = headers -> {
+            if (properties.getXmlDownload().isCompression()) {
+                headers.set(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
+            }
+            feedStateService.addConditionalHeaders(state, headers);
+        };
 
         log.info("Downloading {} from {}", fileName, url);
         try {
-            byte[] fileContent = restTemplate.getForObject(url, byte[].class);
-            if (fileContent == null) {
-                throw new RuntimeException("Empty response from server");
+            Download download;
+            boolean complete = true;
+            connections.acquire();
+            try (ClientHttpResponse response = feedDownloader.open(url, requestHeaders)) {
+                if (isNotModified(response)) {
+                    download = null;
+                } else if (streaming) {
+                    StreamedDownload streamed = processResponse(response, keepCopy ? localFile : null, fileName,
+                            fileType);
+                    download = streamed.download();
+                    complete = streamed.complete();
+                } else {
+                    download = saveResponse(response, localFile);
+                }
+            } finally {
+                connections.release();
             }
 
-            try (FileOutputStream fos = new FileOutputStream(localFile)) {
-                fos.write(fileContent);
+            boolean imported = false;
+            if (download != null) {
+                log.info("{}: передано {} байт, после распаковки {} байт", fileName,
+                        download.compressedLength(), download.length());
             }
+            if (download == null) {
+                log.info("{} не изменился (304), импорт пропущен", fileName);
+                feedStateService.markChecked(fileName);
+            } else if (!streaming && feedStateService.isUnchanged(state, download.sha256())) {
+                log.info("{} не изменился (совпала контрольная сумма), импорт пропущен", fileName);
+                deleteQuietly(localFile);
+                feedStateService.markChecked(fileName);
+            } else {
+                if (!streaming) {
+                    prerequisites.join();
+                    log.info("Processing {} file", fileName);
+                    if (checkpointing) {
+                        // копия хранится до конца импорта: после сбоя он продолжится с контрольной точки
+                        checkpoint = importCheckpointService.start(fileName, fileType, localFile, download.headers(),
+                                download.sha256(), download.length(), download.compressedLength());
+                    }
+                    complete = processFileByType(localFile, fileType, checkpoint);
+                }
+                markProcessed(fileName, complete, download.headers(), download.sha256(), download.length(),
+                        download.compressedLength());
+                if (checkpoint != null) {
+                    importCheckpointService.remove(checkpoint);
+                }
+                if (!streaming && !keepCopy) {
+                    Files.deleteIfExists(localFile.toPath());
+                }
+                log.info("{} file processed", fileName);
+                imported = true;
+            }
+            return imported;
+        } catch (InterruptedException e) {
+            if (checkpoint == null) {
+                deleteQuietly(localFile);
+            }
+            throw e;
+        } catch (Exception e) {
+            log.error("Error processing {} file", fileName, e);
+            if (checkpoint != null && isInterruption(e)) {
+                // процесс останавливается - импорт продолжится с контрольной точки
+                throw new RuntimeException("Failed to process " + fileName, e);
+            }
+            if (checkpoint != null) {
+                importCheckpointService.remove(checkpoint);
+            }
+            if (!keepCopy || streaming) {
+                // при потоковой загрузке копия могла остаться неполной
+                deleteQuietly(localFile);
+            }
+            throw new RuntimeException("Failed to process " + fileName, e);
+        }
+    }
 
-            log.info("Processing {} file", fileName);
-            processFileByType(localFile, fileType);
-
-            Files.deleteIfExists(localFile.toPath());
-            log.info("{} file processed and deleted", fileName);
-
-            TimeUnit.MILLISECONDS.sleep(rateLimitDelay);
+    /**
+     * Продолжает импорт, прерванный остановкой процесса, по сохраненной копии файла: файл заново
+     * не загружается, а записанные до сбоя элементы пропускаются.
+     */
+    private boolean resume(ImportCheckpoint checkpoint, String fileName, String fileType) {
+        File localFile = new File(checkpoint.getLocalFile());
+        log.info("Продолжение импорта {} с элемента {} по копии {}", fileName, checkpoint.getElementOrdinal(), localFile);
+        try {
+            boolean complete = processFileByType(localFile, fileType, checkpoint);
+            markProcessed(fileName, complete, importCheckpointService.validators(checkpoint),
+                    checkpoint.getSha256(), checkpoint.getContentLength(), checkpoint.getTransferLength());
         } catch (Exception e) {
             log.error("Error processing {} file", fileName, e);
+            if (!isInterruption(e)) {
+                importCheckpointService.remove(checkpoint);
+                if (!properties.getXmlDownload().isKeepCopy()) {
+                    deleteQuietly(localFile);
+                }
+            }
             throw new RuntimeException("Failed to process " + fileName, e);
         }
+        importCheckpointService.remove(checkpoint);
+        if (!properties.getXmlDownload().isKeepCopy()) {
+            deleteQuietly(localFile);
+        }
+        log.info("{} file processed", fileName);
+        return true;
     }
 
-    private void processFileByType(File file, String fileType) {
+    /**
+     * Валидаторы сохраняются, только если записаны все элементы: иначе следующая синхронизация
+     * пропустила бы файл, и строки, не записанные из-за ошибок, так и не попали бы в базу.
+     */
+    private void markProcessed(String fileName, boolean complete, HttpHeaders headers, String sha256,
+                               long contentLength, long transferLength) {
+        if (complete) {
+            feedStateService.markImported(fileName, headers, sha256, contentLength, transferLength);
+        } else {
+            log.warn("{} импортирован не полностью - при следующей синхронизации он будет загружен заново", fileName);
+            feedStateService.markIncomplete(fileName);
+        }
+    }
+
+    /**
+     * @return true, если записаны все элементы файла и импорт не был отменен
+     */
+    private static boolean isComplete(ImportSummary summary) {
+        return summary.getFailed() == 0 && !summary.isCancelled();
+    }
+
+    private static boolean isInterruption(Exception e) {
+        return Thread.currentThread().isInterrupted()
+                || Throwables.getCausalChain(e).stream().anyMatch(InterruptedException.class::isInstance);
+    }
+
+    private static boolean isNotModified(ClientHttpResponse response) throws IOException {
+        return response.getStatusCode().isSameCodeAs(HttpStatus.NOT_MODIFIED);
+    }
+
+    /**
+     * Файл собирается в .part и переименовывается только после полной загрузки.
+     */
+    private Download saveResponse(ClientHttpResponse response, File localFile) throws IOException {
+        Path partial = localFile.toPath().resolveSibling(localFile.getName() + ".part");
+        try {
+            DownloadBody body = new DownloadBody(response);
+            Files.copy(body.stream(), partial, StandardCopyOption.REPLACE_EXISTING);
+            Download download = body.toDownload();
+            Files.move(partial, localFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return download;
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+    }
+
+    /**
+     * Тело ответа сразу уходит в разбор; при keep-copy байты параллельно пишутся в файл.
+     */
+    private StreamedDownload processResponse(ClientHttpResponse response, File copy, String fileName,
+                                             String fileType) throws IOException {
+        log.info("Processing {} stream", fileName);
+        DownloadBody body = new DownloadBody(response);
+        boolean complete;
+        if (copy == null) {
+            complete = processStreamByType(body.stream(), fileName, fileType);
+            // парсер останавливается на закрывающем теге корня - дочитываем остаток для контрольной суммы
+            body.stream().transferTo(OutputStream.nullOutputStream());
+            return new StreamedDownload(body.toDownload(), complete);
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(copy));
+             InputStream in = new TeeInputStream(body.stream(), out)) {
+            complete = processStreamByType(in, fileName, fileType);
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return new StreamedDownload(body.toDownload(), complete);
+    }
+
+    /**
+     * @return true, если записаны все элементы файла
+     */
+    private boolean processStreamByType(InputStream in, String fileName, String fileType) {
+        switch (fileType) {
+            case "products":
+                return isComplete(xmlProcessingService.processProductsXml(in, fileName));
+            case "stock":
+                // ошибка записи остатков прерывает импорт исключением
+                xmlProcessingService.processStockXml(in, fileName);
+                return true;
+            case "tree":
+                return isComplete(xmlProcessingService.processTreeXml(in, fileName));
+            case "filters":
+                return isComplete(xmlProcessingService.processFiltersXml(in, fileName));
+            case "complects":
+                return isComplete(xmlProcessingService.processComplectsXml(in, fileName));
+            case "catalogue":
+                return isComplete(xmlProcessingService.processCatalogueXml(in, fileName));
+            default:
+                throw new IllegalArgumentException("Unknown file type: " + fileType);
+        }
+    }
+
+    private static void deleteQuietly(File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            log.warn("Не удалось удалить файл {}", file, e);
+        }
+    }
+
+    /**
+     * @return true, если записаны все элементы файла
+     */
+    private boolean processFileByType(File file, String fileType, ImportCheckpoint checkpoint) {
         switch (fileType) {
             case "products":
-                xmlProcessingService.processProductsXml(file);
-                break;
+                return isComplete(xmlProcessingService.processProductsXml(file, checkpoint));
             case "stock":
                 xmlProcessingService.processStockXml(file);
-                break;
+                return true;
             case "tree":
-                xmlProcessingService.processTreeXml(file);
-                break;
+                return isComplete(xmlProcessingService.processTreeXml(file));
             case "filters":
-                xmlProcessingService.processFiltersXml(file);
-                break;
+                return isComplete(xmlProcessingService.processFiltersXml(file, checkpoint));
             case "complects":
-                xmlProcessingService.processComplectsXml(file);
-                break;
+                return isComplete(xmlProcessingService.processComplectsXml(file, checkpoint));
             case "catalogue":
-                xmlProcessingService.processCatalogueXml(file);
-                break;
+                return isComplete(xmlProcessingService.processCatalogueXml(file));
             default:
                 throw new IllegalArgumentException("Unknown file type: " + fileType);
         }
@@ -170,4 +414,47 @@ public class ImportXmlApiService {
         headers.set("Authorization", "Basic " + encodedAuth);
         return new HttpEntity<>(headers);
     }
+
+    private record Download(HttpHeaders headers, String sha256, long length, long compressedLength) {
+    }
+
+    private record StreamedDownload(Download download, boolean complete) {
+    }
+
+    /**
+     * Тело ответа, распакованное по Content-Encoding (gzip/deflate) по мере чтения. Считает байты
+     * до и после распаковки и SHA-256 распакованного содержимого - он не зависит от сжатия.
+     */
+    private static final class DownloadBody {
+        private final HttpHeaders headers;
+        private final CountingInputStream compressed;
+        private final CountingInputStream uncompressed;
+        private final HashingInputStream hashing;
+
+        DownloadBody(ClientHttpResponse response) throws IOException {
+            this.headers = response.getHeaders();
+            this.compressed = new CountingInputStream(response.getBody());
+            this.uncompressed = new CountingInputStream(decode(compressed, headers.getFirst(HttpHeaders.CONTENT_ENCODING)));
+            this.hashing = new HashingInputStream(Hashing.sha256(), uncompressed);
+        }
+
+        private static InputStream decode(InputStream in, String encoding) throws IOException {
+            if (encoding == null || encoding.isBlank() || "identity".equalsIgnoreCase(encoding.trim())) {
+                return in;
+            }
+            return switch (encoding.trim().toLowerCase(Locale.ROOT)) {
+                case "gzip", "x-gzip" -> new GZIPInputStream(in, DECODE_BUFFER_SIZE);
+                case "deflate" -> new InflaterInputStream(in, new Inflater(), DECODE_BUFFER_SIZE);
+                default -> throw new IOException("Неподдерживаемое сжатие ответа: " + encoding);
+            };
+        }
+
+        InputStream stream() {
+            return hashing;
+        }
+
+        Download toDownload() {
+            return new Download(headers, hashing.hash().toString(), uncompressed.getCount(), compressed.getCount());
+        }
+    }
 }
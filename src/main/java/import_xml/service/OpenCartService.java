@@ -3,13 +3,14 @@ package import_xml.service;
 import import_xml.config.OpenCartConfig;
 import import_xml.model.opencart.OpenCartCategory;
 import import_xml.model.opencart.OpenCartProduct;
+import import_xml.util.ApiClients;
+import import_xml.util.RateLimiters;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
 import java.net.URI;
 
@@ -17,8 +18,9 @@ import java.net.URI;
 @Slf4j
 @RequiredArgsConstructor
 public class OpenCartService {
-    private final RestTemplate restTemplate;
+    private final ApiClients apiClients;
     private final OpenCartConfig config;
+    private final RateLimiters rateLimiters;
 
     public OpenCartConfig getConfig() {
         return config;
@@ -35,7 +37,8 @@ public class OpenCartService {
         HttpEntity<OpenCartCategory> request = new HttpEntity<>(category, headers);
 
         try {
-            restTemplate.exchange(url, HttpMethod.POST, request, Void.class);
+            awaitPermit();
+            apiClients.openCart().exchange(url, HttpMethod.POST, request, Void.class);
             log.info("Category updated successfully: {}", category.getCategoryId());
         } catch (Exception e) {
             log.error("Ошибка при обновлении категории в OpenCart: {}", category.getCategoryId(), e);
@@ -54,7 +57,8 @@ public class OpenCartService {
         HttpEntity<OpenCartProduct> request = new HttpEntity<>(product, headers);
 
         try {
-            restTemplate.exchange(url, HttpMethod.POST, request, Void.class);
+            awaitPermit();
+            apiClients.openCart().exchange(url, HttpMethod.POST, request, Void.class);
             log.info("Product updated successfully: {}", product.getProductId());
         } catch (Exception e) {
             log.error("Ошибка при обновлении продукта в OpenCart: {}", product.getProductId(), e);
@@ -62,6 +66,15 @@ public class OpenCartService {
         }
     }
 
+    private void awaitPermit() {
+        try {
+            rateLimiters.openCart().acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Ожидание лимита запросов OpenCart прервано", e);
+        }
+    }
+
     private HttpHeaders createHeaders() {
         HttpHeaders headers = new HttpHeaders();
         headers.set("X-API-Key", config.getApiKey());
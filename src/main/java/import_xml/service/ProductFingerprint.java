@@ -0,0 +1,75 @@
+package import_xml.service;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import import_xml.model.Filter;
+import import_xml.model.Product;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.Function;
+
+/**
+ * 64-битный отпечаток содержимого товара из фида. Считается по каноническим значениям
+ * полей: числа без хвостовых нулей, коллекции - как отсортированные отпечатки элементов,
+ * поэтому порядок элементов в XML на результат не влияет. Служебные поля (last_updated,
+ * is_active, content_hash) в отпечаток не входят.
+ */
+final class ProductFingerprint {
+    private static final HashFunction HASH = Hashing.farmHashFingerprint64();
+
+    private ProductFingerprint() {
+    }
+
+    static long of(Product product) {
+        Hasher hasher = HASH.newHasher();
+        for (Object value : CatalogBulkWriter.productFeedValues(product)) {
+            put(hasher, value);
+        }
+        putSet(hasher, product.getAlerts(), alert -> new Object[]{alert});
+        putSet(hasher, product.getSubproducts(), id -> new Object[]{id});
+        putSet(hasher, product.getSubproductEntities(), subproduct -> new Object[]{subproduct.getId()});
+        putSet(hasher, product.getAttachments(), attachment -> new Object[]{attachment.getMeaning(),
+                attachment.getFile(), attachment.getImage(), attachment.getName(), attachment.getDescription()});
+        putSet(hasher, product.getPrices(), price -> new Object[]{price.getValue(), price.getType(),
+                price.getCurrency(), price.getDateStart(), price.getDateEnd()});
+        putSet(hasher, product.getCurrencies(), currency -> new Object[]{currency.getCode(),
+                currency.getRate(), currency.getDate()});
+        putSet(hasher, product.getFilters(), (Filter filter) -> new Object[]{filter.getId()});
+        return hasher.hash().asLong();
+    }
+
+    private static <T> void putSet(Hasher hasher, Collection<T> values, Function<T, Object[]> fields) {
+        if (values == null || values.isEmpty()) {
+            hasher.putInt(0);
+            return;
+        }
+        long[] elementHashes = new long[values.size()];
+        int i = 0;
+        for (T value : values) {
+            Hasher elementHasher = HASH.newHasher();
+            for (Object field : fields.apply(value)) {
+                put(elementHasher, field);
+            }
+            elementHashes[i++] = elementHasher.hash().asLong();
+        }
+        Arrays.sort(elementHashes);
+        hasher.putInt(elementHashes.length);
+        for (long elementHash : elementHashes) {
+            hasher.putLong(elementHash);
+        }
+    }
+
+    private static void put(Hasher hasher, Object value) {
+        if (value == null) {
+            hasher.putByte((byte) 0);
+            return;
+        }
+        String text = value instanceof BigDecimal decimal
+                ? decimal.stripTrailingZeros().toPlainString()
+                : value.toString();
+        hasher.putByte((byte) 1).putInt(text.length()).putUnencodedChars(text);
+    }
+}
@@ -0,0 +1,326 @@
+package import_xml.service;
+
+import import_xml.model.Filter;
+import import_xml.model.Product;
+import import_xml.util.StringPool;
+import import_xml.util.XmlText;
+import lombok.extern.slf4j.Slf4j;
+import org.codehaus.stax2.XMLStreamReader2;
+import org.springframework.util.StringUtils;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Разбор элемента &lt;product&gt; по таблице "имя дочернего элемента -> обработчик поля".
+ * Таблица строится один раз и общая для всех точек входа; вложенные блоки (pack, print,
+ * price, currency, attachments) разбираются теми же таблицами на своем уровне.
+ * Элементы, которых нет в таблице, пропускаются целиком без разбора содержимого.
+ * {@link #of(Collection)} дает читатель с подмножеством полей для частичных обновлений.
+ */
+@Slf4j
+final class ProductXmlReader {
+    private static final String PRODUCT_ID = "product_id";
+    private static final String NAME = "name";
+
+    // Бренды, статусы, коды валют и типы цен: десятки различных значений на весь фид
+    private static final StringPool VALUES = new StringPool(4096);
+
+    private static final Map<String, TextField<Product.Pack>> PACK_FIELDS = Map.of(
+            "amount", (pack, text) -> pack.setAmount(parseIntSafe(text)),
+            "weight", (pack, text) -> pack.setWeight(parseIntSafe(text)),
+            "volume", (pack, text) -> pack.setVolume(parseIntSafe(text)),
+            "sizex", (pack, text) -> pack.setSizex(parseIntSafe(text)),
+            "sizey", (pack, text) -> pack.setSizey(parseIntSafe(text)),
+            "sizez", (pack, text) -> pack.setSizez(parseIntSafe(text)),
+            "minpackamount", (pack, text) -> pack.setMinpackamount(parseIntSafe(text)));
+
+    private static final Map<String, TextField<Product.Print>> PRINT_FIELDS = Map.of(
+            "name", Product.Print::setName,
+            "description", Product.Print::setDescription);
+
+    private static final Map<String, TextField<Product.ProductAttachment>> ATTACHMENT_FIELDS = Map.of(
+            "meaning", Product.ProductAttachment::setMeaning,
+            "file", Product.ProductAttachment::setFile,
+            "image", Product.ProductAttachment::setImage,
+            "name", Product.ProductAttachment::setName,
+            "description", Product.ProductAttachment::setDescription);
+
+    private static final Map<String, TextField<Product.Price>> PRICE_FIELDS = Map.of(
+            "value", (price, text) -> price.setValue(parseDecimal(text, "цены value")),
+            "type", (price, text) -> price.setType(VALUES.intern(text)),
+            "currency", (price, text) -> price.setCurrency(VALUES.intern(text)),
+            "dateStart", Product.Price::setDateStart,
+            "dateEnd", Product.Price::setDateEnd);
+
+    private static final Map<String, TextField<Product.Currency>> CURRENCY_FIELDS = Map.of(
+            "code", (currency, text) -> currency.setCode(VALUES.intern(text)),
+            "rate", (currency, text) -> currency.setRate(parseDecimal(text, "валюты rate")),
+            "date", Product.Currency::setDate);
+
+    private static final Map<String, FieldHandler> HANDLERS = buildHandlers();
+
+    static final ProductXmlReader ALL = new ProductXmlReader(HANDLERS);
+
+    private final Map<String, FieldHandler> handlers;
+    private final boolean requireName;
+
+    private ProductXmlReader(Map<String, FieldHandler> handlers) {
+        this.handlers = handlers;
+        this.requireName = handlers.containsKey(NAME);
+    }
+
+    /**
+     * Читатель только указанных элементов товара; product_id читается всегда.
+     */
+    static ProductXmlReader of(Collection<String> elements) {
+        Map<String, FieldHandler> subset = new HashMap<>();
+        subset.put(PRODUCT_ID, HANDLERS.get(PRODUCT_ID));
+        for (String element : elements) {
+            FieldHandler handler = HANDLERS.get(element);
+            if (handler == null) {
+                throw new IllegalArgumentException("Неизвестный элемент товара: " + element);
+            }
+            subset.put(element, handler);
+        }
+        return new ProductXmlReader(subset);
+    }
+
+    /**
+     * Разбирает текущий &lt;product&gt; (читатель стоит на START_ELEMENT) до его END_ELEMENT.
+     *
+     * @return товар или null, если нет product_id или имени (когда имя входит в набор полей)
+     */
+    Product read(XMLStreamReader reader, ReferenceIndex index) throws XMLStreamException {
+        Product product = new Product();
+        product.setLastUpdated(LocalDateTime.now());
+        product.setIsActive(true);
+        // каждый дочерний элемент читается целиком, поэтому первый END_ELEMENT - конец товара
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                FieldHandler handler = handlers.get(reader.getLocalName());
+                if (handler != null) {
+                    handler.read(reader, product, index);
+                } else {
+                    skip(reader);
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+        }
+        if (requireName && !StringUtils.hasText(product.getName())) {
+            log.warn("Продукт без имени пропущен: {}", product.getProductId());
+            return null;
+        }
+        if (!StringUtils.hasText(product.getProductId())) {
+            log.warn("Продукт без product_id пропущен: {}", product.getName());
+            return null;
+        }
+        return product;
+    }
+
+    private static Map<String, FieldHandler> buildHandlers() {
+        Map<String, FieldHandler> handlers = new HashMap<>();
+        text(handlers, PRODUCT_ID, Product::setProductId);
+        text(handlers, "group", Product::setGroup);
+        text(handlers, "code", Product::setCode);
+        text(handlers, NAME, Product::setName);
+        text(handlers, "product_size", Product::setProductSize);
+        text(handlers, "matherial", Product::setMatherial);
+        text(handlers, "alert", Product::setAlert);
+        text(handlers, "small_image", Product::setSmallImage);
+        text(handlers, "super_big_image", Product::setSuperBigImage);
+        text(handlers, "content", Product::setContent);
+        text(handlers, "brand", (product, text) -> product.setBrand(VALUES.intern(text)));
+        text(handlers, "barcode", Product::setBarcode);
+        text(handlers, "weight", (product, text) -> product.setWeight(parseIntSafe(text)));
+        text(handlers, "volume", (product, text) -> product.setVolume(parseIntSafe(text)));
+        text(handlers, "ondemand", (product, text) -> product.setOndemand(Boolean.valueOf(text)));
+        text(handlers, "moq", Product::setMoq);
+        text(handlers, "days", Product::setDays);
+        text(handlers, "demandtype", Product::setDemandtype);
+        text(handlers, "multiplicity", (product, text) -> product.setMultiplicity(parseIntSafe(text)));
+        handlers.put("status", (reader, product, index) -> {
+            product.setStatusId(parseIntSafe(reader.getAttributeValue(null, "id")));
+            product.setStatusName(VALUES.intern(XmlText.read(reader)));
+        });
+        handlers.put("pack", (reader, product, index) ->
+                product.setPack(readObject(reader, new Product.Pack(), PACK_FIELDS)));
+        handlers.put("print", (reader, product, index) ->
+                product.setPrint(readObject(reader, new Product.Print(), PRINT_FIELDS)));
+        FieldHandler attachments = (reader, product, index) -> product.setAttachments(
+                readList(reader, "attachment", Product.ProductAttachment::new, ATTACHMENT_FIELDS));
+        handlers.put("attachments", attachments);
+        handlers.put("product_attachment", attachments);
+        handlers.put("price", (reader, product, index) ->
+                product.setPrices(readList(reader, "item", Product.Price::new, PRICE_FIELDS)));
+        handlers.put("currency", (reader, product, index) ->
+                product.setCurrencies(readList(reader, "item", Product.Currency::new, CURRENCY_FIELDS)));
+        handlers.put("alerts", ProductXmlReader::readAlerts);
+        handlers.put("subproducts", ProductXmlReader::readSubproducts);
+        handlers.put("filters", ProductXmlReader::readFilters);
+        return Map.copyOf(handlers);
+    }
+
+    private static void text(Map<String, FieldHandler> handlers, String element, TextField<Product> field) {
+        handlers.put(element, (reader, product, index) -> field.set(product, XmlText.read(reader)));
+    }
+
+    private static <T> T readObject(XMLStreamReader reader, T target, Map<String, TextField<T>> fields)
+            throws XMLStreamException {
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                TextField<T> field = fields.get(reader.getLocalName());
+                if (field != null) {
+                    field.set(target, XmlText.read(reader));
+                } else {
+                    skip(reader);
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return target;
+            }
+        }
+    }
+
+    private static <T> Set<T> readList(XMLStreamReader reader, String itemElement, Supplier<T> factory,
+                                       Map<String, TextField<T>> fields) throws XMLStreamException {
+        Set<T> items = new HashSet<>();
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (itemElement.equals(reader.getLocalName())) {
+                    items.add(readObject(reader, factory.get(), fields));
+                } else {
+                    skip(reader);
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return items;
+            }
+        }
+    }
+
+    private static void readAlerts(XMLStreamReader reader, Product product, ReferenceIndex index)
+            throws XMLStreamException {
+        Set<String> alerts = new HashSet<>();
+        forEachChild(reader, "alert", () -> {
+            String alert = XmlText.read(reader);
+            if (!alert.isEmpty()) {
+                alerts.add(alert);
+            }
+        });
+        product.setAlerts(alerts);
+    }
+
+    private static void readSubproducts(XMLStreamReader reader, Product product, ReferenceIndex index)
+            throws XMLStreamException {
+        Set<String> subproducts = new HashSet<>();
+        Set<Product> subproductEntities = new HashSet<>();
+        forEachChild(reader, "subproduct", () -> {
+            String subId = reader.getAttributeValue(null, "product_id");
+            if (subId != null && !subId.isEmpty()) {
+                subproducts.add(subId);
+                index.findProduct(subId).ifPresent(subproductEntities::add);
+            }
+            skip(reader);
+        });
+        product.setSubproducts(subproducts);
+        product.setSubproductEntities(subproductEntities);
+    }
+
+    private static void readFilters(XMLStreamReader reader, Product product, ReferenceIndex index)
+            throws XMLStreamException {
+        Set<Filter> filters = new HashSet<>();
+        forEachChild(reader, "filter", () -> {
+            String filterId = reader.getAttributeValue(null, "id");
+            if (filterId != null) {
+                index.findFilter(filterId).ifPresentOrElse(filters::add,
+                        () -> log.warn("Фильтр с id {} не найден для продукта {}", filterId, product.getProductId()));
+            }
+            skip(reader);
+        });
+        product.setFilters(filters);
+    }
+
+    /**
+     * Вызывает action для каждого дочернего элемента с именем childElement (action дочитывает его сам),
+     * прочие дочерние элементы пропускает.
+     */
+    private static void forEachChild(XMLStreamReader reader, String childElement, XmlAction action)
+            throws XMLStreamException {
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (childElement.equals(reader.getLocalName())) {
+                    action.run();
+                } else {
+                    skip(reader);
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Пропускает текущий элемент целиком. Woodstox делает это без построения текста и атрибутов.
+     */
+    private static void skip(XMLStreamReader reader) throws XMLStreamException {
+        if (reader instanceof XMLStreamReader2 reader2) {
+            reader2.skipElement();
+            return;
+        }
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static Integer parseIntSafe(String value) {
+        try {
+            return value != null && !value.isEmpty() ? Integer.valueOf(value) : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static BigDecimal parseDecimal(String value, String field) {
+        try {
+            return new BigDecimal(value);
+        } catch (NumberFormatException e) {
+            log.warn("Ошибка при парсинге {}: {}", field, value);
+            return null;
+        }
+    }
+
+    @FunctionalInterface
+    interface FieldHandler {
+        void read(XMLStreamReader reader, Product product, ReferenceIndex index) throws XMLStreamException;
+    }
+
+    @FunctionalInterface
+    private interface TextField<T> {
+        void set(T target, String text);
+    }
+
+    @FunctionalInterface
+    private interface XmlAction {
+        void run() throws XMLStreamException;
+    }
+}
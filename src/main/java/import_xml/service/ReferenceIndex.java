@@ -0,0 +1,84 @@
+package import_xml.service;
+
+import import_xml.model.Filter;
+import import_xml.model.Product;
+import import_xml.util.NaturalIdIndex;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Индекс ссылок одного импорта: product_id -> products.id и filter_id -> filters.id.
+ * Загружается один раз перед разбором файла, поэтому процессоры разрешают ссылки без запросов к БД.
+ * Вместо сущностей отдаются заглушки с одним первичным ключом: запись идет через JDBC,
+ * и кроме id ей ничего не нужно, а контекст персистентности для этого не требуется.
+ * Разборщики видят только снимок на начало импорта: товары, записанные по ходу, попадают
+ * в отдельную таблицу писателей, иначе разрешение ссылки (и хеш содержимого) зависело бы
+ * от того, успел ли писатель обогнать параллельный разбор. Ссылки на новые товары
+ * разрешаются следующим импортом.
+ */
+public class ReferenceIndex {
+    private final NaturalIdIndex products;
+    private final NaturalIdIndex productHashes;
+    private final NaturalIdIndex filters;
+    private final Map<String, Long> writtenProducts = new ConcurrentHashMap<>();
+
+    ReferenceIndex(NaturalIdIndex products, NaturalIdIndex productHashes, NaturalIdIndex filters) {
+        this.products = products;
+        this.productHashes = productHashes;
+        this.filters = filters;
+    }
+
+    public Long findProductPk(String productId) {
+        return products.get(productId);
+    }
+
+    /**
+     * Первичный ключ товара для писателя: из снимка или записанный ранее в этом импорте.
+     */
+    public Long findWrittenProductPk(String productId) {
+        Long pk = writtenProducts.get(productId);
+        return pk != null ? pk : products.get(productId);
+    }
+
+    /**
+     * Сохраненный хеш содержимого активного товара или null.
+     */
+    public Long findProductHash(String productId) {
+        return productHashes.get(productId);
+    }
+
+    public Long findFilterPk(String filterId) {
+        return filters.get(filterId);
+    }
+
+    public Optional<Product> findProduct(String productId) {
+        Long pk = findProductPk(productId);
+        if (pk == null) {
+            return Optional.empty();
+        }
+        Product product = new Product();
+        product.setId(pk);
+        product.setProductId(productId);
+        return Optional.of(product);
+    }
+
+    public Optional<Filter> findFilter(String filterId) {
+        Long pk = findFilterPk(filterId);
+        if (pk == null) {
+            return Optional.empty();
+        }
+        Filter filter = new Filter();
+        filter.setId(pk);
+        filter.setFilterId(filterId);
+        return Optional.of(filter);
+    }
+
+    /**
+     * Запоминает первичные ключи только что записанных товаров; разборщикам они не видны.
+     */
+    public void registerProductPks(Map<String, Long> pks) {
+        writtenProducts.putAll(pks);
+    }
+}
@@ -0,0 +1,57 @@
+package import_xml.service;
+
+import import_xml.util.NaturalIdIndex;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+
+import java.sql.PreparedStatement;
+
+/**
+ * Строит {@link ReferenceIndex} одним проходом по таблицам products и filters.
+ * Для активных товаров вместе с ключами читаются сохраненные хеши содержимого.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ReferenceIndexService {
+    private static final int FETCH_SIZE = 10_000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ReferenceIndex load() {
+        long start = System.currentTimeMillis();
+        int productCount = count("products");
+        NaturalIdIndex products = new NaturalIdIndex(productCount);
+        NaturalIdIndex productHashes = new NaturalIdIndex(productCount);
+        query("SELECT id, product_id, content_hash, is_active FROM products WHERE product_id IS NOT NULL", rs -> {
+            String productId = rs.getString(2);
+            products.put(productId, rs.getLong(1));
+            long hash = rs.getLong(3);
+            if (!rs.wasNull() && rs.getBoolean(4)) {
+                productHashes.put(productId, hash);
+            }
+        });
+        NaturalIdIndex filters = new NaturalIdIndex(count("filters"));
+        query("SELECT id, filter_id FROM filters WHERE filter_id IS NOT NULL",
+                rs -> filters.put(rs.getString(2), rs.getLong(1)));
+        log.info("Индекс ссылок загружен: товаров {}, фильтров {} за {} мс",
+                products.size(), filters.size(), System.currentTimeMillis() - start);
+        return new ReferenceIndex(products, productHashes, filters);
+    }
+
+    private int count(String table) {
+        Integer count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table, Integer.class);
+        return count != null ? count : 0;
+    }
+
+    private void query(String sql, RowCallbackHandler handler) {
+        jdbcTemplate.query(con -> {
+            PreparedStatement statement = con.prepareStatement(sql);
+            statement.setFetchSize(FETCH_SIZE);
+            return statement;
+        }, handler);
+    }
+}
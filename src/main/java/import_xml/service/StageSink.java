@@ -0,0 +1,11 @@
+package import_xml.service;
+
+import java.util.List;
+
+/**
+ * Приемник строк полной перезагрузки: table - имя живой таблицы, строки попадают в ее теневую копию.
+ * Вызывается одновременно из нескольких потоков записи.
+ */
+interface StageSink {
+    void insert(String table, List<String> columns, List<Object[]> rows);
+}
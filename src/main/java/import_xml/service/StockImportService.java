@@ -0,0 +1,180 @@
+package import_xml.service;
+
+import import_xml.model.Product;
+import import_xml.repository.StockJdbcRepository;
+import import_xml.repository.StockJdbcRepository.StockUpdate;
+import import_xml.util.XmlReaderFactory;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Импорт stock.xml: атрибуты элементов &lt;stock&gt; читаются потоково и сразу уходят
+ * пакетами в UPDATE products ... WHERE product_id = ?, без Hibernate и dirty checking.
+ * Тем же путем обновляются статусы товаров из product.xml.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class StockImportService {
+    private static final int BATCH_SIZE = 1000;
+    private static final ProductXmlReader STATUS_READER = ProductXmlReader.of(List.of("status"));
+
+    private final StockJdbcRepository stockJdbcRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final XmlReaderFactory xmlReaderFactory;
+
+    public StockImportResult importStock(File xmlFile) {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(xmlFile))) {
+            return importStock(in);
+        } catch (Exception e) {
+            log.error("Ошибка при обработке файла остатков: {}", xmlFile.getName(), e);
+            throw new RuntimeException("Не удалось обработать файл остатков: " + xmlFile.getName(), e);
+        }
+    }
+
+    public StockImportResult importStock(InputStream in) throws Exception {
+        return importUpdates(in, "stock", this::readStockElement);
+    }
+
+    /**
+     * Частичное обновление статусов товаров по product.xml: из каждого товара разбираются
+     * только product_id и status, прочие элементы пропускаются, запись - тем же пакетным UPDATE.
+     * Вызывается при загрузке товаров с statusOnly=true.
+     */
+    public StockImportResult importStatuses(File productXml) {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(productXml))) {
+            return importUpdates(in, "product", this::readProductStatus);
+        } catch (Exception e) {
+            log.error("Ошибка при обновлении статусов из файла: {}", productXml.getName(), e);
+            throw new RuntimeException("Не удалось обновить статусы из файла: " + productXml.getName(), e);
+        }
+    }
+
+    private StockImportResult importUpdates(InputStream in, String element,
+                                            UpdateReader updateReader) throws Exception {
+        long start = System.currentTimeMillis();
+        LocalDateTime now = LocalDateTime.now();
+        StockImportResult result = new StockImportResult();
+        XMLStreamReader reader = xmlReaderFactory.createReader(in);
+        try {
+            List<StockUpdate> batch = new ArrayList<>(BATCH_SIZE);
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamReader.START_ELEMENT && element.equals(reader.getLocalName())) {
+                    StockUpdate update = updateReader.read(reader);
+                    if (update == null) {
+                        result.invalid++;
+                        continue;
+                    }
+                    batch.add(update);
+                    if (batch.size() >= BATCH_SIZE) {
+                        flush(batch, now, result);
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                flush(batch, now, result);
+            }
+        } finally {
+            reader.close();
+        }
+        result.executionTimeMs = System.currentTimeMillis() - start;
+        log.info("Остатки обновлены: всего {}, найдено {}, не найдено {}, с ошибками {} за {} мс",
+                result.total, result.matched, result.unmatched, result.invalid, result.executionTimeMs);
+        return result;
+    }
+
+    private StockUpdate readStockElement(XMLStreamReader reader) {
+        String productId = reader.getAttributeValue(null, "product_id");
+        if (productId == null || productId.isEmpty()) {
+            return null;
+        }
+        String quantityStr = reader.getAttributeValue(null, "amount");
+        String priceStr = reader.getAttributeValue(null, "enduserprice");
+        String statusIdStr = reader.getAttributeValue(null, "status_id");
+        Integer quantity = null;
+        BigDecimal price = null;
+        Integer statusId = null;
+        try {
+            if (quantityStr != null) {
+                quantity = Integer.valueOf(quantityStr);
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Ошибка при парсинге количества для товара {}: {}", productId, quantityStr);
+            return null;
+        }
+        try {
+            if (priceStr != null) {
+                price = new BigDecimal(priceStr);
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Ошибка при парсинге цены для товара {}: {}", productId, priceStr);
+        }
+        try {
+            if (statusIdStr != null) {
+                statusId = Integer.valueOf(statusIdStr);
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Ошибка при парсинге статуса для товара {}: {}", productId, statusIdStr);
+        }
+        return new StockUpdate(productId, quantity, price, statusId, reader.getAttributeValue(null, "status_name"));
+    }
+
+    private StockUpdate readProductStatus(XMLStreamReader reader) throws XMLStreamException {
+        Product product = STATUS_READER.read(reader, null);
+        if (product == null || product.getStatusId() == null) {
+            return null;
+        }
+        return new StockUpdate(product.getProductId(), null, null, product.getStatusId(), product.getStatusName());
+    }
+
+    private void flush(List<StockUpdate> batch, LocalDateTime now, StockImportResult result) {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Импорт остатков отменен");
+        }
+        int[] counts = transactionTemplate.execute(status -> stockJdbcRepository.updateStock(batch, now));
+        for (int i = 0; i < batch.size(); i++) {
+            int count = counts != null && i < counts.length ? counts[i] : Statement.SUCCESS_NO_INFO;
+            if (count > 0 || count == Statement.SUCCESS_NO_INFO) {
+                result.matched++;
+            } else {
+                result.unmatched++;
+                log.debug("Товар с id {} не найден при обновлении остатков", batch.get(i).productId());
+            }
+        }
+        result.total += batch.size();
+        batch.clear();
+    }
+
+    @FunctionalInterface
+    private interface UpdateReader {
+        StockUpdate read(XMLStreamReader reader) throws XMLStreamException;
+    }
+
+    /**
+     * Итог импорта остатков.
+     */
+    @Getter
+    public static class StockImportResult {
+        private int total;
+        private int matched;
+        private int unmatched;
+        private int invalid;
+        private long executionTimeMs;
+    }
+}
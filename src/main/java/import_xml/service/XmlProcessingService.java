@@ -1,28 +1,34 @@
 package import_xml.service;
 
 import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import import_xml.config.ImportXmlProperties;
 import import_xml.model.Category;
 import import_xml.model.Complect;
 import import_xml.model.Filter;
+import import_xml.model.ImportCheckpoint;
 import import_xml.model.Product;
-import import_xml.repository.CategoryRepository;
-import import_xml.repository.ComplectRepository;
-import import_xml.repository.FilterRepository;
-import import_xml.repository.ProductRepository;
+import import_xml.util.NaturalIdSet;
+import import_xml.util.XmlPartitioner;
+import import_xml.util.XmlReaderFactory;
+import import_xml.util.XmlText;
+import jakarta.persistence.EntityManager;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.input.CloseShieldInputStream;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.StringUtils;
-import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamConstants;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.StringWriter;
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -30,462 +36,599 @@ import java.util.function.Function;
 @Service
 @RequiredArgsConstructor
 public class XmlProcessingService {
-    private final ProductRepository productRepository;
-    private final CategoryRepository categoryRepository;
-    private final FilterRepository filterRepository;
-    private final ComplectRepository complectRepository;
+    private static final Set<String> CATALOGUE_ELEMENTS = Set.of("category", "product");
+
     private final XmlMapper xmlMapper;
+    private final CatalogBulkWriter catalogBulkWriter;
+    private final FullReloadService fullReloadService;
+    private final DeactivationService deactivationService;
+    private final ImportCheckpointService importCheckpointService;
+    private final ReferenceIndexService referenceIndexService;
+    private final StockImportService stockImportService;
+    private final ImportXmlProperties properties;
+    private final TransactionTemplate transactionTemplate;
+    private final EntityManager entityManager;
+    private final XmlReaderFactory xmlReaderFactory;
+
+
+    public ImportSummary processProductsXml(File xmlFile) {
+        return processProductsXml(xmlFile, null);
+    }
 
-    private static final int BATCH_SIZE = 100;
-    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+    /**
+     * @param checkpoint контрольная точка импорта файла (см. {@link ImportCheckpointService}) или null
+     */
+    public ImportSummary processProductsXml(File xmlFile, ImportCheckpoint checkpoint) {
+        return processProductsXml(XmlSource.of(xmlFile, checkpoint), referenceIndexService.load());
+    }
 
-    @Transactional
-    public void processProductsXml(File xmlFile) {
-        try (FileInputStream fis = new FileInputStream(xmlFile)) {
-            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(fis);
-            List<Product> products = new ArrayList<>();
-            while (reader.hasNext()) {
-                int event = reader.next();
-                if (event == XMLStreamReader.START_ELEMENT && "product".equals(reader.getLocalName())) {
-                    Product product = new Product();
-                    product.setLastUpdated(LocalDateTime.now());
-                    product.setIsActive(true);
-                    while (reader.hasNext()) {
-                        int innerEvent = reader.next();
-                        if (innerEvent == XMLStreamReader.END_ELEMENT && "product".equals(reader.getLocalName())) break;
-                        if (innerEvent == XMLStreamReader.START_ELEMENT) {
-                            String el = reader.getLocalName();
-                            switch (el) {
-                                case "product_id": product.setProductId(reader.getElementText()); break;
-                                case "group": product.setGroup(readElementAsXml(reader)); break;
-                                case "code": product.setCode(reader.getElementText()); break;
-                                case "name": product.setName(readElementAsXml(reader)); break;
-                                case "product_size": product.setProductSize(readElementAsXml(reader)); break;
-                                case "matherial": product.setMatherial(readElementAsXml(reader)); break;
-                                case "alert": product.setAlert(readElementAsXml(reader)); break;
-                                case "small_image": product.setSmallImage(reader.getElementText()); break;
-                                case "super_big_image": product.setSuperBigImage(reader.getElementText()); break;
-                                case "content": product.setContent(readElementAsXml(reader)); break;
-                                case "status": product.setStatusId(Integer.valueOf(reader.getAttributeValue(null, "id")));
-                                    product.setStatusName(readElementAsXml(reader)); break;
-                                case "brand": product.setBrand(readElementAsXml(reader)); break;
-                                case "barcode": product.setBarcode(reader.getElementText()); break;
-                                case "weight": product.setWeight(parseIntSafe(reader.getElementText())); break;
-                                case "volume": product.setVolume(parseIntSafe(reader.getElementText())); break;
-                                case "pack":
-                                    Product.Pack pack = new Product.Pack();
-                                    while (reader.hasNext()) {
-                                        int packEvent = reader.next();
-                                        if (packEvent == XMLStreamReader.END_ELEMENT && "pack".equals(reader.getLocalName())) break;
-                                        if (packEvent == XMLStreamReader.START_ELEMENT) {
-                                            String packEl = reader.getLocalName();
-                                            String packText = reader.getElementText();
-                                            switch (packEl) {
-                                                case "amount": pack.setAmount(parseIntSafe(packText)); break;
-                                                case "weight": pack.setWeight(parseIntSafe(packText)); break;
-                                                case "volume": pack.setVolume(parseIntSafe(packText)); break;
-                                                case "sizex": pack.setSizex(parseIntSafe(packText)); break;
-                                                case "sizey": pack.setSizey(parseIntSafe(packText)); break;
-                                                case "sizez": pack.setSizez(parseIntSafe(packText)); break;
-                                                case "minpackamount": pack.setMinpackamount(parseIntSafe(packText)); break;
-                                            }
-                                        }
-                                    }
-                                    product.setPack(pack);
-                                    break;
-                                case "print":
-                                    Product.Print print = new Product.Print();
-                                    while (reader.hasNext()) {
-                                        int printEvent = reader.next();
-                                        if (printEvent == XMLStreamReader.END_ELEMENT && "print".equals(reader.getLocalName())) break;
-                                        if (printEvent == XMLStreamReader.START_ELEMENT) {
-                                            String printEl = reader.getLocalName();
-                                            switch (printEl) {
-                                                case "name": print.setName(readElementAsXml(reader)); break;
-                                                case "description": print.setDescription(readElementAsXml(reader)); break;
-                                            }
-                                        }
-                                    }
-                                    product.setPrint(print);
-                                    break;
-                                case "attachments":
-                                case "product_attachment":
-                                    Set<Product.ProductAttachment> attachments = new HashSet<>();
-                                    while (reader.hasNext()) {
-                                        int attEvent = reader.next();
-                                        if (attEvent == XMLStreamReader.END_ELEMENT && ("attachments".equals(reader.getLocalName()) || "product_attachment".equals(reader.getLocalName()))) break;
-                                        if (attEvent == XMLStreamReader.START_ELEMENT && "attachment".equals(reader.getLocalName())) {
-                                            Product.ProductAttachment attachment = new Product.ProductAttachment();
-                                            while (reader.hasNext()) {
-                                                int fieldEvent = reader.next();
-                                                if (fieldEvent == XMLStreamReader.END_ELEMENT && "attachment".equals(reader.getLocalName())) break;
-                                                if (fieldEvent == XMLStreamReader.START_ELEMENT) {
-                                                    String attEl = reader.getLocalName();
-                                                    String attText = reader.getElementText();
-                                                    switch (attEl) {
-                                                        case "meaning": attachment.setMeaning(readElementAsXml(reader)); break;
-                                                        case "file": attachment.setFile(attText); break;
-                                                        case "image": attachment.setImage(attText); break;
-                                                        case "name": attachment.setName(readElementAsXml(reader)); break;
-                                                        case "description": attachment.setDescription(readElementAsXml(reader)); break;
-                                                    }
-                                                }
-                                            }
-                                            attachments.add(attachment);
-                                        }
-                                    }
-                                    product.setAttachments(attachments);
-                                    break;
-                                case "subproducts":
-                                    Set<String> subproducts = new HashSet<>();
-                                    Set<Product> subproductEntities = new HashSet<>();
-                                    while (reader.hasNext()) {
-                                        int subEvent = reader.next();
-                                        if (subEvent == XMLStreamReader.END_ELEMENT && "subproducts".equals(reader.getLocalName())) break;
-                                        if (subEvent == XMLStreamReader.START_ELEMENT && "subproduct".equals(reader.getLocalName())) {
-                                            try {
-                                                String subId = reader.getAttributeValue(null, "product_id");
-                                                if (subId != null && !subId.isEmpty()) {
-                                                    subproducts.add(subId);
-                                                    productRepository.findByProductId(subId).ifPresent(subproductEntities::add);
-                                                }
-                                            } catch (Exception e) {
-                                                log.warn("Ошибка при парсинге subproduct: {}", e.getMessage());
-                                            }
-                                            skipElement(reader, "subproduct");
-                                        }
-                                    }
-                                    product.setSubproducts(subproducts);
-                                    product.setSubproductEntities(subproductEntities);
-                                    break;
-                                case "filters":
-                                    Set<Filter> productFilters = new HashSet<>();
-                                    while (reader.hasNext()) {
-                                        int filterEvent = reader.next();
-                                        if (filterEvent == XMLStreamReader.END_ELEMENT && "filters".equals(reader.getLocalName())) break;
-                                        if (filterEvent == XMLStreamReader.START_ELEMENT && "filter".equals(reader.getLocalName())) {
-                                            String filterId = reader.getAttributeValue(null, "id");
-                                            if (filterId != null) {
-                                                Filter filter = filterRepository.findByFilterId(filterId);
-                                                if (filter != null) {
-                                                    productFilters.add(filter);
-                                                } else {
-                                                    log.warn("Фильтр с id {} не найден для продукта {}", filterId, product.getProductId());
-                                                }
-                                            }
-                                            // пропустить содержимое filter
-                                            skipElement(reader, "filter");
-                                        }
-                                    }
-                                    product.setFilters(productFilters);
-                                    break;
-                                case "ondemand": product.setOndemand(Boolean.valueOf(reader.getElementText())); break;
-                                case "moq": product.setMoq(readElementAsXml(reader)); break;
-                                case "days": product.setDays(readElementAsXml(reader)); break;
-                                case "demandtype": product.setDemandtype(readElementAsXml(reader)); break;
-                                case "multiplicity": product.setMultiplicity(parseIntSafe(reader.getElementText())); break;
-                                case "price":
-                                    Set<Product.Price> prices = new HashSet<>();
-                                    while (reader.hasNext()) {
-                                        int priceEvent = reader.next();
-                                        if (priceEvent == XMLStreamReader.END_ELEMENT && "price".equals(reader.getLocalName())) break;
-                                        if (priceEvent == XMLStreamReader.START_ELEMENT && "item".equals(reader.getLocalName())) {
-                                            Product.Price price = new Product.Price();
-                                            while (reader.hasNext()) {
-                                                int fieldEvent = reader.next();
-                                                if (fieldEvent == XMLStreamReader.END_ELEMENT && "item".equals(reader.getLocalName())) break;
-                                                if (fieldEvent == XMLStreamReader.START_ELEMENT) {
-                                                    String priceEl = reader.getLocalName();
-                                                    String priceText = reader.getElementText();
-                                                    try {
-                                                        switch (priceEl) {
-                                                            case "value": price.setValue(new java.math.BigDecimal(priceText)); break;
-                                                            case "type": price.setType(priceText); break;
-                                                            case "currency": price.setCurrency(priceText); break;
-                                                            case "dateStart": price.setDateStart(priceText); break;
-                                                            case "dateEnd": price.setDateEnd(priceText); break;
-                                                        }
-                                                    } catch (Exception e) {
-                                                        log.warn("Ошибка при парсинге цены {}: {}", priceEl, priceText);
-                                                    }
-                                                }
-                                            }
-                                            prices.add(price);
-                                        }
-                                    }
-                                    product.setPrices(prices);
-                                    break;
-                                case "currency":
-                                    Set<Product.Currency> currencies = new HashSet<>();
-                                    while (reader.hasNext()) {
-                                        int currEvent = reader.next();
-                                        if (currEvent == XMLStreamReader.END_ELEMENT && "currency".equals(reader.getLocalName())) break;
-                                        if (currEvent == XMLStreamReader.START_ELEMENT && "item".equals(reader.getLocalName())) {
-                                            Product.Currency currency = new Product.Currency();
-                                            while (reader.hasNext()) {
-                                                int fieldEvent = reader.next();
-                                                if (fieldEvent == XMLStreamReader.END_ELEMENT && "item".equals(reader.getLocalName())) break;
-                                                if (fieldEvent == XMLStreamReader.START_ELEMENT) {
-                                                    String currEl = reader.getLocalName();
-                                                    String currText = reader.getElementText();
-                                                    try {
-                                                        switch (currEl) {
-                                                            case "code": currency.setCode(currText); break;
-                                                            case "rate": currency.setRate(new java.math.BigDecimal(currText)); break;
-                                                            case "date": currency.setDate(currText); break;
-                                                        }
-                                                    } catch (Exception e) {
-                                                        log.warn("Ошибка при парсинге валюты {}: {}", currEl, currText);
-                                                    }
-                                                }
-                                            }
-                                            currencies.add(currency);
-                                        }
-                                    }
-                                    product.setCurrencies(currencies);
-                                    break;
-                                case "alerts":
-                                    Set<String> alerts = new HashSet<>();
-                                    while (reader.hasNext()) {
-                                        int alertEvent = reader.next();
-                                        if (alertEvent == XMLStreamReader.END_ELEMENT && "alerts".equals(reader.getLocalName())) break;
-                                        if (alertEvent == XMLStreamReader.START_ELEMENT && "alert".equals(reader.getLocalName())) {
-                                            try {
-                                                String alertText = readElementAsXml(reader);
-                                                if (alertText != null && !alertText.isEmpty()) {
-                                                    alerts.add(alertText);
-                                                }
-                                            } catch (Exception e) {
-                                                log.warn("Ошибка при парсинге alert: {}", e.getMessage());
-                                            }
-                                        }
-                                    }
-                                    product.setAlerts(alerts);
-                                    break;
-                            }
-                        }
-                    }
-                    // -------------- ПРОВЕРКА НА ИМЯ ПРОДУКТА -------------- //
-                    if (product.getName() == null || product.getName().trim().isEmpty()) {
-                        log.warn("Продукт без имени пропущен: {}", product.getProductId());
-                        continue;
-                    }
-                    // -------------- ПРОВЕРКА НА ИМЯ ПРОДУКТА -------------- //
-                    products.add(product);
-                }
-            }
-            productRepository.saveAll(products);
+    /**
+     * Разбор товаров прямо из потока (например, тела HTTP-ответа), без промежуточного файла.
+     */
+    public ImportSummary processProductsXml(InputStream in, String sourceName) {
+        return processProductsXml(XmlSource.of(in, sourceName), referenceIndexService.load());
+    }
+
+    private ImportSummary processProductsXml(XmlSource source, ReferenceIndex index) {
+        ImportSummary summary = new ImportSummary("products");
+        NaturalIdSet seen = new NaturalIdSet();
+        processXml(source, "product", summary,
+                reader -> detectChanges(remember(processProductElement(reader, index, summary), Product::getProductId, seen),
+                        index, summary),
+                products -> catalogBulkWriter.writeProducts(products, index));
+        deactivationService.sweep("products", "product_id", seen, summary);
+        return summary;
+    }
+
+    /**
+     * Полная перезагрузка товаров через теневые таблицы (см. {@link FullReloadService}):
+     * в каталоге остаются только товары из файла.
+     */
+    public ImportSummary reloadProductsXml(File xmlFile) {
+        ReferenceIndex index = referenceIndexService.load();
+        ImportSummary summary = new ImportSummary("products");
+        return fullReloadService.reload(FullReloadService.PRODUCT_TABLES, sink ->
+                processXml(XmlSource.of(xmlFile), "product", summary,
+                        reader -> {
+                            Product product = processProductElement(reader, index, summary);
+                            // неизмененные товары тоже пишутся: теневая таблица заполняется целиком
+                            detectChanges(product, index, summary);
+                            return product;
+                        },
+                        products -> catalogBulkWriter.stageProducts(products, index, sink)));
+    }
+
+    /**
+     * Сравнивает отпечаток товара с сохраненным: неизмененные товары не попадают в порцию записи.
+     */
+    private Product detectChanges(Product product, ReferenceIndex index, ImportSummary summary) {
+        if (product == null) {
+            return null;
+        }
+        long hash = ProductFingerprint.of(product);
+        product.setContentHash(hash);
+        if (index.findProductPk(product.getProductId()) == null) {
+            summary.incrementCreated();
+            return product;
+        }
+        Long storedHash = index.findProductHash(product.getProductId());
+        if (storedHash != null && storedHash == hash) {
+            summary.incrementUnchanged();
+            return null;
+        }
+        summary.incrementChanged();
+        return product;
+    }
+
+    private Product processProductElement(XMLStreamReader reader, ReferenceIndex index, ImportSummary summary) {
+        try {
+            return ProductXmlReader.ALL.read(reader, index);
+        } catch (Exception e) {
+            log.error("Ошибка при обработке элемента товара", e);
+            summary.incrementMalformed();
+            return null;
+        }
+    }
+
+    public StockImportService.StockImportResult processStockXml(File xmlFile) {
+        return stockImportService.importStock(xmlFile);
+    }
+
+    /**
+     * Обновляет только статусы товаров из product.xml (см. {@link StockImportService#importStatuses}).
+     */
+    public StockImportService.StockImportResult processProductStatusesXml(File xmlFile) {
+        return stockImportService.importStatuses(xmlFile);
+    }
+
+    public StockImportService.StockImportResult processStockXml(InputStream in, String sourceName) {
+        try {
+            return stockImportService.importStock(in);
         } catch (Exception e) {
-            log.error("Ошибка при обработке файла товаров: {}", xmlFile.getName(), e);
-            throw new RuntimeException("Не удалось обработать файл товаров: " + xmlFile.getName(), e);
+            log.error("Ошибка при обработке файла остатков: {}", sourceName, e);
+            throw new RuntimeException("Не удалось обработать файл остатков: " + sourceName, e);
         }
     }
 
-    @Transactional
-    public void processStockXml(File xmlFile) {
-        processXmlFile(xmlFile, "stock", this::processStockElement, products -> {
-            productRepository.saveAll(products);
-        });
+    public ImportSummary processTreeXml(File xmlFile) {
+        return processTreeXml(XmlSource.of(xmlFile), referenceIndexService.load());
+    }
+
+    public ImportSummary processTreeXml(InputStream in, String sourceName) {
+        return processTreeXml(XmlSource.of(in, sourceName), referenceIndexService.load());
+    }
+
+    private ImportSummary processTreeXml(XmlSource source, ReferenceIndex index) {
+        AtomicLong nestedSet = new AtomicLong();
+        ImportSummary summary = new ImportSummary("categories");
+        NaturalIdSet seen = new NaturalIdSet();
+        processXml(source, "category", summary,
+                reader -> {
+                    List<Category> tree = processCategoryTree(reader, index, nestedSet, summary);
+                    if (tree != null) {
+                        tree.forEach(category -> seen.add(category.getCategoryId()));
+                    }
+                    return tree;
+                },
+                trees -> catalogBulkWriter.writeCategories(flatten(trees)));
+        deactivationService.sweep("categories", "category_id", seen, summary);
+        return summary;
+    }
+
+    /**
+     * Полная перезагрузка дерева категорий через теневые таблицы.
+     */
+    public ImportSummary reloadTreeXml(File xmlFile) {
+        ReferenceIndex index = referenceIndexService.load();
+        AtomicLong nestedSet = new AtomicLong();
+        ImportSummary summary = new ImportSummary("categories");
+        return fullReloadService.reload(FullReloadService.CATEGORY_TABLES, sink ->
+                processXml(XmlSource.of(xmlFile), "category", summary,
+                        reader -> processCategoryTree(reader, index, nestedSet, summary),
+                        trees -> catalogBulkWriter.stageCategories(flatten(trees), sink)));
+    }
+
+    public ImportSummary processFiltersXml(File xmlFile) {
+        return processFiltersXml(xmlFile, null);
     }
 
-    @Transactional
-    public void processTreeXml(File xmlFile) {
-        processXmlFile(xmlFile, "category", this::processCategoryElement, categoryRepository::saveAll);
+    public ImportSummary processFiltersXml(File xmlFile, ImportCheckpoint checkpoint) {
+        return processFiltersXml(XmlSource.of(xmlFile, checkpoint));
+    }
+
+    public ImportSummary processFiltersXml(InputStream in, String sourceName) {
+        return processFiltersXml(XmlSource.of(in, sourceName));
+    }
+
+    private ImportSummary processFiltersXml(XmlSource source) {
+        ReferenceIndex index = referenceIndexService.load();
+        ImportSummary summary = new ImportSummary("filters");
+        NaturalIdSet seen = new NaturalIdSet();
+        processXml(source, "filter", summary,
+                reader -> rememberFilters(processFilterElement(reader, index, summary), seen), catalogBulkWriter::writeFilters);
+        deactivationService.sweep("filters", "filter_id", seen, summary);
+        return summary;
+    }
+
+    public ImportSummary processComplectsXml(File xmlFile) {
+        return processComplectsXml(xmlFile, null);
+    }
+
+    public ImportSummary processComplectsXml(File xmlFile, ImportCheckpoint checkpoint) {
+        return processComplectsXml(XmlSource.of(xmlFile, checkpoint));
+    }
+
+    public ImportSummary processComplectsXml(InputStream in, String sourceName) {
+        return processComplectsXml(XmlSource.of(in, sourceName));
+    }
+
+    private ImportSummary processComplectsXml(XmlSource source) {
+        ReferenceIndex index = referenceIndexService.load();
+        ImportSummary summary = new ImportSummary("complects");
+        NaturalIdSet seen = new NaturalIdSet();
+        processXml(source, "complect", summary,
+                reader -> remember(processComplectElement(reader, index, summary), Complect::getComplectId, seen),
+                catalogBulkWriter::writeComplects);
+        deactivationService.sweep("complects", "complect_id", seen, summary);
+        return summary;
+    }
+
+    /**
+     * Запоминает натуральный id разобранного элемента для деактивации пропавших из файла строк.
+     */
+    private static <T> T remember(T element, Function<T, String> naturalId, NaturalIdSet seen) {
+        if (element != null) {
+            seen.add(naturalId.apply(element));
+        }
+        return element;
+    }
+
+    private static Filter rememberFilters(Filter filter, NaturalIdSet seen) {
+        if (filter != null) {
+            seen.add(filter.getFilterId());
+            if (filter.getFilters() != null) {
+                filter.getFilters().forEach(child -> rememberFilters(child, seen));
+            }
+        }
+        return filter;
     }
 
-    @Transactional
-    public void processFiltersXml(File xmlFile) {
-        processXmlFile(xmlFile, "filter", this::processFilterElement, filterRepository::saveAll);
+    public ImportSummary processCatalogueXml(File xmlFile) {
+        return processCatalogueXml(XmlSource.of(xmlFile));
     }
 
-    @Transactional
-    public void processComplectsXml(File xmlFile) {
-        processXmlFile(xmlFile, "complect", this::processComplectElement, complectRepository::saveAll);
+    public ImportSummary processCatalogueXml(InputStream in, String sourceName) {
+        return processCatalogueXml(XmlSource.of(in, sourceName));
     }
 
-    @Transactional
-    public void processCatalogueXml(File xmlFile) {
+    /**
+     * catalogue.xml читается за один проход: элементы category и product верхнего уровня
+     * разбираются своими обработчиками, а смешанная порция делится на категории и товары и
+     * записывается в одной транзакции. Ссылки product внутри категории читаются вместе с ней
+     * и за товары не принимаются.
+     */
+    private ImportSummary processCatalogueXml(XmlSource source) {
         log.info("Начата обработка catalogue.xml (каталог товаров и дерева категорий)");
+        ReferenceIndex index = referenceIndexService.load();
+        ImportSummary summary = new ImportSummary("catalogue");
+        AtomicLong nestedSet = new AtomicLong();
+        return processXml(source, CATALOGUE_ELEMENTS, summary, 0,
+                reader -> "category".equals(reader.getLocalName())
+                        ? processCategoryTree(reader, index, nestedSet, summary)
+                        : detectChanges(processProductElement(reader, index, summary), index, summary),
+                chunk -> writeCatalogueChunk(chunk, index));
+    }
+
+    private void writeCatalogueChunk(List<Object> chunk, ReferenceIndex index) {
+        List<Category> categories = new ArrayList<>();
+        List<Product> products = new ArrayList<>(chunk.size());
+        for (Object item : chunk) {
+            if (item instanceof List<?> tree) {
+                tree.forEach(category -> categories.add((Category) category));
+            } else {
+                products.add((Product) item);
+            }
+        }
+        if (!categories.isEmpty()) {
+            catalogBulkWriter.writeCategories(categories);
+        }
+        if (!products.isEmpty()) {
+            catalogBulkWriter.writeProducts(products, index);
+        }
+    }
+
+    private static List<Category> flatten(List<List<Category>> trees) {
+        List<Category> categories = new ArrayList<>();
+        trees.forEach(categories::addAll);
+        return categories;
+    }
+
+    /**
+     * Потоковый разбор файла порциями: каждая порция из chunk-size элементов записывается,
+     * сбрасывается (flush) и выгружается из контекста (clear) в собственной транзакции,
+     * поэтому память не растет с размером файла, а ошибка в порции не откатывает остальные.
+     * Если включен конвейер, разбор и запись идут параллельно (см. {@link ImportPipeline}),
+     * а файлы больше partition-threshold-mb еще и читаются по диапазонам несколькими читателями.
+     * Для файла с контрольной точкой после каждой порции сохраняется, докуда файл записан,
+     * а прерванный импорт продолжается с этого места.
+     */
+    private <T> ImportSummary processXml(XmlSource source, String rootElement, ImportSummary summary,
+                                         Function<XMLStreamReader, T> elementProcessor,
+                                         Consumer<List<T>> batchSaver) {
+        return processXml(source, Set.of(rootElement), summary, 0, elementProcessor, batchSaver);
+    }
+
+    /**
+     * @param rootElements имена корневых элементов; по диапазонам делится только файл с одним видом элементов
+     * @param limit сколько разобранных элементов записать (0 - все); с лимитом файл читается в одном потоке
+     */
+    private <T> ImportSummary processXml(XmlSource source, Set<String> rootElements, ImportSummary summary, int limit,
+                                         Function<XMLStreamReader, T> elementProcessor,
+                                         Consumer<List<T>> batchSaver) {
+        long start = System.currentTimeMillis();
+        boolean partitionable = limit <= 0 && source.file() != null && rootElements.size() == 1;
+        ImportCheckpointService.Tracker tracker = partitionable ? track(source, rootElements.iterator().next()) : null;
+        Consumer<ImportPipeline.Chunk<T>> chunkWriter = chunk -> saveChunk(chunk, batchSaver, source.name(), summary, tracker);
+        List<XmlPartitioner.Partition> partitions;
+        if (tracker != null) {
+            partitions = tracker.layout().partitions(tracker.resumeOrdinal(),
+                    partitionCount(source.file(), tracker.layout(), tracker.resumeOrdinal()));
+            if (tracker.resumeOrdinal() > 0) {
+                summary.setResumedFrom(tracker.resumeOrdinal());
+                log.info("Импорт {} продолжается с элемента {} из {} (байт {})", source.name(),
+                        tracker.resumeOrdinal(), tracker.layout().count(), tracker.resumeOffset());
+            }
+        } else {
+            partitions = partitionable ? partition(source.file(), rootElements.iterator().next()) : List.of();
+        }
         try {
-            // Сначала парсим дерево категорий
-            processTreeXml(xmlFile);
-            // Затем парсим товары
-            processProductsXml(xmlFile);
-            log.info("Обработка catalogue.xml завершена успешно");
+            if (partitions.size() > 1) {
+                new ImportPipeline(xmlReaderFactory, properties.getProcessing())
+                        .run(partitions, rootElements.iterator().next(), summary, elementProcessor, chunkWriter);
+            } else if (tracker != null && partitions.isEmpty()) {
+                log.info("Все элементы файла {} уже записаны", source.name());
+            } else {
+                // с контрольной точкой файл читается с начала первого незаписанного элемента
+                long firstOrdinal = tracker != null ? partitions.get(0).firstOrdinal() : 0;
+                try (InputStream in = tracker != null ? partitions.get(0).open() : source.open()) {
+                    if (limit <= 0 && properties.getProcessing().getPipeline().isEnabled()) {
+                        new ImportPipeline(xmlReaderFactory, properties.getProcessing())
+                                .run(in, rootElements, firstOrdinal, summary, elementProcessor, chunkWriter);
+                    } else {
+                        processSequentially(in, rootElements, firstOrdinal, summary, limit, elementProcessor, chunkWriter);
+                    }
+                }
+            }
         } catch (Exception e) {
-            log.error("Ошибка при обработке catalogue.xml: {}", xmlFile.getName(), e);
-            throw new RuntimeException("Не удалось обработать файл catalogue.xml: " + xmlFile.getName(), e);
+            log.error("Ошибка при обработке файла: {}", source.name(), e);
+            throw new RuntimeException("Не удалось обработать файл: " + source.name(), e);
+        }
+        summary.setExecutionTimeMs(System.currentTimeMillis() - start);
+        if (summary.getFailed() > 0) {
+            log.warn("Файл {} обработан с ошибками: {}", source.name(), summary);
+        } else {
+            log.info("Файл {} обработан: {}", source.name(), summary);
         }
+        return summary;
     }
 
-    private <T> void processXmlFile(File xmlFile, String rootElement,
-                                    Function<XMLStreamReader, T> elementProcessor,
-                                    Consumer<List<T>> batchSaver) {
-        try (FileInputStream fis = new FileInputStream(xmlFile)) {
-            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(fis);
-            List<T> batch = new ArrayList<>(BATCH_SIZE);
+    /**
+     * Размечает файл с контрольной точкой по элементам; null - точки не ведутся.
+     */
+    private ImportCheckpointService.Tracker track(XmlSource source, String rootElement) {
+        if (source.checkpoint() == null) {
+            return null;
+        }
+        try {
+            XmlPartitioner.Layout layout = XmlPartitioner.scan(source.file().toPath(), rootElement);
+            if (layout == null) {
+                log.warn("Файл {} нельзя разметить по элементам {}, контрольные точки не ведутся",
+                        source.name(), rootElement);
+                return null;
+            }
+            return importCheckpointService.track(source.checkpoint(), layout);
+        } catch (IOException e) {
+            log.warn("Не удалось разметить файл {}, контрольные точки не ведутся: {}", source.name(), e.getMessage());
+            return null;
+        }
+    }
 
-            while (reader.hasNext()) {
-                int event = reader.next();
+    /**
+     * На сколько диапазонов делить файл: больше одного - только при параллельном чтении большого файла.
+     * Диапазоны мелкие, примерно по queue-capacity элементов: конвейер держит в памяти лишь несколько
+     * диапазонов впереди записываемого, и мелкие диапазоны не дают потокам простаивать.
+     */
+    private int partitionCount(File xmlFile, XmlPartitioner.Layout layout, long fromOrdinal) {
+        ImportXmlProperties.Processing.Pipeline pipeline = properties.getProcessing().getPipeline();
+        if (!isParallel(xmlFile)) {
+            return 1;
+        }
+        long remaining = layout.count() - fromOrdinal;
+        long perPartition = Math.max(1, pipeline.getQueueCapacity());
+        return (int) Math.min(Integer.MAX_VALUE,
+                Math.max(pipeline.getParserThreads(), (remaining + perPartition - 1) / perPartition));
+    }
 
-                if (event == XMLStreamReader.START_ELEMENT && rootElement.equals(reader.getLocalName())) {
-                    T element = elementProcessor.apply(reader);
-                    if (element != null) {
-                        batch.add(element);
+    private boolean isParallel(File xmlFile) {
+        ImportXmlProperties.Processing.Pipeline pipeline = properties.getProcessing().getPipeline();
+        return pipeline.isEnabled() && pipeline.getParserThreads() >= 2
+                && xmlFile.length() >= pipeline.getPartitionThresholdMb() * 1024L * 1024L;
+    }
 
-                        if (batch.size() >= BATCH_SIZE) {
-                            batchSaver.accept(batch);
-                            batch.clear();
-                        }
+    /**
+     * Делит большой файл на диапазоны для параллельного чтения; пустой список - читать целиком.
+     */
+    private List<XmlPartitioner.Partition> partition(File xmlFile, String rootElement) {
+        if (!isParallel(xmlFile)) {
+            return List.of();
+        }
+        try {
+            long start = System.currentTimeMillis();
+            XmlPartitioner.Layout layout = XmlPartitioner.scan(xmlFile.toPath(), rootElement);
+            List<XmlPartitioner.Partition> partitions = layout != null
+                    ? layout.partitions(0, partitionCount(xmlFile, layout, 0)) : List.of();
+            if (partitions.isEmpty()) {
+                log.info("Файл {} нельзя разделить по элементам {}, читается целиком", xmlFile.getName(), rootElement);
+            } else {
+                log.info("Файл {} разделен на {} диапазонов за {} мс",
+                        xmlFile.getName(), partitions.size(), System.currentTimeMillis() - start);
+            }
+            return partitions;
+        } catch (IOException e) {
+            log.warn("Не удалось разделить файл {}, читается целиком: {}", xmlFile.getName(), e.getMessage());
+            return List.of();
+        }
+    }
+
+    private <T> void processSequentially(InputStream in, Set<String> rootElements, long firstOrdinal,
+                                         ImportSummary summary, int limit,
+                                         Function<XMLStreamReader, T> elementProcessor,
+                                         Consumer<ImportPipeline.Chunk<T>> chunkWriter) throws XMLStreamException {
+        int chunkSize = properties.getProcessing().getChunkSize();
+        XMLStreamReader reader = xmlReaderFactory.createReader(in);
+        List<T> batch = new ArrayList<>(chunkSize);
+        int accepted = 0;
+        long ordinal = firstOrdinal;
+        long batchStart = firstOrdinal;
+
+        while (reader.hasNext() && (limit <= 0 || accepted < limit)) {
+            int event = reader.next();
+
+            if (event == XMLStreamReader.START_ELEMENT && rootElements.contains(reader.getLocalName())) {
+                summary.incrementTotal();
+                T element = elementProcessor.apply(reader);
+                ordinal++;
+                if (element != null) {
+                    accepted++;
+                    batch.add(element);
+
+                    if (batch.size() >= chunkSize) {
+                        chunkWriter.accept(new ImportPipeline.Chunk<>(batch, batchStart, ordinal));
+                        batch = new ArrayList<>(chunkSize);
+                        batchStart = ordinal;
                     }
                 }
             }
+        }
 
-            if (!batch.isEmpty()) {
-                batchSaver.accept(batch);
-            }
+        if (!batch.isEmpty()) {
+            chunkWriter.accept(new ImportPipeline.Chunk<>(batch, batchStart, ordinal));
+        }
 
-            reader.close();
+        reader.close();
+    }
+
+    private <T> void saveChunk(ImportPipeline.Chunk<T> chunk, Consumer<List<T>> batchSaver, String sourceName,
+                               ImportSummary summary, ImportCheckpointService.Tracker tracker) {
+        List<T> items = chunk.items();
+        if (summary.isCancelled()) {
+            throw new CancellationException("Импорт " + sourceName + " отменен");
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                batchSaver.accept(items);
+                entityManager.flush();
+                entityManager.clear();
+            });
+            summary.chunkSaved(items.size());
         } catch (Exception e) {
-            log.error("Ошибка при обработке файла: {}", xmlFile.getName(), e);
-            throw new RuntimeException("Не удалось обработать файл: " + xmlFile.getName(), e);
+            log.error("Ошибка при сохранении порции {} ({} элементов) из файла {}",
+                    summary.getChunks() + 1, items.size(), sourceName, e);
+            summary.chunkFailed(items.size());
+            return;
+        }
+        if (tracker != null) {
+            tracker.committed(chunk.from(), chunk.to());
         }
     }
 
-    private Product processStockElement(XMLStreamReader reader) {
+    /**
+     * Разбирает категорию верхнего уровня вместе со всеми вложенными (children) и возвращает
+     * их плоским списком в прямом порядке обхода. Каждой категории проставляются уровень,
+     * материализованный путь и интервал вложенного множества [lft, rgt], поэтому поддерево
+     * потом выбирается одним диапазоном по индексу. Интервалы разных корней не пересекаются:
+     * каждый корень резервирует в счетчике импорта блок по размеру своего поддерева.
+     */
+    private List<Category> processCategoryTree(XMLStreamReader reader, ReferenceIndex index, AtomicLong nestedSet,
+                                               ImportSummary summary) {
         try {
-            String productId = reader.getAttributeValue(null, "product_id");
-            String quantityStr = reader.getAttributeValue(null, "amount");
-            String priceStr = reader.getAttributeValue(null, "enduserprice");
-            String statusIdStr = reader.getAttributeValue(null, "status_id");
-            String statusName = reader.getAttributeValue(null, "status_name");
-
-            if (productId != null) {
-                return productRepository.findByProductId(productId)
-                        .map(product -> {
-                            if (quantityStr != null) {
-                                product.setQuantity(Integer.parseInt(quantityStr));
-                            }
-                            if (priceStr != null) {
-                                try {
-                                    product.setPrice(new java.math.BigDecimal(priceStr));
-                                } catch (Exception e) {
-                                    log.warn("Ошибка при парсинге цены для товара {}: {}", productId, priceStr);
-                                }
-                            }
-                            if (statusIdStr != null) {
-                                try {
-                                    product.setStatusId(Integer.parseInt(statusIdStr));
-                                } catch (Exception e) {
-                                    log.warn("Ошибка при парсинге статуса для товара {}: {}", productId, statusIdStr);
-                                }
-                            }
-                            if (statusName != null) {
-                                product.setStatusName(statusName);
-                            }
-                            product.setLastUpdated(LocalDateTime.now());
-                            return product;
-                        })
-                        .orElseGet(() -> {
-                            log.warn("Товар с id {} не найден при обновлении остатков", productId);
-                            return null;
-                        });
+            CategoryWalk walk = new CategoryWalk();
+            processCategoryElement(reader, index, null, walk);
+            if (walk.nodes.isEmpty()) {
+                return null;
             }
-            return null;
+            long offset = nestedSet.getAndAdd(walk.next);
+            for (Category category : walk.nodes) {
+                category.setLft(category.getLft() + offset);
+                category.setRgt(category.getRgt() + offset);
+            }
+            return walk.nodes;
         } catch (Exception e) {
-            log.error("Ошибка при обработке элемента остатка", e);
+            log.error("Ошибка при обработке элемента категории", e);
+            summary.incrementMalformed();
             return null;
         }
     }
 
-    private Category processCategoryElement(XMLStreamReader reader) {
-        try {
-            Category category = new Category();
-            category.setLastUpdated(LocalDateTime.now());
-            category.setIsActive(true);
-            category.setCategoryId(reader.getAttributeValue(null, "id"));
-            category.setParentId(reader.getAttributeValue(null, "parent_id"));
-
-            String levelStr = reader.getAttributeValue(null, "level");
-            if (org.springframework.util.StringUtils.hasText(levelStr)) {
-                category.setLevel(Integer.parseInt(levelStr));
-            }
+    private static final class CategoryWalk {
+        private final List<Category> nodes = new ArrayList<>();
+        private long next = 1;
+    }
 
-            String sortOrderStr = reader.getAttributeValue(null, "sort_order");
-            if (org.springframework.util.StringUtils.hasText(sortOrderStr)) {
-                category.setSortOrder(Integer.parseInt(sortOrderStr));
-            }
+    /**
+     * Невалидная категория пропускается вместе со своим поддеревом: без нее путь потомков не построить.
+     */
+    private void processCategoryElement(XMLStreamReader reader, ReferenceIndex index, Category parent,
+                                        CategoryWalk walk) throws Exception {
+        Category category = new Category();
+        category.setLastUpdated(LocalDateTime.now());
+        category.setIsActive(true);
+        category.setCategoryId(reader.getAttributeValue(null, "id"));
+        category.setParentId(parent != null ? parent.getCategoryId() : reader.getAttributeValue(null, "parent_id"));
+
+        String levelStr = reader.getAttributeValue(null, "level");
+        if (parent != null) {
+            category.setLevel(parent.getLevel() + 1);
+        } else {
+            category.setLevel(StringUtils.hasText(levelStr) ? Integer.parseInt(levelStr) : 1);
+        }
+        category.setPath((parent != null ? parent.getPath() : "/") + category.getCategoryId() + "/");
 
-            Set<Product> products = new java.util.HashSet<>();
-            Set<String> productsOnPage = new java.util.HashSet<>();
+        String sortOrderStr = reader.getAttributeValue(null, "sort_order");
+        if (org.springframework.util.StringUtils.hasText(sortOrderStr)) {
+            category.setSortOrder(Integer.parseInt(sortOrderStr));
+        }
 
-            while (reader.hasNext()) {
-                int event = reader.next();
-                if (event == XMLStreamReader.END_ELEMENT && "category".equals(reader.getLocalName())) {
-                    break;
-                }
-                if (event == XMLStreamReader.START_ELEMENT) {
-                    String elementName = reader.getLocalName();
-                    switch (elementName) {
-                        case "name":
-                            category.setName(readElementAsXml(reader));
-                            break;
-                        case "description":
-                            category.setDescription(readElementAsXml(reader));
-                            break;
-                        case "uri":
-                            category.setUri(reader.getElementText());
-                            break;
-                        case "image":
-                            category.setImage(reader.getElementText());
-                            break;
-                        case "product":
-                            String productId = reader.getAttributeValue(null, "id");
-                            if (org.springframework.util.StringUtils.hasText(productId)) {
-                                productRepository.findByProductId(productId)
-                                    .ifPresentOrElse(products::add,
-                                        () -> log.warn("Продукт с id {} не найден для категории {}", productId, category.getCategoryId()));
-                            }
-                            skipElement(reader, "product");
-                            break;
-                        case "productsOnPage":
-                            while (reader.hasNext()) {
-                                int prodEvent = reader.next();
-                                if (prodEvent == XMLStreamReader.END_ELEMENT && "productsOnPage".equals(reader.getLocalName())) break;
-                                if (prodEvent == XMLStreamReader.START_ELEMENT && "product".equals(reader.getLocalName())) {
-                                    String prodId = reader.getAttributeValue(null, "id");
-                                    if (org.springframework.util.StringUtils.hasText(prodId)) {
-                                        productsOnPage.add(prodId);
-                                    }
-                                    skipElement(reader, "product");
+        int position = walk.nodes.size();
+        walk.nodes.add(category);
+        category.setLft(walk.next++);
+
+        Set<Product> products = new java.util.HashSet<>();
+        Set<String> productsOnPage = new java.util.HashSet<>();
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamReader.END_ELEMENT && "category".equals(reader.getLocalName())) {
+                break;
+            }
+            if (event == XMLStreamReader.START_ELEMENT) {
+                String elementName = reader.getLocalName();
+                switch (elementName) {
+                    case "name":
+                        category.setName(XmlText.read(reader));
+                        break;
+                    case "description":
+                        category.setDescription(XmlText.read(reader));
+                        break;
+                    case "uri":
+                        category.setUri(reader.getElementText());
+                        break;
+                    case "image":
+                        category.setImage(reader.getElementText());
+                        break;
+                    case "product":
+                        String productId = reader.getAttributeValue(null, "id");
+                        if (org.springframework.util.StringUtils.hasText(productId)) {
+                            index.findProduct(productId)
+                                .ifPresentOrElse(products::add,
+                                    () -> log.warn("Продукт с id {} не найден для категории {}", productId, category.getCategoryId()));
+                        }
+                        skipElement(reader, "product");
+                        break;
+                    case "productsOnPage":
+                        while (reader.hasNext()) {
+                            int prodEvent = reader.next();
+                            if (prodEvent == XMLStreamReader.END_ELEMENT && "productsOnPage".equals(reader.getLocalName())) break;
+                            if (prodEvent == XMLStreamReader.START_ELEMENT && "product".equals(reader.getLocalName())) {
+                                String prodId = reader.getAttributeValue(null, "id");
+                                if (org.springframework.util.StringUtils.hasText(prodId)) {
+                                    productsOnPage.add(prodId);
                                 }
+                                skipElement(reader, "product");
                             }
-                            break;
-                        case "children":
-                            while (reader.hasNext()) {
-                                int childEvent = reader.next();
-                                if (childEvent == XMLStreamReader.END_ELEMENT && "children".equals(reader.getLocalName())) break;
-                                if (childEvent == XMLStreamReader.START_ELEMENT && "category".equals(reader.getLocalName())) {
-                                    Category child = processCategoryElement(reader);
-                                    if (child != null) {
-                                        child.setParentId(category.getCategoryId());
-                                    }
-                                }
+                        }
+                        break;
+                    case "children":
+                        while (reader.hasNext()) {
+                            int childEvent = reader.next();
+                            if (childEvent == XMLStreamReader.END_ELEMENT && "children".equals(reader.getLocalName())) break;
+                            if (childEvent == XMLStreamReader.START_ELEMENT && "category".equals(reader.getLocalName())) {
+                                processCategoryElement(reader, index, category, walk);
                             }
-                            break;
-                    }
+                        }
+                        break;
                 }
             }
-            category.setProducts(products);
-            category.setProductsOnPage(productsOnPage);
-            return validateCategory(category) ? category : null;
-        } catch (Exception e) {
-            log.error("Ошибка при обработке элемента категории", e);
-            return null;
+        }
+        category.setRgt(walk.next++);
+        category.setProducts(products);
+        category.setProductsOnPage(productsOnPage);
+        if (!validateCategory(category)) {
+            walk.nodes.subList(position, walk.nodes.size()).clear();
         }
     }
 
-    private Filter processFilterElement(XMLStreamReader reader) {
+    private Filter processFilterElement(XMLStreamReader reader, ReferenceIndex index, ImportSummary summary) {
         try {
             Filter filter = new Filter();
             filter.setLastUpdated(LocalDateTime.now());
@@ -510,25 +653,25 @@ public class XmlProcessingService {
                     String elementName = reader.getLocalName();
                     switch (elementName) {
                         case "name":
-                            filter.setName(readElementAsXml(reader));
+                            filter.setName(XmlText.read(reader));
                             break;
                         case "filter_type_name":
-                            filter.setFilterTypeName(readElementAsXml(reader));
+                            filter.setFilterTypeName(XmlText.read(reader));
                             break;
                         case "filter_name":
-                            filter.setFilterName(readElementAsXml(reader));
+                            filter.setFilterName(XmlText.read(reader));
                             break;
                         case "product":
                             String productId = reader.getAttributeValue(null, "id");
                             if (org.springframework.util.StringUtils.hasText(productId)) {
-                                productRepository.findByProductId(productId)
+                                index.findProduct(productId)
                                     .ifPresentOrElse(products::add,
                                         () -> log.warn("Продукт с id {} не найден для фильтра {}", productId, filter.getFilterId()));
                             }
                             skipElement(reader, "product");
                             break;
                         case "filter":
-                            Filter child = processFilterElement(reader);
+                            Filter child = processFilterElement(reader, index, summary);
                             if (child != null) {
                                 children.add(child);
                             }
@@ -541,11 +684,12 @@ public class XmlProcessingService {
             return validateFilter(filter) ? filter : null;
         } catch (Exception e) {
             log.error("Ошибка при обработке элемента фильтра", e);
+            summary.incrementMalformed();
             return null;
         }
     }
 
-    private Complect processComplectElement(XMLStreamReader reader) {
+    private Complect processComplectElement(XMLStreamReader reader, ReferenceIndex index, ImportSummary summary) {
         try {
             Complect complect = new Complect();
             complect.setLastUpdated(LocalDateTime.now());
@@ -560,8 +704,8 @@ public class XmlProcessingService {
                 if (event == XMLStreamReader.START_ELEMENT) {
                     String el = reader.getLocalName();
                     switch (el) {
-                        case "name": complect.setName(readElementAsXml(reader)); break;
-                        case "description": complect.setDescription(readElementAsXml(reader)); break;
+                        case "name": complect.setName(XmlText.read(reader)); break;
+                        case "description": complect.setDescription(XmlText.read(reader)); break;
                         case "tocomplect": complect.setTocomplect(Boolean.valueOf(reader.getElementText())); break;
                         case "complectprice": complect.setComplectprice(new java.math.BigDecimal(reader.getElementText())); break;
                         case "parts":
@@ -588,7 +732,7 @@ public class XmlProcessingService {
                                                     part.setCode(reader.getElementText());
                                                     break;
                                                 case "name":
-                                                    part.setName(readElementAsXml(reader));
+                                                    part.setName(XmlText.read(reader));
                                                     break;
                                                 case "small_image":
                                                     part.setSmallImage(reader.getElementText());
@@ -604,10 +748,10 @@ public class XmlProcessingService {
                                                             String printEl = reader.getLocalName();
                                                             switch (printEl) {
                                                                 case "name":
-                                                                    part.setPrintName(readElementAsXml(reader));
+                                                                    part.setPrintName(XmlText.read(reader));
                                                                     break;
                                                                 case "description":
-                                                                    part.setPrintDescription(readElementAsXml(reader));
+                                                                    part.setPrintDescription(XmlText.read(reader));
                                                                     break;
                                                             }
                                                         }
@@ -618,7 +762,7 @@ public class XmlProcessingService {
                                     }
                                     if (part.getPublished() != null && part.getPublished() && partProductId != null) {
                                         // published=true: связываем с продуктом
-                                        Product product = productRepository.findByProductId(partProductId).orElse(null);
+                                        Product product = index.findProduct(partProductId).orElse(null);
                                         if (product != null) {
                                             part.setProduct(product);
                                             products.add(product);
@@ -640,7 +784,7 @@ public class XmlProcessingService {
                                     String prodId = reader.getAttributeValue(null, "id");
                                     String qtyStr = reader.getAttributeValue(null, "quantity");
                                     if (prodId != null) {
-                                        productRepository.findByProductId(prodId).ifPresentOrElse(product -> {
+                                        index.findProduct(prodId).ifPresentOrElse(product -> {
                                             products.add(product);
                                             if (qtyStr != null) {
                                                 try {
@@ -663,16 +807,11 @@ public class XmlProcessingService {
             return validateComplect(complect) ? complect : null;
         } catch (Exception e) {
             log.error("Ошибка при обработке элемента комплектов", e);
+            summary.incrementMalformed();
             return null;
         }
     }
 
-    private boolean validateProduct(Product product) {
-        return StringUtils.hasText(product.getProductId()) &&
-                StringUtils.hasText(product.getName()) &&
-                StringUtils.hasText(product.getArticle());
-    }
-
     private boolean validateCategory(Category category) {
         return StringUtils.hasText(category.getCategoryId()) &&
                 StringUtils.hasText(category.getName());
@@ -689,14 +828,6 @@ public class XmlProcessingService {
                 StringUtils.hasText(complect.getName());
     }
 
-    private Integer parseIntSafe(String value) {
-        try {
-            return value != null && !value.isEmpty() ? Integer.valueOf(value) : null;
-        } catch (Exception e) {
-            return null;
-        }
-    }
-
     private void skipElement(XMLStreamReader reader, String elementName) throws Exception {
         int depth = 1;
         while (reader.hasNext() && depth > 0) {
@@ -706,268 +837,41 @@ public class XmlProcessingService {
         }
     }
 
-    // Универсальный метод для чтения содержимого элемента с вложенными тегами
-    private String readElementAsXml(XMLStreamReader reader) throws XMLStreamException {
-        StringWriter writer = new StringWriter();
-        int depth = 0;
-        while (reader.hasNext()) {
-            int event = reader.next();
-            if (event == XMLStreamConstants.START_ELEMENT) {
-                writer.append("<").append(reader.getLocalName()).append(">");
-                depth++;
-            } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
-                writer.append(reader.getText());
-            } else if (event == XMLStreamConstants.END_ELEMENT) {
-                writer.append("</").append(reader.getLocalName()).append(">");
-                if (depth == 0) break;
-                depth--;
+    /**
+     * Парсит и сохраняет только первые n продуктов из XML-файла
+     */
+    public ImportSummary processFirstNProductsXml(File xmlFile, int n) {
+        ReferenceIndex index = referenceIndexService.load();
+        ImportSummary summary = new ImportSummary("products");
+        return processXml(XmlSource.of(xmlFile), Set.of("product"), summary, n, reader -> {
+            Product product = processProductElement(reader, index, summary);
+            if (product != null) {
+                product.setContentHash(ProductFingerprint.of(product));
             }
-        }
-        return writer.toString();
+            return product;
+        }, products -> catalogBulkWriter.writeProducts(products, index));
     }
 
     /**
-     * Парсит и сохраняет только первые n продуктов из XML-файла
+     * Источник XML: файл (его можно разделить на диапазоны) или уже открытый поток.
      */
-    @Transactional
-    public void processFirstNProductsXml(File xmlFile, int n) {
-        try (FileInputStream fis = new FileInputStream(xmlFile)) {
-            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(fis);
-            List<Product> products = new ArrayList<>();
-            int count = 0;
-            while (reader.hasNext() && count < n) {
-                int event = reader.next();
-                if (event == XMLStreamReader.START_ELEMENT && "product".equals(reader.getLocalName())) {
-                    Product product = new Product();
-                    product.setLastUpdated(LocalDateTime.now());
-                    product.setIsActive(true);
-                    while (reader.hasNext()) {
-                        int innerEvent = reader.next();
-                        if (innerEvent == XMLStreamReader.END_ELEMENT && "product".equals(reader.getLocalName())) break;
-                        if (innerEvent == XMLStreamReader.START_ELEMENT) {
-                            String el = reader.getLocalName();
-                            switch (el) {
-                                case "product_id": product.setProductId(reader.getElementText()); break;
-                                case "group": product.setGroup(readElementAsXml(reader)); break;
-                                case "code": product.setCode(reader.getElementText()); break;
-                                case "name": product.setName(readElementAsXml(reader)); break;
-                                case "product_size": product.setProductSize(readElementAsXml(reader)); break;
-                                case "matherial": product.setMatherial(readElementAsXml(reader)); break;
-                                case "alert": product.setAlert(readElementAsXml(reader)); break;
-                                case "small_image": product.setSmallImage(reader.getElementText()); break;
-                                case "super_big_image": product.setSuperBigImage(reader.getElementText()); break;
-                                case "content": product.setContent(readElementAsXml(reader)); break;
-                                case "status": product.setStatusId(Integer.valueOf(reader.getAttributeValue(null, "id")));
-                                    product.setStatusName(readElementAsXml(reader)); break;
-                                case "brand": product.setBrand(readElementAsXml(reader)); break;
-                                case "barcode": product.setBarcode(reader.getElementText()); break;
-                                case "weight": product.setWeight(parseIntSafe(reader.getElementText())); break;
-                                case "volume": product.setVolume(parseIntSafe(reader.getElementText())); break;
-                                case "pack":
-                                    Product.Pack pack = new Product.Pack();
-                                    while (reader.hasNext()) {
-                                        int packEvent = reader.next();
-                                        if (packEvent == XMLStreamReader.END_ELEMENT && "pack".equals(reader.getLocalName())) break;
-                                        if (packEvent == XMLStreamReader.START_ELEMENT) {
-                                            String packEl = reader.getLocalName();
-                                            String packText = reader.getElementText();
-                                            switch (packEl) {
-                                                case "amount": pack.setAmount(parseIntSafe(packText)); break;
-                                                case "weight": pack.setWeight(parseIntSafe(packText)); break;
-                                                case "volume": pack.setVolume(parseIntSafe(packText)); break;
-                                                case "sizex": pack.setSizex(parseIntSafe(packText)); break;
-                                                case "sizey": pack.setSizey(parseIntSafe(packText)); break;
-                                                case "sizez": pack.setSizez(parseIntSafe(packText)); break;
-                                                case "minpackamount": pack.setMinpackamount(parseIntSafe(packText)); break;
-                                            }
-                                        }
-                                    }
-                                    product.setPack(pack);
-                                    break;
-                                case "print":
-                                    Product.Print print = new Product.Print();
-                                    while (reader.hasNext()) {
-                                        int printEvent = reader.next();
-                                        if (printEvent == XMLStreamReader.END_ELEMENT && "print".equals(reader.getLocalName())) break;
-                                        if (printEvent == XMLStreamReader.START_ELEMENT) {
-                                            String printEl = reader.getLocalName();
-                                            switch (printEl) {
-                                                case "name": print.setName(readElementAsXml(reader)); break;
-                                                case "description": print.setDescription(readElementAsXml(reader)); break;
-                                            }
-                                        }
-                                    }
-                                    product.setPrint(print);
-                                    break;
-                                case "attachments":
-                                case "product_attachment":
-                                    Set<Product.ProductAttachment> attachments = new HashSet<>();
-                                    while (reader.hasNext()) {
-                                        int attEvent = reader.next();
-                                        if (attEvent == XMLStreamReader.END_ELEMENT && ("attachments".equals(reader.getLocalName()) || "product_attachment".equals(reader.getLocalName()))) break;
-                                        if (attEvent == XMLStreamReader.START_ELEMENT && "attachment".equals(reader.getLocalName())) {
-                                            Product.ProductAttachment attachment = new Product.ProductAttachment();
-                                            while (reader.hasNext()) {
-                                                int fieldEvent = reader.next();
-                                                if (fieldEvent == XMLStreamReader.END_ELEMENT && "attachment".equals(reader.getLocalName())) break;
-                                                if (fieldEvent == XMLStreamReader.START_ELEMENT) {
-                                                    String attEl = reader.getLocalName();
-                                                    String attText = reader.getElementText();
-                                                    switch (attEl) {
-                                                        case "meaning": attachment.setMeaning(readElementAsXml(reader)); break;
-                                                        case "file": attachment.setFile(attText); break;
-                                                        case "image": attachment.setImage(attText); break;
-                                                        case "name": attachment.setName(readElementAsXml(reader)); break;
-                                                        case "description": attachment.setDescription(readElementAsXml(reader)); break;
-                                                    }
-                                                }
-                                            }
-                                            attachments.add(attachment);
-                                        }
-                                    }
-                                    product.setAttachments(attachments);
-                                    break;
-                                case "subproducts":
-                                    Set<String> subproducts = new HashSet<>();
-                                    Set<Product> subproductEntities = new HashSet<>();
-                                    while (reader.hasNext()) {
-                                        int subEvent = reader.next();
-                                        if (subEvent == XMLStreamReader.END_ELEMENT && "subproducts".equals(reader.getLocalName())) break;
-                                        if (subEvent == XMLStreamReader.START_ELEMENT && "subproduct".equals(reader.getLocalName())) {
-                                            try {
-                                                String subId = reader.getAttributeValue(null, "product_id");
-                                                if (subId != null && !subId.isEmpty()) {
-                                                    subproducts.add(subId);
-                                                    productRepository.findByProductId(subId).ifPresent(subproductEntities::add);
-                                                }
-                                            } catch (Exception e) {
-                                                log.warn("Ошибка при парсинге subproduct: {}", e.getMessage());
-                                            }
-                                            skipElement(reader, "subproduct");
-                                        }
-                                    }
-                                    product.setSubproducts(subproducts);
-                                    product.setSubproductEntities(subproductEntities);
-                                    break;
-                                case "filters":
-                                    Set<Filter> productFilters = new HashSet<>();
-                                    while (reader.hasNext()) {
-                                        int filterEvent = reader.next();
-                                        if (filterEvent == XMLStreamReader.END_ELEMENT && "filters".equals(reader.getLocalName())) break;
-                                        if (filterEvent == XMLStreamReader.START_ELEMENT && "filter".equals(reader.getLocalName())) {
-                                            String filterId = reader.getAttributeValue(null, "id");
-                                            if (filterId != null) {
-                                                Filter filter = filterRepository.findByFilterId(filterId);
-                                                if (filter != null) {
-                                                    productFilters.add(filter);
-                                                } else {
-                                                    log.warn("Фильтр с id {} не найден для продукта {}", filterId, product.getProductId());
-                                                }
-                                            }
-                                            // пропустить содержимое filter
-                                            skipElement(reader, "filter");
-                                        }
-                                    }
-                                    product.setFilters(productFilters);
-                                    break;
-                                case "ondemand": product.setOndemand(Boolean.valueOf(reader.getElementText())); break;
-                                case "moq": product.setMoq(readElementAsXml(reader)); break;
-                                case "days": product.setDays(readElementAsXml(reader)); break;
-                                case "demandtype": product.setDemandtype(readElementAsXml(reader)); break;
-                                case "multiplicity": product.setMultiplicity(parseIntSafe(reader.getElementText())); break;
-                                case "price":
-                                    Set<Product.Price> prices = new HashSet<>();
-                                    while (reader.hasNext()) {
-                                        int priceEvent = reader.next();
-                                        if (priceEvent == XMLStreamReader.END_ELEMENT && "price".equals(reader.getLocalName())) break;
-                                        if (priceEvent == XMLStreamReader.START_ELEMENT && "item".equals(reader.getLocalName())) {
-                                            Product.Price price = new Product.Price();
-                                            while (reader.hasNext()) {
-                                                int fieldEvent = reader.next();
-                                                if (fieldEvent == XMLStreamReader.END_ELEMENT && "item".equals(reader.getLocalName())) break;
-                                                if (fieldEvent == XMLStreamReader.START_ELEMENT) {
-                                                    String priceEl = reader.getLocalName();
-                                                    String priceText = reader.getElementText();
-                                                    try {
-                                                        switch (priceEl) {
-                                                            case "value": price.setValue(new java.math.BigDecimal(priceText)); break;
-                                                            case "type": price.setType(priceText); break;
-                                                            case "currency": price.setCurrency(priceText); break;
-                                                            case "dateStart": price.setDateStart(priceText); break;
-                                                            case "dateEnd": price.setDateEnd(priceText); break;
-                                                        }
-                                                    } catch (Exception e) {
-                                                        log.warn("Ошибка при парсинге цены {}: {}", priceEl, priceText);
-                                                    }
-                                                }
-                                            }
-                                            prices.add(price);
-                                        }
-                                    }
-                                    product.setPrices(prices);
-                                    break;
-                                case "currency":
-                                    Set<Product.Currency> currencies = new HashSet<>();
-                                    while (reader.hasNext()) {
-                                        int currEvent = reader.next();
-                                        if (currEvent == XMLStreamReader.END_ELEMENT && "currency".equals(reader.getLocalName())) break;
-                                        if (currEvent == XMLStreamReader.START_ELEMENT && "item".equals(reader.getLocalName())) {
-                                            Product.Currency currency = new Product.Currency();
-                                            while (reader.hasNext()) {
-                                                int fieldEvent = reader.next();
-                                                if (fieldEvent == XMLStreamReader.END_ELEMENT && "item".equals(reader.getLocalName())) break;
-                                                if (fieldEvent == XMLStreamReader.START_ELEMENT) {
-                                                    String currEl = reader.getLocalName();
-                                                    String currText = reader.getElementText();
-                                                    try {
-                                                        switch (currEl) {
-                                                            case "code": currency.setCode(currText); break;
-                                                            case "rate": currency.setRate(new java.math.BigDecimal(currText)); break;
-                                                            case "date": currency.setDate(currText); break;
-                                                        }
-                                                    } catch (Exception e) {
-                                                        log.warn("Ошибка при парсинге валюты {}: {}", currEl, currText);
-                                                    }
-                                                }
-                                            }
-                                            currencies.add(currency);
-                                        }
-                                    }
-                                    product.setCurrencies(currencies);
-                                    break;
-                                case "alerts":
-                                    Set<String> alerts = new HashSet<>();
-                                    while (reader.hasNext()) {
-                                        int alertEvent = reader.next();
-                                        if (alertEvent == XMLStreamReader.END_ELEMENT && "alerts".equals(reader.getLocalName())) break;
-                                        if (alertEvent == XMLStreamReader.START_ELEMENT && "alert".equals(reader.getLocalName())) {
-                                            try {
-                                                String alertText = readElementAsXml(reader);
-                                                if (alertText != null && !alertText.isEmpty()) {
-                                                    alerts.add(alertText);
-                                                }
-                                            } catch (Exception e) {
-                                                log.warn("Ошибка при парсинге alert: {}", e.getMessage());
-                                            }
-                                        }
-                                    }
-                                    product.setAlerts(alerts);
-                                    break;
-                            }
-                        }
-                    }
-                    if (product.getName() == null || product.getName().trim().isEmpty()) {
-                        log.warn("Продукт без имени пропущен: {}", product.getProductId());
-                        continue;
-                    }
-                    products.add(product);
-                    count++;
-                }
-            }
-            productRepository.saveAll(products);
-        } catch (Exception e) {
-            log.error("Ошибка при обработке первых {} товаров из файла: {}", n, xmlFile.getName(), e);
-            throw new RuntimeException("Не удалось обработать файл товаров: " + xmlFile.getName(), e);
+    private record XmlSource(String name, File file, InputStream stream, ImportCheckpoint checkpoint) {
+
+        static XmlSource of(File file) {
+            return of(file, null);
+        }
+
+        static XmlSource of(File file, ImportCheckpoint checkpoint) {
+            return new XmlSource(file.getName(), file, null, checkpoint);
+        }
+
+        static XmlSource of(InputStream stream, String name) {
+            return new XmlSource(name, null, stream, null);
+        }
+
+        InputStream open() throws IOException {
+            // чужой поток закрывает тот, кто его открыл
+            return file != null ? new BufferedInputStream(new FileInputStream(file)) : CloseShieldInputStream.wrap(stream);
         }
     }
 }
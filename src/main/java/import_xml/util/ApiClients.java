@@ -0,0 +1,9 @@
+package import_xml.util;
+
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Раздельные HTTP-клиенты (свой пул соединений и настройки) для API поставщика и для OpenCart.
+ */
+public record ApiClients(RestTemplate supplier, RestTemplate openCart) {
+}
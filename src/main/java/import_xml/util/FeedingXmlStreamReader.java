@@ -0,0 +1,101 @@
+package import_xml.util;
+
+import com.fasterxml.aalto.AsyncByteArrayFeeder;
+import com.fasterxml.aalto.AsyncXMLStreamReader;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.util.StreamReaderDelegate;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Обычный (pull) XMLStreamReader поверх асинхронного парсера Aalto: байты подаются в парсер
+ * порциями по мере поступления из источника, и разбор идет, не дожидаясь остального потока.
+ * Когда парсеру не хватает данных (EVENT_INCOMPLETE), читается следующая доступная порция.
+ * Поэтому существующие процессоры элементов работают без изменений.
+ */
+public class FeedingXmlStreamReader extends StreamReaderDelegate {
+    private final AsyncXMLStreamReader<AsyncByteArrayFeeder> asyncReader;
+    private final InputStream source;
+    private final byte[] buffer;
+
+    public FeedingXmlStreamReader(AsyncXMLStreamReader<AsyncByteArrayFeeder> asyncReader, InputStream source,
+                                  int bufferSize) {
+        super(asyncReader);
+        this.asyncReader = asyncReader;
+        this.source = source;
+        this.buffer = new byte[bufferSize];
+    }
+
+    @Override
+    public int next() throws XMLStreamException {
+        int event = asyncReader.next();
+        while (event == AsyncXMLStreamReader.EVENT_INCOMPLETE) {
+            feed();
+            event = asyncReader.next();
+        }
+        return event;
+    }
+
+    @Override
+    public boolean hasNext() throws XMLStreamException {
+        return asyncReader.getEventType() != XMLStreamConstants.END_DOCUMENT;
+    }
+
+    @Override
+    public int nextTag() throws XMLStreamException {
+        int event = next();
+        while (event == XMLStreamConstants.CHARACTERS && isWhiteSpace()
+                || event == XMLStreamConstants.SPACE || event == XMLStreamConstants.COMMENT
+                || event == XMLStreamConstants.PROCESSING_INSTRUCTION) {
+            event = next();
+        }
+        if (event != XMLStreamConstants.START_ELEMENT && event != XMLStreamConstants.END_ELEMENT) {
+            throw new XMLStreamException("Ожидался тег, получено событие " + event, getLocation());
+        }
+        return event;
+    }
+
+    @Override
+    public String getElementText() throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        while (true) {
+            int event = next();
+            switch (event) {
+                case XMLStreamConstants.END_ELEMENT:
+                    return text.toString();
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    text.append(getText());
+                    break;
+                case XMLStreamConstants.COMMENT:
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    break;
+                default:
+                    throw new XMLStreamException("Элемент содержит вложенную разметку", getLocation());
+            }
+        }
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+        asyncReader.close();
+    }
+
+    private void feed() throws XMLStreamException {
+        AsyncByteArrayFeeder feeder = asyncReader.getInputFeeder();
+        try {
+            int read = source.read(buffer);
+            if (read < 0) {
+                feeder.endOfInput();
+            } else {
+                feeder.feedInput(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new XMLStreamException("Ошибка чтения потока XML", e);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package import_xml.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Компактный индекс "натуральный id из фида -> первичный ключ в БД".
+ * Числовые id (а у поставщика они почти всегда числовые) хранятся в
+ * хеш-таблице с открытой адресацией на примитивных массивах long[],
+ * без боксинга и без объектов-узлов; прочие id - в обычной HashMap.
+ */
+public final class NaturalIdIndex {
+    private static final long FREE = Long.MIN_VALUE;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int numericSize;
+    private final Map<String, Long> other = new HashMap<>();
+
+    public NaturalIdIndex(int expectedSize) {
+        int capacity = tableSizeFor((int) (Math.max(expectedSize, 16) / LOAD_FACTOR) + 1);
+        allocate(capacity);
+    }
+
+    /**
+     * Возвращает первичный ключ для натурального id или null, если id не известен.
+     */
+    public Long get(String naturalId) {
+        if (naturalId == null) {
+            return null;
+        }
+        long key = parseKey(naturalId);
+        if (key == FREE) {
+            return other.get(naturalId);
+        }
+        int slot = slot(key);
+        while (keys[slot] != FREE) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    public boolean contains(String naturalId) {
+        return get(naturalId) != null;
+    }
+
+    public void put(String naturalId, long pk) {
+        if (naturalId == null) {
+            return;
+        }
+        long key = parseKey(naturalId);
+        if (key == FREE) {
+            other.put(naturalId, pk);
+            return;
+        }
+        if (numericSize + 1 > keys.length * LOAD_FACTOR) {
+            rehash(keys.length << 1);
+        }
+        insert(key, pk);
+    }
+
+    public int size() {
+        return numericSize + other.size();
+    }
+
+    private void insert(long key, long pk) {
+        int slot = slot(key);
+        while (keys[slot] != FREE) {
+            if (keys[slot] == key) {
+                values[slot] = pk;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = pk;
+        numericSize++;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                insert(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        Arrays.fill(keys, FREE);
+        mask = capacity - 1;
+        numericSize = 0;
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * Разбирает id как неотрицательное десятичное число. Строки с ведущими нулями,
+     * знаками и прочими символами уходят в общую карту, чтобы "007" и "7" не склеились.
+     */
+    private static long parseKey(String id) {
+        int length = id.length();
+        if (length == 0 || length > 18 || (length > 1 && id.charAt(0) == '0')) {
+            return FREE;
+        }
+        long result = 0;
+        for (int i = 0; i < length; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return FREE;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static int tableSizeFor(int n) {
+        int highest = Integer.highestOneBit(Math.max(n - 1, 1)) << 1;
+        return Math.max(highest, 16);
+    }
+}
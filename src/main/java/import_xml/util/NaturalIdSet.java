@@ -0,0 +1,90 @@
+package import_xml.util;
+
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Множество натуральных id из фида. Числовые id до 2^32 - 1 хранятся в сжатом битовом
+ * множестве (RoaringBitmap), прочие - в обычном HashSet. Разность двух множеств считается
+ * по контейнерам битмапа, без перебора строк. Добавление безопасно из нескольких потоков.
+ */
+public final class NaturalIdSet {
+    private static final long MAX_NUMERIC = 0xFFFF_FFFFL;
+
+    private final RoaringBitmap numeric;
+    private final Set<String> other;
+
+    public NaturalIdSet() {
+        this(new RoaringBitmap(), new HashSet<>());
+    }
+
+    private NaturalIdSet(RoaringBitmap numeric, Set<String> other) {
+        this.numeric = numeric;
+        this.other = other;
+    }
+
+    public synchronized void add(String naturalId) {
+        if (naturalId == null) {
+            return;
+        }
+        long key = parseKey(naturalId);
+        if (key < 0) {
+            other.add(naturalId);
+        } else {
+            numeric.add((int) key);
+        }
+    }
+
+    /**
+     * Id этого множества, которых нет в other.
+     */
+    public synchronized NaturalIdSet minus(NaturalIdSet other) {
+        synchronized (other) {
+            Set<String> rest = new HashSet<>(this.other);
+            rest.removeAll(other.other);
+            return new NaturalIdSet(RoaringBitmap.andNot(numeric, other.numeric), rest);
+        }
+    }
+
+    public synchronized int size() {
+        return numeric.getCardinality() + other.size();
+    }
+
+    public synchronized List<String> toList() {
+        List<String> result = new ArrayList<>(size());
+        numeric.forEach((int key) -> result.add(Integer.toUnsignedString(key)));
+        result.addAll(other);
+        return result;
+    }
+
+    /**
+     * Занимаемая память, байт (для журнала).
+     */
+    public synchronized long sizeInBytes() {
+        return numeric.getLongSizeInBytes();
+    }
+
+    /**
+     * Разбирает id как неотрицательное десятичное число без ведущих нулей, как {@link NaturalIdIndex};
+     * -1 - id не числовой или не помещается в 32 бита без знака.
+     */
+    private static long parseKey(String id) {
+        int length = id.length();
+        if (length == 0 || length > 10 || (length > 1 && id.charAt(0) == '0')) {
+            return -1;
+        }
+        long result = 0;
+        for (int i = 0; i < length; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result <= MAX_NUMERIC ? result : -1;
+    }
+}
@@ -0,0 +1,7 @@
+package import_xml.util;
+
+/**
+ * Раздельные ограничители запросов к API поставщика и к OpenCart.
+ */
+public record RateLimiters(TokenBucket supplier, TokenBucket openCart) {
+}
@@ -0,0 +1,216 @@
+package import_xml.util;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Тайм-аут простоя для JDK HttpClient - аналог SO_TIMEOUT: ошибка, только если за timeout
+ * не пришло ни одного байта (заголовков ответа или очередного куска тела). Read timeout
+ * JdkClientHttpRequestFactory - это срок всего ответа, он обрывал бы долгую загрузку большого
+ * файла, даже когда данные идут. Ожидание заголовков прерывается прерыванием потока,
+ * зависшее чтение тела - закрытием потока ответа; в обоих случаях бросается
+ * {@link SocketTimeoutException}, и FeedDownloader докачивает файл как после обрыва.
+ */
+public class ReadIdleTimeout implements ClientHttpRequestInterceptor {
+    private static final int WAITING = 0;
+    private static final int DONE = 1;
+    private static final int TIMED_OUT = 2;
+
+    private final long timeoutNanos;
+    private final ScheduledExecutorService watchdog;
+
+    public ReadIdleTimeout(Duration timeout) {
+        this.timeoutNanos = timeout.toNanos();
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("http-read-timeout-");
+        threadFactory.setDaemon(true);
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, threadFactory);
+        executor.setRemoveOnCancelPolicy(true);
+        this.watchdog = executor;
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+            throws IOException {
+        AtomicInteger state = new AtomicInteger(WAITING);
+        Thread caller = Thread.currentThread();
+        ScheduledFuture<?> headersTimeout = watchdog.schedule(() -> {
+            if (state.compareAndSet(WAITING, TIMED_OUT)) {
+                caller.interrupt();
+            }
+        }, timeoutNanos, TimeUnit.NANOSECONDS);
+        ClientHttpResponse response;
+        try {
+            response = execution.execute(request, body);
+        } catch (IOException | RuntimeException e) {
+            headersTimeout.cancel(false);
+            if (state.get() == TIMED_OUT) {
+                Thread.interrupted(); // прерывание было нашим, а не отменой вызывающего
+                throw timeout("Нет ответа от " + request.getURI(), e);
+            }
+            throw e;
+        }
+        headersTimeout.cancel(false);
+        if (!state.compareAndSet(WAITING, DONE)) {
+            Thread.interrupted();
+            response.close();
+            throw timeout("Нет ответа от " + request.getURI(), null);
+        }
+        return new IdleTimeoutResponse(response);
+    }
+
+    private SocketTimeoutException timeout(String message, Throwable cause) {
+        SocketTimeoutException exception = new SocketTimeoutException(
+                message + " за " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " мс");
+        if (cause != null) {
+            exception.initCause(cause);
+        }
+        return exception;
+    }
+
+    private final class IdleTimeoutResponse implements ClientHttpResponse {
+        private final ClientHttpResponse delegate;
+        private IdleTimeoutStream body;
+
+        IdleTimeoutResponse(ClientHttpResponse delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return delegate.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return delegate.getStatusText();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return delegate.getHeaders();
+        }
+
+        @Override
+        public synchronized InputStream getBody() throws IOException {
+            if (body == null) {
+                body = new IdleTimeoutStream(delegate.getBody());
+            }
+            return body;
+        }
+
+        @Override
+        public void close() {
+            try {
+                delegate.close();
+            } finally {
+                synchronized (this) {
+                    if (body != null) {
+                        body.stopWatching();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Поток тела, который закрывается сторожем, если текущее чтение ждет дольше тайм-аута.
+     */
+    private final class IdleTimeoutStream extends FilterInputStream {
+        private final ScheduledFuture<?> check;
+        private volatile long readStartedAt; // 0 - чтение не идет
+        private volatile boolean timedOut;
+
+        IdleTimeoutStream(InputStream in) {
+            super(in);
+            long period = Math.max(TimeUnit.MILLISECONDS.toNanos(10), timeoutNanos / 4);
+            this.check = watchdog.scheduleWithFixedDelay(this::checkIdle, period, period, TimeUnit.NANOSECONDS);
+        }
+
+        private void checkIdle() {
+            long started = readStartedAt;
+            if (started != 0 && System.nanoTime() - started > timeoutNanos) {
+                timedOut = true;
+                stopWatching();
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // читатель получит тайм-аут и без этого
+                }
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            begin();
+            int result;
+            try {
+                result = super.read();
+            } catch (IOException e) {
+                throw failed(e);
+            }
+            return end(result);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            begin();
+            int result;
+            try {
+                result = super.read(b, off, len);
+            } catch (IOException e) {
+                throw failed(e);
+            }
+            return end(result);
+        }
+
+        private void begin() throws IOException {
+            if (timedOut) {
+                throw timeout("Нет данных ответа", null);
+            }
+            readStartedAt = System.nanoTime();
+        }
+
+        /**
+         * После закрытия сторожем поток может вернуть и конец данных - обрезанное тело
+         * не должно сойти за полное.
+         */
+        private int end(int result) throws IOException {
+            readStartedAt = 0;
+            if (timedOut) {
+                throw timeout("Нет данных ответа", null);
+            }
+            return result;
+        }
+
+        private IOException failed(IOException error) {
+            readStartedAt = 0;
+            return timedOut ? timeout("Нет данных ответа", error) : error;
+        }
+
+        void stopWatching() {
+            check.cancel(false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            stopWatching();
+            super.close();
+        }
+    }
+}
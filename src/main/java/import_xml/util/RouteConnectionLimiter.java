@@ -0,0 +1,130 @@
+package import_xml.util;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ограничивает число одновременных обменов с одним маршрутом (схема + хост + порт) и ведет
+ * статистику пула. JDK HttpClient сам держит keep-alive соединения (и мультиплексирует их
+ * по HTTP/2), но не ограничивает их число на маршрут. Соединение считается занятым, пока
+ * ответ не закрыт.
+ */
+public class RouteConnectionLimiter implements ClientHttpRequestInterceptor {
+    private final int maxPerRoute;
+    private final Map<String, Semaphore> routes = new ConcurrentHashMap<>();
+    private final AtomicInteger leased = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final LongAdder requests = new LongAdder();
+
+    public RouteConnectionLimiter(int maxPerRoute) {
+        this.maxPerRoute = Math.max(1, maxPerRoute);
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+            throws IOException {
+        Semaphore route = routes.computeIfAbsent(routeOf(request.getURI()), key -> new Semaphore(maxPerRoute, true));
+        pending.incrementAndGet();
+        try {
+            route.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Ожидание соединения прервано");
+        } finally {
+            pending.decrementAndGet();
+        }
+        leased.incrementAndGet();
+        requests.increment();
+        Runnable release = () -> {
+            leased.decrementAndGet();
+            route.release();
+        };
+        try {
+            return new ReleasingResponse(execution.execute(request, body), release);
+        } catch (IOException | RuntimeException e) {
+            release.run();
+            throw e;
+        }
+    }
+
+    private static String routeOf(URI uri) {
+        return uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort();
+    }
+
+    public int getMaxPerRoute() {
+        return maxPerRoute;
+    }
+
+    public int getLeased() {
+        return leased.get();
+    }
+
+    public int getPending() {
+        return pending.get();
+    }
+
+    public int getRoutes() {
+        return routes.size();
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    private static final class ReleasingResponse implements ClientHttpResponse {
+        private final ClientHttpResponse delegate;
+        private final Runnable release;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        ReleasingResponse(ClientHttpResponse delegate, Runnable release) {
+            this.delegate = delegate;
+            this.release = release;
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return delegate.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return delegate.getStatusText();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return delegate.getHeaders();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return delegate.getBody();
+        }
+
+        @Override
+        public void close() {
+            try {
+                delegate.close();
+            } finally {
+                if (closed.compareAndSet(false, true)) {
+                    release.run();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package import_xml.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ограниченный пул строк для значений с малым числом вариантов (бренды, статусы,
+ * коды валют, типы цен). Повторяющиеся значения в порции товаров ссылаются на один
+ * экземпляр строки. Когда пул заполнен, новые значения возвращаются как есть, поэтому
+ * неожиданно разнообразные данные не раздувают память.
+ */
+public final class StringPool {
+    private static final int MAX_VALUE_LENGTH = 64;
+
+    private final ConcurrentHashMap<String, String> pool;
+    private final int maxSize;
+
+    public StringPool(int maxSize) {
+        this.maxSize = maxSize;
+        this.pool = new ConcurrentHashMap<>(Math.min(maxSize, 256));
+    }
+
+    public String intern(String value) {
+        if (value == null || value.length() > MAX_VALUE_LENGTH) {
+            return value;
+        }
+        String pooled = pool.get(value);
+        if (pooled != null) {
+            return pooled;
+        }
+        if (pool.size() >= maxSize) {
+            return value;
+        }
+        pooled = pool.putIfAbsent(value, value);
+        return pooled != null ? pooled : value;
+    }
+
+    public int size() {
+        return pool.size();
+    }
+}
@@ -0,0 +1,120 @@
+package import_xml.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Lock-free ограничитель запросов "ведро токенов" в форме GCRA: все состояние - одно AtomicLong,
+ * теоретическое время, к которому ведро вернется к уровню "ни одного лишнего запроса".
+ * Ведро наполняется со скоростью permitsPerSecond до burst токенов. Запрос, которому не хватило
+ * токена, резервирует ближайший и ждет ровно до его появления - без простоя и без превышения
+ * скорости. При permitsPerSecond <= 0 ограничения нет.
+ */
+public class TokenBucket {
+    private final String name;
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final LongSupplier clock;
+    private final AtomicLong theoreticalArrival;
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder waitedNanos = new LongAdder();
+
+    public TokenBucket(String name, double permitsPerSecond, int burst) {
+        this(name, permitsPerSecond, burst, System::nanoTime);
+    }
+
+    TokenBucket(String name, double permitsPerSecond, int burst, LongSupplier clock) {
+        this.name = name;
+        this.intervalNanos = permitsPerSecond > 0 ? Math.max(1, (long) (1_000_000_000L / permitsPerSecond)) : 0;
+        this.toleranceNanos = intervalNanos * (Math.max(1, burst) - 1);
+        this.clock = clock;
+        this.theoreticalArrival = new AtomicLong(clock.getAsLong());
+    }
+
+    /**
+     * Забирает токен, если он есть прямо сейчас.
+     */
+    public boolean tryAcquire() {
+        if (intervalNanos == 0) {
+            acquired.increment();
+            return true;
+        }
+        while (true) {
+            long now = clock.getAsLong();
+            long tat = theoreticalArrival.get();
+            long start = Math.max(tat, now);
+            if (start - toleranceNanos > now) {
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(tat, start + intervalNanos)) {
+                acquired.increment();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Резервирует токен и возвращает, сколько наносекунд ждать до его появления (0 - токен уже есть).
+     */
+    public long reserve() {
+        acquired.increment();
+        if (intervalNanos == 0) {
+            return 0;
+        }
+        while (true) {
+            long now = clock.getAsLong();
+            long tat = theoreticalArrival.get();
+            long start = Math.max(tat, now);
+            if (theoreticalArrival.compareAndSet(tat, start + intervalNanos)) {
+                long wait = Math.max(0, start - toleranceNanos - now);
+                waitedNanos.add(wait);
+                return wait;
+            }
+        }
+    }
+
+    public void acquire() throws InterruptedException {
+        long wait = reserve();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * Future завершается, когда зарезервированный токен становится доступен; поток не блокируется.
+     */
+    public CompletableFuture<Void> acquireAsync() {
+        long wait = reserve();
+        if (wait == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Токенов в ведре сейчас (с учетом уже зарезервированных наперед - может быть 0 при очереди).
+     */
+    public double available() {
+        if (intervalNanos == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        long now = clock.getAsLong();
+        long ahead = Math.max(0, theoreticalArrival.get() - now);
+        return Math.max(0, (double) (toleranceNanos + intervalNanos - ahead) / intervalNanos);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getAcquired() {
+        return acquired.sum();
+    }
+
+    public double getWaitedSeconds() {
+        return waitedNanos.sum() / 1e9;
+    }
+}
@@ -0,0 +1,385 @@
+package import_xml.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Делит большой XML-файл на непересекающиеся диапазоны байтов по границам элементов
+ * одного имени (например, {@code <product>}), чтобы разбирать их независимыми StAX-читателями.
+ * <p>
+ * Файл один раз просматривается через отображение в память: сканер разбирает только разметку
+ * (теги, комментарии, CDATA, инструкции обработки) и запоминает смещения элементов, лежащих
+ * непосредственно под корнем. Каждый диапазон начинается на границе такого элемента, поэтому
+ * его содержимое сбалансировано; при чтении оно оборачивается в синтетический корень
+ * с исходной кодировкой. Если файл так разделить нельзя (элементы на разной глубине,
+ * DTD, кодировка не совместима с ASCII), возвращается пустой список.
+ */
+public final class XmlPartitioner {
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+    private static final int WINDOW_BACKTRACK = 64;
+    private static final String PARTITION_ROOT = "xml-partition";
+    private static final byte[] PI_END = ascii("?>");
+    private static final byte[] COMMENT_START = ascii("--");
+    private static final byte[] COMMENT_END = ascii("-->");
+    private static final byte[] CDATA_START = ascii("[CDATA[");
+    private static final byte[] CDATA_END = ascii("]]>");
+    private static final Pattern ENCODING = Pattern.compile("encoding\\s*=\\s*[\"']([A-Za-z0-9._-]+)[\"']");
+
+    private XmlPartitioner() {
+    }
+
+    /**
+     * Диапазон файла [start, end) с элементами начиная с порядкового номера firstOrdinal.
+     */
+    public record Partition(Path file, String encoding, long start, long end, long firstOrdinal, long count) {
+
+        /**
+         * Открывает диапазон как самостоятельный XML-документ с синтетическим корнем.
+         * Байты читаются окнами по WINDOW_SIZE, как при сканировании, поэтому диапазон может быть больше 2 ГБ.
+         */
+        public InputStream open() throws IOException {
+            InputStream content = new MappedRangeInputStream(file, start, end);
+            byte[] prefix = ("<?xml version=\"1.0\" encoding=\"" + encoding + "\"?><" + PARTITION_ROOT + ">")
+                    .getBytes(StandardCharsets.US_ASCII);
+            byte[] suffix = ("</" + PARTITION_ROOT + ">").getBytes(StandardCharsets.US_ASCII);
+            return new SequenceInputStream(Collections.enumeration(List.of(
+                    new ByteArrayInputStream(prefix), content,
+                    new ByteArrayInputStream(suffix))));
+        }
+    }
+
+    /**
+     * Делит файл на не более чем {@code partitions} диапазонов примерно равного размера.
+     *
+     * @return диапазоны в порядке файла или пустой список, если файл нельзя разделить
+     */
+    public static List<Partition> split(Path file, String elementName, int partitions) throws IOException {
+        Layout layout = scan(file, elementName);
+        return layout != null ? layout.partitions(0, partitions) : List.of();
+    }
+
+    /**
+     * Находит смещения всех элементов {@code elementName} верхнего уровня.
+     *
+     * @return раскладка файла или null, если файл нельзя разделить
+     */
+    public static Layout scan(Path file, String elementName) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            Scanner scanner = new Scanner(channel, size, elementName.getBytes(StandardCharsets.US_ASCII));
+            String encoding = scanner.encoding();
+            if (encoding == null || !scanner.scan() || scanner.count == 0) {
+                return null;
+            }
+            return new Layout(file, encoding, scanner.starts, scanner.count, scanner.lastEnd);
+        }
+    }
+
+    /**
+     * Смещения элементов файла по порядковым номерам: по ним файл делится на диапазоны,
+     * а прерванный импорт продолжается с байта, на котором начинается нужный элемент.
+     */
+    public static final class Layout {
+        private final Path file;
+        private final String encoding;
+        private final long[] starts;
+        private final int count;
+        private final long lastEnd;
+
+        private Layout(Path file, String encoding, long[] starts, int count, long lastEnd) {
+            this.file = file;
+            this.encoding = encoding;
+            this.starts = starts;
+            this.count = count;
+            this.lastEnd = lastEnd;
+        }
+
+        public int count() {
+            return count;
+        }
+
+        /**
+         * Смещение начала элемента; для {@code ordinal == count()} - конец последнего элемента.
+         */
+        public long offset(long ordinal) {
+            if (ordinal < 0 || ordinal > count) {
+                throw new IndexOutOfBoundsException("Нет элемента " + ordinal + " из " + count);
+            }
+            return ordinal == count ? lastEnd : starts[(int) ordinal];
+        }
+
+        /**
+         * Делит элементы начиная с {@code fromOrdinal} на не более чем {@code partitions} диапазонов
+         * примерно равного размера; пустой список, если элементов не осталось.
+         */
+        public List<Partition> partitions(long fromOrdinal, int partitions) {
+            int from = (int) fromOrdinal;
+            if (from >= count) {
+                return List.of();
+            }
+            int parts = Math.max(1, partitions);
+            long target = Math.max(1, (lastEnd - starts[from]) / parts);
+            List<Partition> result = new ArrayList<>(parts);
+            for (int i = from + 1; i < count && result.size() < parts - 1; i++) {
+                if (starts[i] - starts[from] >= target) {
+                    result.add(new Partition(file, encoding, starts[from], starts[i], from, i - from));
+                    from = i;
+                }
+            }
+            result.add(new Partition(file, encoding, starts[from], lastEnd, from, count - from));
+            return result;
+        }
+    }
+
+    /**
+     * Сканер разметки поверх отображенных в память окон файла.
+     */
+    private static final class Scanner {
+        private final FileChannel channel;
+        private final long size;
+        private final byte[] name;
+        private MappedByteBuffer window;
+        private long windowStart;
+        private long windowEnd;
+
+        private long[] starts = new long[1024];
+        private int count;
+        private long lastEnd;
+
+        Scanner(FileChannel channel, long size, byte[] name) {
+            this.channel = channel;
+            this.size = size;
+            this.name = name;
+        }
+
+        /**
+         * Кодировка из XML-декларации; null, если она не совместима с ASCII.
+         */
+        String encoding() throws IOException {
+            int length = (int) Math.min(size, 256);
+            byte[] head = new byte[length];
+            for (int i = 0; i < length; i++) {
+                head[i] = at(i);
+            }
+            if (length >= 2 && ((head[0] == (byte) 0xFE && head[1] == (byte) 0xFF)
+                    || (head[0] == (byte) 0xFF && head[1] == (byte) 0xFE) || head[0] == 0 || head[1] == 0)) {
+                return null;
+            }
+            int offset = length >= 3 && head[0] == (byte) 0xEF && head[1] == (byte) 0xBB && head[2] == (byte) 0xBF ? 3 : 0;
+            String prolog = new String(head, offset, length - offset, StandardCharsets.US_ASCII);
+            if (!prolog.startsWith("<?xml")) {
+                return "UTF-8";
+            }
+            int end = prolog.indexOf("?>");
+            Matcher matcher = ENCODING.matcher(end > 0 ? prolog.substring(0, end) : prolog);
+            if (!matcher.find()) {
+                return "UTF-8";
+            }
+            String encoding = matcher.group(1);
+            return encoding.toUpperCase(Locale.ROOT).startsWith("UTF-16")
+                    || encoding.toUpperCase(Locale.ROOT).startsWith("UTF-32") ? null : encoding;
+        }
+
+        /**
+         * Проходит файл; false, если элементы нельзя отделить друг от друга.
+         */
+        boolean scan() throws IOException {
+            int depth = 0;
+            int elementDepth = -1; // глубина, на которой открыт текущий элемент верхнего уровня
+            long pos = 0;
+            while (pos < size) {
+                if (at(pos) != '<') {
+                    pos++;
+                    continue;
+                }
+                byte next = pos + 1 < size ? at(pos + 1) : 0;
+                if (next == '?') {
+                    pos = skipPast(pos + 2, PI_END);
+                } else if (next == '!') {
+                    if (matches(pos + 2, COMMENT_START)) {
+                        pos = skipPast(pos + 4, COMMENT_END);
+                    } else if (matches(pos + 2, CDATA_START)) {
+                        pos = skipPast(pos + 9, CDATA_END);
+                    } else {
+                        return false; // DOCTYPE: сущности могут менять содержимое
+                    }
+                } else if (next == '/') {
+                    long end = skipTag(pos + 2);
+                    depth--;
+                    if (elementDepth == depth && isName(pos + 2)) {
+                        elementDepth = -1;
+                        lastEnd = end;
+                    }
+                    pos = end;
+                } else {
+                    long end = skipTag(pos + 1);
+                    boolean selfClosing = at(end - 2) == '/';
+                    if (elementDepth < 0 && isName(pos + 1)) {
+                        if (depth != 1) {
+                            return false;
+                        }
+                        add(pos);
+                        if (selfClosing) {
+                            lastEnd = end;
+                        } else {
+                            elementDepth = depth;
+                        }
+                    }
+                    if (!selfClosing) {
+                        depth++;
+                    }
+                    pos = end;
+                }
+            }
+            return elementDepth < 0;
+        }
+
+        private void add(long start) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count << 1);
+            }
+            starts[count++] = start;
+        }
+
+        private boolean isName(long pos) throws IOException {
+            if (!matches(pos, name)) {
+                return false;
+            }
+            long after = pos + name.length;
+            if (after >= size) {
+                return false;
+            }
+            byte c = at(after);
+            return c == '>' || c == '/' || c == ' ' || c == '\t' || c == '\r' || c == '\n';
+        }
+
+        /**
+         * Позиция сразу после '>' тега; значения атрибутов в кавычках могут содержать '>'.
+         */
+        private long skipTag(long pos) throws IOException {
+            byte quote = 0;
+            while (pos < size) {
+                byte c = at(pos++);
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    }
+                } else if (c == '"' || c == '\'') {
+                    quote = c;
+                } else if (c == '>') {
+                    return pos;
+                }
+            }
+            return size;
+        }
+
+        private long skipPast(long pos, byte[] terminator) throws IOException {
+            while (pos < size) {
+                if (matches(pos, terminator)) {
+                    return pos + terminator.length;
+                }
+                pos++;
+            }
+            return size;
+        }
+
+        private boolean matches(long pos, byte[] bytes) throws IOException {
+            if (pos + bytes.length > size) {
+                return false;
+            }
+            for (int i = 0; i < bytes.length; i++) {
+                if (at(pos + i) != bytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private byte at(long pos) throws IOException {
+            if (pos < windowStart || pos >= windowEnd) {
+                windowStart = Math.max(0, pos - WINDOW_BACKTRACK);
+                long length = Math.min(WINDOW_SIZE, size - windowStart);
+                window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, length);
+                windowEnd = windowStart + length;
+            }
+            return window.get((int) (pos - windowStart));
+        }
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Байты [start, end) файла через отображенные в память окна: следующее окно отображается,
+     * когда прочитано предыдущее.
+     */
+    private static final class MappedRangeInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long end;
+        private long next; // начало следующего окна
+        private ByteBuffer window = ByteBuffer.allocate(0);
+
+        MappedRangeInputStream(Path file, long start, long end) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            this.next = start;
+            this.end = end;
+        }
+
+        private boolean fill() throws IOException {
+            if (window.hasRemaining()) {
+                return true;
+            }
+            if (next >= end) {
+                return false;
+            }
+            long length = Math.min(WINDOW_SIZE, end - next);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, next, length);
+            next += length;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? window.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, window.remaining());
+            window.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return window.remaining();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package import_xml.util;
+
+import com.fasterxml.aalto.AsyncXMLInputFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * Создает StAX-читатели выбранной реализации. Для Aalto с включенной асинхронной подачей
+ * байтовые потоки разбираются через {@link FeedingXmlStreamReader}.
+ */
+public class XmlReaderFactory {
+    private final XMLInputFactory inputFactory;
+    private final boolean asyncFeeding;
+    private final int feedBufferSize;
+
+    public XmlReaderFactory(XMLInputFactory inputFactory, boolean asyncFeeding, int feedBufferSize) {
+        this.inputFactory = inputFactory;
+        this.asyncFeeding = asyncFeeding && inputFactory instanceof AsyncXMLInputFactory;
+        this.feedBufferSize = feedBufferSize;
+    }
+
+    public XMLStreamReader createReader(InputStream in) throws XMLStreamException {
+        if (asyncFeeding) {
+            return new FeedingXmlStreamReader(((AsyncXMLInputFactory) inputFactory).createAsyncForByteArray(),
+                    in, feedBufferSize);
+        }
+        return inputFactory.createXMLStreamReader(in);
+    }
+
+    public XMLStreamReader createReader(Reader reader) throws XMLStreamException {
+        return inputFactory.createXMLStreamReader(reader);
+    }
+
+    public boolean isAsyncFeeding() {
+        return asyncFeeding;
+    }
+
+    public String getImplementation() {
+        return inputFactory.getClass().getName();
+    }
+}
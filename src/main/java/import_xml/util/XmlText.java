@@ -0,0 +1,82 @@
+package import_xml.util;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Чтение текстового содержимого элемента с минимумом выделений памяти.
+ * <p>
+ * Почти все поля фидов - простой текст: такой элемент дает одно событие CHARACTERS,
+ * и его строка возвращается как есть. Только если за текстом следует еще событие
+ * (вложенная разметка, CDATA, разбитый парсером текст), содержимое собирается
+ * в переиспользуемый буфер потока; вложенные теги сохраняются как {@code <b>...</b>}
+ * без атрибутов.
+ */
+public final class XmlText {
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final ThreadLocal<StringBuilder> BUFFER =
+            ThreadLocal.withInitial(() -> new StringBuilder(INITIAL_CAPACITY));
+
+    private XmlText() {
+    }
+
+    /**
+     * Читает содержимое текущего элемента. Читатель должен стоять на START_ELEMENT,
+     * после вызова он стоит на END_ELEMENT этого элемента.
+     */
+    public static String read(XMLStreamReader reader) throws XMLStreamException {
+        String first = null;
+        int event = reader.next();
+        while (true) {
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return first != null ? first : "";
+            }
+            if (isText(event)) {
+                if (first != null) {
+                    break;
+                }
+                first = reader.getText();
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                break;
+            }
+            event = reader.next();
+        }
+        StringBuilder buffer = BUFFER.get();
+        buffer.setLength(0);
+        if (first != null) {
+            buffer.append(first);
+        }
+        try {
+            return readMarkup(reader, event, buffer);
+        } finally {
+            if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+                BUFFER.set(new StringBuilder(INITIAL_CAPACITY));
+            }
+        }
+    }
+
+    private static String readMarkup(XMLStreamReader reader, int event, StringBuilder buffer) throws XMLStreamException {
+        int depth = 0;
+        while (true) {
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                buffer.append('<').append(reader.getLocalName()).append('>');
+                depth++;
+            } else if (isText(event)) {
+                buffer.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (depth == 0) {
+                    return buffer.toString();
+                }
+                buffer.append("</").append(reader.getLocalName()).append('>');
+                depth--;
+            }
+            event = reader.next();
+        }
+    }
+
+    private static boolean isText(int event) {
+        return event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA;
+    }
+}
@@ -0,0 +1,46 @@
+package import_xml.util;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Загруженные через /upload-xml файлы: обычный XML или сжатый gzip (.xml.gz). Сжатый файл
+ * распаковывается потоком во временный файл - так для больших файлов остается доступно
+ * параллельное чтение диапазонами.
+ */
+public final class XmlUploads {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private XmlUploads() {
+    }
+
+    public static boolean isGzip(MultipartFile file) {
+        String name = file.getOriginalFilename();
+        return name != null && name.toLowerCase(Locale.ROOT).endsWith(".gz");
+    }
+
+    private static InputStream open(MultipartFile file) throws IOException {
+        InputStream in = new BufferedInputStream(file.getInputStream(), BUFFER_SIZE);
+        return isGzip(file) ? new GZIPInputStream(in, BUFFER_SIZE) : in;
+    }
+
+    public static File toTempFile(MultipartFile file, String prefix) throws IOException {
+        File tempFile = File.createTempFile(prefix, ".xml");
+        if (isGzip(file)) {
+            try (InputStream in = open(file)) {
+                Files.copy(in, tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } else {
+            file.transferTo(tempFile);
+        }
+        return tempFile;
+    }
+}
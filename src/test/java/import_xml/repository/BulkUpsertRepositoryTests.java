@@ -0,0 +1,97 @@
+package import_xml.repository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class BulkUpsertRepositoryTests {
+
+    private static final List<String> COLUMNS = List.of("category_id", "name", "sort_order", "last_updated", "is_active");
+
+    @Autowired
+    private BulkUpsertRepository bulkUpsertRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void cleanUp() {
+        jdbcTemplate.update("DELETE FROM category_products_on_page");
+        jdbcTemplate.update("DELETE FROM categories");
+        jdbcTemplate.update("DELETE FROM filter_children");
+        jdbcTemplate.update("DELETE FROM product_filters");
+        jdbcTemplate.update("DELETE FROM filters");
+    }
+
+    @Test
+    void upsertInsertsNewRowsAndUpdatesExistingByNaturalKey() {
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 1; i <= 1200; i++) {
+            rows.add(new Object[]{String.valueOf(i), "Категория " + i, i, LocalDateTime.now(), true});
+        }
+        bulkUpsertRepository.upsert("categories", "category_id", COLUMNS, rows);
+        Map<String, Long> idsBefore = bulkUpsertRepository.findIds("categories", "category_id", List.of("1", "1200"));
+
+        bulkUpsertRepository.upsert("categories", "category_id", COLUMNS,
+                List.<Object[]>of(new Object[]{"1", "Переименована", 7, LocalDateTime.now(), false}));
+
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM categories", Integer.class)).isEqualTo(1200);
+        assertThat(jdbcTemplate.queryForObject("SELECT name FROM categories WHERE category_id = '1'", String.class))
+                .isEqualTo("Переименована");
+        assertThat(bulkUpsertRepository.findIds("categories", "category_id", List.of("1", "1200")))
+                .isEqualTo(idsBefore);
+    }
+
+    @Test
+    void replaceChildrenReplacesOnlyRowsOfGivenParents() {
+        bulkUpsertRepository.upsert("categories", "category_id", COLUMNS, List.of(
+                new Object[]{"10", "A", 1, LocalDateTime.now(), true},
+                new Object[]{"20", "B", 2, LocalDateTime.now(), true}));
+        Map<String, Long> ids = bulkUpsertRepository.findIds("categories", "category_id", List.of("10", "20"));
+        List<String> columns = List.of("category_id", "product_id");
+        bulkUpsertRepository.insert("category_products_on_page", columns, List.of(
+                new Object[]{ids.get("10"), "p1"},
+                new Object[]{ids.get("20"), "p2"}));
+
+        bulkUpsertRepository.replaceChildren("category_products_on_page", "category_id", List.of(ids.get("10")),
+                columns, List.of(new Object[]{ids.get("10"), "p3"}, new Object[]{ids.get("10"), "p4"}));
+
+        assertThat(jdbcTemplate.queryForList(
+                "SELECT product_id FROM category_products_on_page ORDER BY product_id", String.class))
+                .containsExactly("p2", "p3", "p4");
+    }
+
+    @Test
+    void syncLinksWritesOnlyTheDifference() {
+        bulkUpsertRepository.upsert("filters", "filter_id", List.of("filter_id", "filter_type_id", "name", "is_active"),
+                List.of(new Object[]{"a", "1", "A", true}, new Object[]{"b", "1", "B", true},
+                        new Object[]{"c", "1", "C", true}, new Object[]{"d", "1", "D", true}));
+        Map<String, Long> ids = bulkUpsertRepository.findIds("filters", "filter_id", List.of("a", "b", "c", "d"));
+        Long a = ids.get("a");
+        Long b = ids.get("b");
+        Long c = ids.get("c");
+        Long d = ids.get("d");
+
+        assertThat(bulkUpsertRepository.syncLinks("filter_children", "parent_id", "child_id", List.of(a),
+                List.of(new Object[]{a, b}, new Object[]{a, c}))).isEqualTo(new BulkUpsertRepository.LinkDelta(2, 0));
+        assertThat(bulkUpsertRepository.syncLinks("filter_children", "parent_id", "child_id", List.of(a),
+                List.of(new Object[]{a, c}, new Object[]{a, b}))).isEqualTo(new BulkUpsertRepository.LinkDelta(0, 0));
+        assertThat(bulkUpsertRepository.syncLinks("filter_children", "parent_id", "child_id", List.of(a, b),
+                List.of(new Object[]{a, c}, new Object[]{a, c}, new Object[]{b, d})))
+                .isEqualTo(new BulkUpsertRepository.LinkDelta(1, 1));
+
+        assertThat(jdbcTemplate.queryForList("SELECT parent_id, child_id FROM filter_children ORDER BY parent_id"))
+                .extracting(row -> List.of(row.get("parent_id"), row.get("child_id")))
+                .containsExactly(List.of(a, c), List.of(b, d));
+    }
+}
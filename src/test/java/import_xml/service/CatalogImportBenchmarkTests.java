@@ -0,0 +1,76 @@
+package import_xml.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Замер скорости импорта товаров: mvn test -Dbenchmark=true [-Dbenchmark.products=50000]
+ * [-Dspring.datasource.url=...]. Без свойства benchmark не запускается.
+ */
+@SpringBootTest(properties = {
+        "logging.level.org.springframework.jdbc.core.JdbcTemplate=INFO",
+        "logging.level.org.springframework.jdbc.core.StatementCreatorUtils=INFO"})
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class CatalogImportBenchmarkTests {
+
+    @Autowired
+    private XmlProcessingService xmlProcessingService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void importOfGeneratedProducts() throws Exception {
+        int products = Integer.getInteger("benchmark.products", 50_000);
+        for (String table : new String[]{"category_products", "category_products_on_page", "categories",
+                "product_alerts", "product_subproducts", "product_subproducts_entities", "product_attachments",
+                "product_prices", "product_currencies", "product_filters", "products"}) {
+            jdbcTemplate.update("DELETE FROM " + table);
+        }
+        File first = generate(products, "v1");
+        File second = generate(products, "v2");
+
+        ImportSummary inserted = xmlProcessingService.processProductsXml(first);
+        ImportSummary updated = xmlProcessingService.processProductsXml(second);
+
+        report("вставка", inserted);
+        report("обновление", updated);
+        assertThat(inserted.getCreated()).isEqualTo(products);
+        assertThat(updated.getChanged()).isEqualTo(products);
+    }
+
+    private static void report(String phase, ImportSummary summary) {
+        double seconds = Math.max(1, summary.getExecutionTimeMs()) / 1000.0;
+        System.out.printf("Бенчмарк, %s: %d товаров за %.2f с, %.0f строк/с%n",
+                phase, summary.getSaved(), seconds, summary.getSaved() / seconds);
+    }
+
+    private static File generate(int products, String version) throws IOException {
+        Path file = Path.of("target", "benchmark", "product-" + version + ".xml");
+        Files.createDirectories(file.getParent());
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<doct>\n");
+            for (int i = 1; i <= products; i++) {
+                out.write("<product><product_id>" + i + "</product_id><code>" + i + "-" + version
+                        + "</code><name>Товар " + i + " " + version + "</name><brand>Бренд " + (i % 100)
+                        + "</brand><weight>" + (i % 1000) + "</weight><price><item><value>" + (i % 5000)
+                        + ".50</value><type>end_user</type><currency>RUB</currency></item></price>"
+                        + "<alerts><alert>Предупреждение " + version + "</alert></alerts></product>\n");
+            }
+            out.write("</doct>\n");
+        }
+        return file.toFile();
+    }
+}
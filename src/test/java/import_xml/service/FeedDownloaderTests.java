@@ -0,0 +1,194 @@
+package import_xml.service;
+
+import import_xml.config.ImportXmlProperties;
+import import_xml.util.ApiClients;
+import import_xml.util.RateLimiters;
+import import_xml.util.TokenBucket;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FeedDownloaderTests {
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-");
+
+    private final byte[] content = new byte[200_000];
+    private byte[] gzipped;
+    private volatile boolean identityRanges; // сервер отдает докачку без сжатия, даже если просили gzip
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+    private final List<String> encodings = new CopyOnWriteArrayList<>();
+    private final AtomicInteger disconnects = new AtomicInteger();
+    private final AtomicInteger serverErrors = new AtomicInteger();
+    private ServerSocket serverSocket;
+    private FeedDownloader downloader;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        new Random(42).nextBytes(content);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(content);
+        }
+        gzipped = compressed.toByteArray();
+        serverSocket = new ServerSocket(0);
+        Thread server = new Thread(this::serve, "stub-http");
+        server.setDaemon(true);
+        server.start();
+
+        ImportXmlProperties properties = new ImportXmlProperties();
+        properties.getXmlDownload().setRetryAttempts(3);
+        properties.getXmlDownload().setRetryDelay(0);
+        RateLimiters unlimited = new RateLimiters(new TokenBucket("supplier", 0, 1), new TokenBucket("opencart", 0, 1));
+        downloader = new FeedDownloader(new ApiClients(new RestTemplate(new JdkClientHttpRequestFactory()), null),
+                properties, unlimited);
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        serverSocket.close();
+    }
+
+    @Test
+    void droppedConnectionsAreResumedWithRangeRequests() throws Exception {
+        disconnects.set(2);
+        serverErrors.set(1);
+
+        byte[] downloaded;
+        try (ClientHttpResponse response = downloader.open(url(), headers -> { })) {
+            downloaded = response.getBody().readAllBytes();
+        }
+
+        assertThat(downloaded).isEqualTo(content);
+        // 503, полный ответ с обрывом, докачка с обрывом, докачка до конца
+        assertThat(ranges).hasSize(4);
+        assertThat(ranges.get(1)).isEqualTo("-");
+        long firstResume = Long.parseLong(ranges.get(2));
+        long secondResume = Long.parseLong(ranges.get(3));
+        assertThat(firstResume).isPositive();
+        assertThat(secondResume).isGreaterThan(firstResume);
+    }
+
+    @Test
+    void downloadFailsWhenRetriesAreExhausted() {
+        disconnects.set(100);
+
+        assertThatThrownBy(() -> {
+            try (ClientHttpResponse response = downloader.open(url(), headers -> { })) {
+                response.getBody().readAllBytes();
+            }
+        }).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void gzipBodyIsResumedWithTheOriginalRequestHeaders() throws Exception {
+        disconnects.set(1);
+
+        byte[] downloaded;
+        try (ClientHttpResponse response = downloader.open(url(),
+                headers -> headers.set(HttpHeaders.ACCEPT_ENCODING, "gzip"))) {
+            downloaded = response.getBody().readAllBytes();
+        }
+
+        assertThat(downloaded).isEqualTo(gzipped);
+        assertThat(new GZIPInputStream(new ByteArrayInputStream(downloaded)).readAllBytes()).isEqualTo(content);
+        assertThat(ranges).hasSize(2);
+        assertThat(encodings).containsExactly("gzip", "gzip");
+    }
+
+    @Test
+    void resumeWithDifferentContentEncodingIsRejected() {
+        disconnects.set(1);
+        identityRanges = true;
+
+        assertThatThrownBy(() -> {
+            try (ClientHttpResponse response = downloader.open(url(),
+                    headers -> headers.set(HttpHeaders.ACCEPT_ENCODING, "gzip"))) {
+                response.getBody().readAllBytes();
+            }
+        }).isInstanceOf(IOException.class).hasMessageContaining("Content-Encoding");
+        // несовместимую докачку не повторяем
+        assertThat(ranges).hasSize(2);
+    }
+
+    private String url() {
+        return "http://localhost:" + serverSocket.getLocalPort() + "/export/v2/catalogue/product.xml";
+    }
+
+    /**
+     * Минимальный HTTP-сервер: отдает content с ETag и поддержкой Range, по заданию отвечает 503
+     * или обрывает соединение на середине тела.
+     */
+    private void serve() {
+        while (!serverSocket.isClosed()) {
+            try (Socket socket = serverSocket.accept()) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                        StandardCharsets.ISO_8859_1));
+                String line;
+                String range = "-";
+                String ifRange = null;
+                boolean acceptGzip = false;
+                while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                    String lower = line.toLowerCase();
+                    if (lower.startsWith("range:")) {
+                        Matcher matcher = RANGE.matcher(line);
+                        range = matcher.find() ? matcher.group(1) : "?";
+                    } else if (lower.startsWith("if-range:")) {
+                        ifRange = line.substring("if-range:".length()).trim();
+                    } else if (lower.startsWith("accept-encoding:")) {
+                        acceptGzip = lower.contains("gzip");
+                    }
+                }
+                ranges.add(range);
+                encodings.add(acceptGzip ? "gzip" : "identity");
+                OutputStream out = socket.getOutputStream();
+                if (serverErrors.getAndDecrement() > 0) {
+                    out.write(("HTTP/1.1 503 Service Unavailable\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+                            .getBytes(StandardCharsets.ISO_8859_1));
+                    continue;
+                }
+                int start = "-".equals(range) || !"\"v1\"".equals(ifRange) ? 0 : Integer.parseInt(range);
+                // один ETag на обе кодировки - как у серверов, сжимающих ответ на лету
+                boolean gzip = acceptGzip && !(identityRanges && start > 0);
+                byte[] body = gzip ? gzipped : content;
+                String status = start == 0 ? "200 OK" : "206 Partial Content";
+                String headers = "HTTP/1.1 " + status + "\r\nETag: \"v1\"\r\nAccept-Ranges: bytes\r\n"
+                        + (gzip ? "Content-Encoding: gzip\r\n" : "")
+                        + "Content-Length: " + (body.length - start) + "\r\n"
+                        + (start > 0 ? "Content-Range: bytes " + start + "-" + (body.length - 1) + "/"
+                        + body.length + "\r\n" : "")
+                        + "Connection: close\r\n\r\n";
+                out.write(headers.getBytes(StandardCharsets.ISO_8859_1));
+                int end = disconnects.getAndDecrement() > 0
+                        ? start + (body.length - start) / 3 : body.length;
+                out.write(body, start, end - start);
+                out.flush();
+            } catch (IOException e) {
+                // клиент закрыл соединение или сервер остановлен
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package import_xml.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FeedGraphTests {
+
+    private final FeedGraph graph = FeedGraph.standard("product.xml", "stock.xml", "tree.xml", "filters.xml",
+            "complects.xml", "catalogue.xml");
+
+    @Test
+    void downloadsOverlapAndProcessingFollowsDependencies() throws Exception {
+        List<String> processed = new CopyOnWriteArrayList<>();
+        CountDownLatch allStarted = new CountDownLatch(graph.size());
+        ExecutorService executor = Executors.newFixedThreadPool(graph.size());
+        try {
+            FeedGraph.await(graph.run(executor, (node, prerequisites) -> {
+                // "загрузка" всех файлов идет одновременно
+                allStarted.countDown();
+                assertThat(allStarted.await(5, TimeUnit.SECONDS)).isTrue();
+                prerequisites.join();
+                processed.add(node.fileType());
+                return true;
+            }));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(processed).hasSize(6);
+        assertThat(processed.indexOf("filters")).isLessThan(processed.indexOf("products"));
+        for (String dependent : List.of("stock", "tree", "complects", "catalogue")) {
+            assertThat(processed.indexOf("products")).isLessThan(processed.indexOf(dependent));
+        }
+    }
+
+    @Test
+    void failureIsReportedAfterDependentsFinish() {
+        List<String> processed = new CopyOnWriteArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(graph.size());
+        try {
+            assertThatThrownBy(() -> FeedGraph.await(graph.run(executor, (node, prerequisites) -> {
+                prerequisites.join();
+                if ("filters".equals(node.fileType())) {
+                    throw new IllegalStateException("обрыв");
+                }
+                processed.add(node.fileType());
+                return true;
+            }))).hasMessageContaining("filters").hasRootCauseMessage("обрыв");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(processed).containsExactlyInAnyOrder("products", "stock", "tree", "complects", "catalogue");
+    }
+}
@@ -0,0 +1,128 @@
+package import_xml.service;
+
+import import_xml.model.ImportLog;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class ImportJobServiceTests {
+
+    @Autowired
+    private ImportJobService importJobService;
+
+    @Autowired
+    private XmlProcessingService xmlProcessingService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void cleanUp() {
+        for (String table : new String[]{"import_log", "category_products", "category_products_on_page", "product_alerts", "product_subproducts",
+                "product_subproducts_entities", "product_attachments", "product_prices", "product_currencies",
+                "product_filters", "products"}) {
+            jdbcTemplate.update("DELETE FROM " + table);
+        }
+    }
+
+    @Test
+    void submittedImportIsRecordedInImportLog() throws Exception {
+        File upload = File.createTempFile("product", ".xml");
+        Files.copy(new ClassPathResource("xml/product.xml").getInputStream(), upload.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+
+        long id = importJobService.submit("products", upload, () -> xmlProcessingService.processProductsXml(upload));
+        ImportLog job = await(id);
+
+        assertThat(job.getStatus()).isEqualTo(ImportLog.Status.SUCCEEDED);
+        assertThat(job.getTotalItems()).isEqualTo(4);
+        assertThat(job.getProcessedItems()).isEqualTo(3);
+        assertThat(job.getFailedItems()).isZero();
+        assertThat(job.getExecutionTimeMs()).isNotNull();
+        assertThat(job.getCompletedAt()).isNotNull();
+        assertThat(upload).doesNotExist();
+    }
+
+    @Test
+    void jobsOfOneTypeRunInTurnAndCanBeCancelled() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean cancelledJobRan = new AtomicBoolean();
+        long first = importJobService.submit("test", null, () -> release.await(10, TimeUnit.SECONDS));
+        long queued = importJobService.submit("test", null, () -> cancelledJobRan.getAndSet(true));
+        long running = importJobService.submit("test", null, () -> {
+            Thread.sleep(60_000);
+            return null;
+        });
+
+        assertThat(importJobService.find(queued)).get().extracting(ImportLog::getStatus)
+                .isEqualTo(ImportLog.Status.QUEUED);
+        assertThat(importJobService.cancel(queued)).get().extracting(ImportLog::getStatus)
+                .isEqualTo(ImportLog.Status.CANCELLED);
+        release.countDown();
+        assertThat(await(first).getStatus()).isEqualTo(ImportLog.Status.SUCCEEDED);
+        while (importJobService.find(running).orElseThrow().getStatus() != ImportLog.Status.RUNNING) {
+            Thread.sleep(10);
+        }
+        importJobService.cancel(running);
+
+        assertThat(await(running).getStatus()).isEqualTo(ImportLog.Status.CANCELLED);
+        assertThat(cancelledJobRan).isFalse();
+    }
+
+    @Test
+    void jobsWritingTheSameTablesRunInTurnAndFullReloadRunsAlone() throws Exception {
+        CountDownLatch releaseProducts = new CountDownLatch(1);
+        CountDownLatch releaseReload = new CountDownLatch(1);
+        long products = importJobService.submit("products", null, () -> releaseProducts.await(10, TimeUnit.SECONDS));
+        long catalogue = importJobService.submit("catalogue", null, () -> null);
+        long stock = importJobService.submit("stock", null, () -> null);
+
+        // остатки пишут только свои колонки и не ждут импорта товаров, каталог ждет
+        assertThat(await(stock).getStatus()).isEqualTo(ImportLog.Status.SUCCEEDED);
+        assertThat(status(catalogue)).isEqualTo(ImportLog.Status.QUEUED);
+
+        long reload = importJobService.submit("tree", true, null, () -> releaseReload.await(10, TimeUnit.SECONDS));
+        long laterStock = importJobService.submit("stock", null, () -> null);
+        assertThat(status(laterStock)).isEqualTo(ImportLog.Status.QUEUED);
+
+        releaseProducts.countDown();
+        assertThat(await(products).getStatus()).isEqualTo(ImportLog.Status.SUCCEEDED);
+        assertThat(await(catalogue).getStatus()).isEqualTo(ImportLog.Status.SUCCEEDED);
+        while (status(reload) != ImportLog.Status.RUNNING) {
+            Thread.sleep(10);
+        }
+        // полную перезагрузку не обгоняют и не выполняются рядом с ней
+        assertThat(status(laterStock)).isEqualTo(ImportLog.Status.QUEUED);
+
+        releaseReload.countDown();
+        assertThat(await(reload).getStatus()).isEqualTo(ImportLog.Status.SUCCEEDED);
+        assertThat(await(laterStock).getStatus()).isEqualTo(ImportLog.Status.SUCCEEDED);
+    }
+
+    private ImportLog.Status status(long id) {
+        return importJobService.find(id).orElseThrow().getStatus();
+    }
+
+    private ImportLog await(long id) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        ImportLog job = importJobService.find(id).orElseThrow();
+        while (!job.getStatus().isFinished() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            job = importJobService.find(id).orElseThrow();
+        }
+        return job;
+    }
+}
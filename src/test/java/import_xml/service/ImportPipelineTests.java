@@ -0,0 +1,111 @@
+package import_xml.service;
+
+import import_xml.config.ImportXmlProperties;
+import import_xml.util.XmlPartitioner;
+import import_xml.util.XmlReaderFactory;
+import import_xml.util.XmlText;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ImportPipelineTests {
+    private static final int ELEMENTS = 400;
+    private static final int CHUNK_SIZE = 10;
+    private static final int QUEUE_CAPACITY = 5;
+    private static final int PARSERS = 2;
+
+    private final ImportXmlProperties.Processing settings = new ImportXmlProperties.Processing();
+    private final AtomicInteger parsed = new AtomicInteger();
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final List<Integer> order = new CopyOnWriteArrayList<>();
+    private ImportPipeline pipeline;
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        settings.setChunkSize(CHUNK_SIZE);
+        settings.getPipeline().setParserThreads(PARSERS);
+        settings.getPipeline().setQueueCapacity(QUEUE_CAPACITY);
+        pipeline = new ImportPipeline(new XmlReaderFactory(XMLInputFactory.newInstance(), false, 65536), settings);
+        file = Files.createTempFile("pipeline", ".xml");
+        Files.writeString(file, IntStream.range(0, ELEMENTS)
+                .mapToObj(i -> "<product id=\"" + i + "\"><name>Товар " + i + "</name></product>\n")
+                .collect(Collectors.joining("", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<doct>\n", "</doct>")));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    void slowFirstPartitionDoesNotPileUpLaterPartitions() throws Exception {
+        List<XmlPartitioner.Partition> partitions = XmlPartitioner.split(file, "product", ELEMENTS / QUEUE_CAPACITY);
+        assertThat(partitions).hasSizeGreaterThan(10);
+
+        pipeline.run(partitions, "product", new ImportSummary("products"), slowFirstElement(), this::write);
+
+        assertWrittenInOrderWithinBound();
+    }
+
+    @Test
+    void slowFragmentDoesNotPileUpLaterFragments() throws Exception {
+        try (InputStream in = Files.newInputStream(file)) {
+            pipeline.run(in, Set.of("product"), 0, new ImportSummary("products"), slowFirstElement(), this::write);
+        }
+
+        assertWrittenInOrderWithinBound();
+    }
+
+    /**
+     * Первый элемент разбирается долго, остальные - мгновенно.
+     */
+    private Function<XMLStreamReader, Integer> slowFirstElement() {
+        return reader -> {
+            int id = Integer.parseInt(reader.getAttributeValue(null, "id"));
+            try {
+                XmlText.read(reader);
+                if (id == 0) {
+                    Thread.sleep(300);
+                }
+            } catch (XMLStreamException e) {
+                throw new IllegalStateException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            int inFlight = parsed.incrementAndGet() - written.get();
+            maxInFlight.accumulateAndGet(inFlight, Math::max);
+            return id;
+        };
+    }
+
+    private void write(ImportPipeline.Chunk<Integer> chunk) {
+        order.addAll(chunk.items());
+        written.addAndGet(chunk.items().size());
+    }
+
+    private void assertWrittenInOrderWithinBound() {
+        assertThat(order).containsExactlyElementsOf(IntStream.range(0, ELEMENTS).boxed().toList());
+        // очереди и окно ограничены, порция собирается и ждет писателя - но не весь файл
+        int bound = 2 * PARSERS * (QUEUE_CAPACITY + 1) + 2 * QUEUE_CAPACITY + 3 * CHUNK_SIZE + PARSERS;
+        assertThat(maxInFlight.get()).isLessThanOrEqualTo(bound);
+    }
+}
@@ -0,0 +1,206 @@
+package import_xml.service;
+
+import com.google.common.hash.Hashing;
+import import_xml.config.ImportXmlProperties;
+import import_xml.model.ImportCheckpoint;
+import import_xml.util.ApiClients;
+import import_xml.util.RateLimiters;
+import import_xml.util.XmlPartitioner;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.headerDoesNotExist;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+@SpringBootTest
+class ImportXmlApiServiceTests {
+
+    @Autowired
+    private XmlProcessingService xmlProcessingService;
+
+    @Autowired
+    private ImportXmlProperties properties;
+
+    @Autowired
+    private FeedStateService feedStateService;
+
+    @Autowired
+    private ImportCheckpointService importCheckpointService;
+
+    @Autowired
+    private RateLimiters rateLimiters;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @AfterEach
+    void cleanUp() {
+        properties.getXmlDownload().setKeepCopy(false);
+        for (String table : new String[]{"feed_state", "import_checkpoint", "product_alerts", "product_subproducts",
+                "product_subproducts_entities", "product_attachments", "product_prices", "product_currencies", "product_filters", "products"}) {
+            jdbcTemplate.update("DELETE FROM " + table);
+        }
+    }
+
+    @Test
+    void downloadedFileIsParsedFromTheResponseStream() throws Exception {
+        properties.getXmlDownload().setKeepCopy(true);
+        byte[] body = new ClassPathResource("xml/product.xml").getContentAsByteArray();
+        RestTemplate restTemplate = new RestTemplate();
+        MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+        server.expect(requestTo(properties.getApi().getBaseUrl() + "/export/v2/catalogue/product.xml"))
+                .andRespond(withSuccess(body, MediaType.APPLICATION_XML));
+        File importDir = new File(properties.getImportSection().getDirectory());
+        importDir.mkdirs();
+        File[] before = importDir.listFiles((dir, name) -> name.startsWith("products_"));
+        for (File file : before) {
+            Files.delete(file.toPath());
+        }
+
+        assertThat(service(restTemplate).downloadAndProcessFile("product.xml", "products")).isTrue();
+
+        server.verify();
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM products", Integer.class)).isEqualTo(3);
+        File[] copies = importDir.listFiles((dir, name) -> name.startsWith("products_"));
+        assertThat(copies).hasSize(1);
+        assertThat(Files.readAllBytes(copies[0].toPath())).isEqualTo(body);
+        Files.delete(copies[0].toPath());
+    }
+
+    @Test
+    void unchangedFeedIsNotImportedAgain() throws Exception {
+        byte[] body = new ClassPathResource("xml/product.xml").getContentAsByteArray();
+        String url = properties.getApi().getBaseUrl() + "/export/v2/catalogue/product.xml";
+        RestTemplate restTemplate = new RestTemplate();
+        MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+        HttpHeaders validators = new HttpHeaders();
+        validators.setETag("\"v1\"");
+        // сервер с ETag: повторный запрос условный и получает 304
+        server.expect(requestTo(url)).andRespond(withSuccess(body, MediaType.APPLICATION_XML).headers(validators));
+        server.expect(requestTo(url)).andExpect(header(HttpHeaders.IF_NONE_MATCH, "\"v1\""))
+                .andRespond(withStatus(HttpStatus.NOT_MODIFIED));
+        // сервер перестал отдавать валидаторы: то же содержимое отсекается по контрольной сумме
+        server.expect(requestTo(url)).andRespond(withSuccess(body, MediaType.APPLICATION_XML));
+        ImportXmlApiService service = service(restTemplate);
+
+        assertThat(service.downloadAndProcessFile("product.xml", "products")).isTrue();
+        assertThat(service.downloadAndProcessFile("product.xml", "products")).isFalse();
+        jdbcTemplate.update("UPDATE feed_state SET etag = NULL");
+        assertThat(service.downloadAndProcessFile("product.xml", "products")).isFalse();
+
+        server.verify();
+        assertThat(jdbcTemplate.queryForObject("SELECT sha256 FROM feed_state WHERE file_name = 'product.xml'",
+                String.class)).hasSize(64);
+    }
+
+    @Test
+    void gzipResponseIsDecompressedWhileParsing() throws Exception {
+        byte[] body = new ClassPathResource("xml/product.xml").getContentAsByteArray();
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+            out.write(body);
+        }
+        HttpHeaders encoding = new HttpHeaders();
+        encoding.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+        RestTemplate restTemplate = new RestTemplate();
+        MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+        server.expect(requestTo(properties.getApi().getBaseUrl() + "/export/v2/catalogue/product.xml"))
+                .andExpect(header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+                .andRespond(withSuccess(gzipped.toByteArray(), MediaType.APPLICATION_XML).headers(encoding));
+
+        assertThat(service(restTemplate).downloadAndProcessFile("product.xml", "products")).isTrue();
+
+        server.verify();
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM products", Integer.class)).isEqualTo(3);
+        assertThat(jdbcTemplate.queryForMap("SELECT content_length, transfer_length FROM feed_state"))
+                .containsEntry("content_length", (long) body.length)
+                .containsEntry("transfer_length", (long) gzipped.size());
+    }
+
+    @Test
+    void interruptedImportResumesFromCheckpointWithoutDownload() throws Exception {
+        byte[] body = new ClassPathResource("xml/product.xml").getContentAsByteArray();
+        File importDir = new File(properties.getImportSection().getDirectory());
+        importDir.mkdirs();
+        File localFile = new File(importDir, "products_checkpoint.xml");
+        Files.write(localFile.toPath(), body);
+        HttpHeaders validators = new HttpHeaders();
+        validators.setETag("\"v1\"");
+        String sha256 = Hashing.sha256().hashBytes(body).toString();
+        ImportCheckpoint checkpoint = importCheckpointService.start("product.xml", "products", localFile, validators,
+                sha256, body.length, body.length);
+        // до сбоя зафиксирована порция с первым товаром
+        importCheckpointService.track(checkpoint, XmlPartitioner.scan(localFile.toPath(), "product")).committed(0, 1);
+        assertThat(jdbcTemplate.queryForObject("SELECT element_ordinal FROM import_checkpoint", Long.class)).isEqualTo(1);
+        RestTemplate restTemplate = new RestTemplate();
+        MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+
+        assertThat(service(restTemplate).downloadAndProcessFile("product.xml", "products")).isTrue();
+
+        server.verify();
+        assertThat(jdbcTemplate.queryForList("SELECT product_id FROM products ORDER BY product_id", String.class))
+                .containsExactly("1002", "1003");
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM import_checkpoint", Integer.class)).isZero();
+        assertThat(jdbcTemplate.queryForMap("SELECT etag, sha256 FROM feed_state"))
+                .containsEntry("etag", "\"v1\"").containsEntry("sha256", sha256);
+        assertThat(localFile).doesNotExist();
+    }
+
+    @Test
+    void feedWithFailedChunkIsImportedAgainOnNextSync() throws Exception {
+        byte[] body = new ClassPathResource("xml/product.xml").getContentAsByteArray();
+        String url = properties.getApi().getBaseUrl() + "/export/v2/catalogue/product.xml";
+        RestTemplate restTemplate = new RestTemplate();
+        MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+        HttpHeaders validators = new HttpHeaders();
+        validators.setETag("\"v1\"");
+        server.expect(requestTo(url)).andRespond(withSuccess(body, MediaType.APPLICATION_XML).headers(validators));
+        // валидаторы не сохранены: повторный запрос безусловный, и файл импортируется заново
+        server.expect(requestTo(url)).andExpect(headerDoesNotExist(HttpHeaders.IF_NONE_MATCH))
+                .andRespond(withSuccess(body, MediaType.APPLICATION_XML).headers(validators));
+        ImportXmlApiService service = service(restTemplate);
+
+        // порция с товаром 1002 не записывается
+        jdbcTemplate.execute("ALTER TABLE products ADD CONSTRAINT products_fail_chunk CHECK (product_id <> '1002')");
+        try {
+            assertThat(service.downloadAndProcessFile("product.xml", "products")).isTrue();
+        } finally {
+            jdbcTemplate.execute("ALTER TABLE products DROP CONSTRAINT products_fail_chunk");
+        }
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM products", Integer.class)).isZero();
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM feed_state WHERE etag IS NOT NULL",
+                Integer.class)).isZero();
+
+        assertThat(service.downloadAndProcessFile("product.xml", "products")).isTrue();
+
+        server.verify();
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM products", Integer.class)).isEqualTo(3);
+        assertThat(jdbcTemplate.queryForObject("SELECT etag FROM feed_state", String.class)).isEqualTo("\"v1\"");
+    }
+
+    private ImportXmlApiService service(RestTemplate restTemplate) {
+        ImportXmlApiService service = new ImportXmlApiService(properties, xmlProcessingService, feedStateService,
+                importCheckpointService,
+                new FeedDownloader(new ApiClients(restTemplate, null), properties, rateLimiters));
+        service.init();
+        return service;
+    }
+}
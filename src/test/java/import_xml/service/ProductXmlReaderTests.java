@@ -0,0 +1,56 @@
+package import_xml.service;
+
+import import_xml.config.ImportXmlProperties;
+import import_xml.config.ImportXmlProperties.Processing.Parser.Backend;
+import import_xml.config.XmlParserConfig;
+import import_xml.model.Product;
+import import_xml.util.NaturalIdIndex;
+import import_xml.util.XmlReaderFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProductXmlReaderTests {
+
+    @Test
+    void allParserBackendsReadTheSameProducts() throws Exception {
+        List<String> woodstox = readProducts(Backend.WOODSTOX, false);
+
+        assertThat(woodstox).hasSize(3);
+        assertThat(readProducts(Backend.AALTO, false)).isEqualTo(woodstox);
+        assertThat(readProducts(Backend.AALTO, true)).isEqualTo(woodstox);
+        assertThat(readProducts(Backend.JDK, false)).isEqualTo(woodstox);
+    }
+
+    private List<String> readProducts(Backend backend, boolean asyncFeeding) throws Exception {
+        ImportXmlProperties properties = new ImportXmlProperties();
+        properties.getProcessing().getParser().setBackend(backend);
+        properties.getProcessing().getParser().setAsyncFeeding(asyncFeeding);
+        // маленькая порция, чтобы элементы гарантированно разрывались между подачами
+        properties.getProcessing().getParser().setFeedBufferSize(7);
+        XmlReaderFactory factory = new XmlParserConfig().xmlReaderFactory(properties);
+        ReferenceIndex index = new ReferenceIndex(new NaturalIdIndex(16), new NaturalIdIndex(16), new NaturalIdIndex(16));
+
+        List<String> products = new ArrayList<>();
+        try (InputStream in = new ClassPathResource("xml/product.xml").getInputStream()) {
+            XMLStreamReader reader = factory.createReader(in);
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && "product".equals(reader.getLocalName())) {
+                    Product product = ProductXmlReader.ALL.read(reader, index);
+                    if (product != null) {
+                        products.add(product.getProductId() + " " + product.getContent() + " " + ProductFingerprint.of(product));
+                    }
+                }
+            }
+            reader.close();
+        }
+        return products;
+    }
+}
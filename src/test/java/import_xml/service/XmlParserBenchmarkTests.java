@@ -0,0 +1,159 @@
+package import_xml.service;
+
+import import_xml.config.ImportXmlProperties;
+import import_xml.config.ImportXmlProperties.Processing.Parser.Backend;
+import import_xml.config.XmlParserConfig;
+import import_xml.util.NaturalIdIndex;
+import import_xml.util.XmlReaderFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.core.io.ClassPathResource;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Замер скорости StAX-парсеров импорта на данных в памяти: mvn test -Dbenchmark=true
+ * -Dtest=XmlParserBenchmarkTests [-Dbenchmark.product-mb=56] [-Dbenchmark.stock-rows=300000]
+ * [-Dbenchmark.runs=12]. Товары в форме xml/product.xml читаются через {@link ProductXmlReader},
+ * остатки - по атрибутам, как в {@link StockImportService}; для каждого парсера печатается
+ * лучший из прогонов. Без свойства benchmark не запускается.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class XmlParserBenchmarkTests {
+
+    @Test
+    void parserBackendsOnGeneratedFeeds() throws Exception {
+        int runs = Integer.getInteger("benchmark.runs", 12);
+        byte[] products = generateProducts(Integer.getInteger("benchmark.product-mb", 56) * 1024 * 1024);
+        byte[] stock = generateStock(Integer.getInteger("benchmark.stock-rows", 300_000));
+
+        long expectedProducts = -1;
+        long expectedStock = -1;
+        for (Variant variant : Variant.values()) {
+            XmlReaderFactory factory = factory(variant);
+            long productCount = 0;
+            long stockCount = 0;
+            long productNanos = Long.MAX_VALUE;
+            long stockNanos = Long.MAX_VALUE;
+            for (int run = 0; run < runs; run++) {
+                long start = System.nanoTime();
+                productCount = readProducts(factory, products);
+                productNanos = Math.min(productNanos, System.nanoTime() - start);
+                start = System.nanoTime();
+                stockCount = readStock(factory, stock);
+                stockNanos = Math.min(stockNanos, System.nanoTime() - start);
+            }
+            System.out.printf("Бенчмарк парсера, %-14s product %4.0f МБ/с   stock %4.0f МБ/с%n",
+                    variant.label, throughput(products, productNanos), throughput(stock, stockNanos));
+
+            if (expectedProducts < 0) {
+                expectedProducts = productCount;
+                expectedStock = stockCount;
+            }
+            assertThat(productCount).isEqualTo(expectedProducts);
+            assertThat(stockCount).isEqualTo(expectedStock);
+        }
+    }
+
+    private enum Variant {
+        JDK("jdk", Backend.JDK, false),
+        WOODSTOX("woodstox", Backend.WOODSTOX, false),
+        AALTO("aalto", Backend.AALTO, false),
+        AALTO_ASYNC("aalto (async)", Backend.AALTO, true);
+
+        private final String label;
+        private final Backend backend;
+        private final boolean asyncFeeding;
+
+        Variant(String label, Backend backend, boolean asyncFeeding) {
+            this.label = label;
+            this.backend = backend;
+            this.asyncFeeding = asyncFeeding;
+        }
+    }
+
+    /**
+     * Фабрика с теми же настройками, что и в приложении (см. {@link XmlParserConfig}).
+     */
+    private static XmlReaderFactory factory(Variant variant) {
+        ImportXmlProperties properties = new ImportXmlProperties();
+        properties.getProcessing().getParser().setBackend(variant.backend);
+        properties.getProcessing().getParser().setAsyncFeeding(variant.asyncFeeding);
+        return new XmlParserConfig().xmlReaderFactory(properties);
+    }
+
+    private static long readProducts(XmlReaderFactory factory, byte[] xml) throws XMLStreamException {
+        ReferenceIndex index = new ReferenceIndex(new NaturalIdIndex(16), new NaturalIdIndex(16), new NaturalIdIndex(16));
+        XMLStreamReader reader = factory.createReader(new ByteArrayInputStream(xml));
+        long count = 0;
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT && "product".equals(reader.getLocalName())
+                    && ProductXmlReader.ALL.read(reader, index) != null) {
+                count++;
+            }
+        }
+        reader.close();
+        return count;
+    }
+
+    private static long readStock(XmlReaderFactory factory, byte[] xml) throws XMLStreamException {
+        XMLStreamReader reader = factory.createReader(new ByteArrayInputStream(xml));
+        long count = 0;
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT && "stock".equals(reader.getLocalName())
+                    && reader.getAttributeValue(null, "product_id") != null
+                    && reader.getAttributeValue(null, "amount") != null
+                    && reader.getAttributeValue(null, "enduserprice") != null
+                    && reader.getAttributeValue(null, "status_name") != null) {
+                count++;
+            }
+        }
+        reader.close();
+        return count;
+    }
+
+    private static double throughput(byte[] xml, long nanos) {
+        return xml.length / (1024.0 * 1024.0) / (nanos / 1e9);
+    }
+
+    /**
+     * Повторяет первый товар фикстуры с новыми product_id, пока файл не достигнет нужного размера.
+     */
+    private static byte[] generateProducts(int size) throws IOException {
+        String fixture;
+        try (InputStream in = new ClassPathResource("xml/product.xml").getInputStream()) {
+            fixture = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        int start = fixture.indexOf("<product>");
+        String product = fixture.substring(start, fixture.indexOf("</product>", start) + "</product>".length());
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size + 4096);
+        out.writeBytes("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<doct>\n".getBytes(StandardCharsets.UTF_8));
+        for (int i = 1; out.size() < size; i++) {
+            out.writeBytes((product.replace("<product_id>1001</product_id>", "<product_id>" + i + "</product_id>")
+                    .replace("<group>1001</group>", "<group>" + i + "</group>") + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        out.writeBytes("</doct>\n".getBytes(StandardCharsets.UTF_8));
+        return out.toByteArray();
+    }
+
+    private static byte[] generateStock(int rows) {
+        StringBuilder xml = new StringBuilder(rows * 120);
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<doct>\n");
+        for (int i = 1; i <= rows; i++) {
+            xml.append("    <stock product_id=\"").append(i).append("\" amount=\"").append(i % 500)
+                    .append("\" enduserprice=\"").append(i % 5000).append(".50\" status_id=\"1\"")
+                    .append(" status_name=\"обычный\"/>\n");
+        }
+        xml.append("</doct>\n");
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,346 @@
+package import_xml.service;
+
+import import_xml.config.ImportXmlProperties;
+import import_xml.model.Category;
+import import_xml.util.XmlPartitioner;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+class XmlProcessingServiceTests {
+
+    @Autowired
+    private XmlProcessingService xmlProcessingService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ImportXmlProperties properties;
+
+    @Autowired
+    private CategoryService categoryService;
+
+    @BeforeEach
+    void cleanUp() {
+        for (String table : new String[]{"category_products", "category_products_on_page", "categories", "product_alerts", "product_subproducts", "product_subproducts_entities",
+                "product_attachments", "product_prices", "product_currencies", "product_filters", "products"}) {
+            jdbcTemplate.update("DELETE FROM " + table);
+        }
+    }
+
+    @Test
+    void reimportOfProductsUpdatesRowsInPlace() throws Exception {
+        File productXml = new ClassPathResource("xml/product.xml").getFile();
+
+        xmlProcessingService.processProductsXml(productXml);
+        Long firstPk = jdbcTemplate.queryForObject("SELECT id FROM products WHERE product_id = '1001'", Long.class);
+        xmlProcessingService.processProductsXml(productXml);
+
+        assertThat(count("products")).isEqualTo(3);
+        assertThat(jdbcTemplate.queryForObject("SELECT id FROM products WHERE product_id = '1001'", Long.class))
+                .isEqualTo(firstPk);
+        assertThat(count("product_alerts")).isEqualTo(3);
+        assertThat(count("product_prices")).isEqualTo(1);
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT content FROM products WHERE product_id = '1001'", String.class))
+                .isEqualTo("Кружка <b>с ложкой</b> в коробке");
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT pack_amount FROM products WHERE product_id = '1001'", Integer.class)).isEqualTo(36);
+        // 1002 уже записан к моменту повторного импорта, поэтому ссылка на субтовар разрешается
+        assertThat(count("product_subproducts_entities")).isEqualTo(1);
+    }
+
+    @Test
+    void unchangedProductsAreSkippedOnReimport() throws Exception {
+        File productXml = new ClassPathResource("xml/product.xml").getFile();
+
+        ImportSummary first = xmlProcessingService.processProductsXml(productXml);
+        ImportSummary second = xmlProcessingService.processProductsXml(productXml);
+        ImportSummary third = xmlProcessingService.processProductsXml(productXml);
+
+        assertThat(first.getCreated()).isEqualTo(3);
+        assertThat(first.getSkipped()).isEqualTo(1);
+        // у 1001 появилась разрешенная ссылка на субтовар 1002 - содержимое изменилось
+        assertThat(second.getChanged()).isEqualTo(1);
+        assertThat(second.getUnchanged()).isEqualTo(2);
+        assertThat(third.getUnchanged()).isEqualTo(3);
+        assertThat(third.getSaved()).isZero();
+        assertThat(count("product_alerts")).isEqualTo(3);
+    }
+
+    @Test
+    void stockUpdateReportsMatchedAndUnmatchedRows() throws Exception {
+        xmlProcessingService.processProductsXml(new ClassPathResource("xml/product.xml").getFile());
+
+        StockImportService.StockImportResult result =
+                xmlProcessingService.processStockXml(new ClassPathResource("xml/stock.xml").getFile());
+
+        assertThat(result.getMatched()).isEqualTo(2);
+        assertThat(result.getUnmatched()).isEqualTo(1);
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT price FROM products WHERE product_id = '1001'", BigDecimal.class))
+                .isEqualByComparingTo("249.50");
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT quantity FROM products WHERE product_id = '1003'", Integer.class)).isZero();
+    }
+
+    @Test
+    void pipelineImportMatchesSequentialImport() throws Exception {
+        File productXml = new ClassPathResource("xml/product.xml").getFile();
+        ImportXmlProperties.Processing.Pipeline pipeline = properties.getProcessing().getPipeline();
+
+        pipeline.setEnabled(false);
+        try {
+            xmlProcessingService.processProductsXml(productXml);
+        } finally {
+            pipeline.setEnabled(true);
+        }
+        List<Map<String, Object>> sequential = snapshot();
+        cleanUp();
+        ImportSummary summary = xmlProcessingService.processProductsXml(productXml);
+
+        assertThat(summary.getCreated()).isEqualTo(3);
+        assertThat(summary.getSkipped()).isEqualTo(1);
+        assertThat(snapshot()).isEqualTo(sequential);
+
+        // тот же файл, разделенный на диапазоны по <product>
+        assertThat(XmlPartitioner.split(productXml.toPath(), "product", 3)).hasSizeGreaterThan(1);
+        cleanUp();
+        int threshold = pipeline.getPartitionThresholdMb();
+        pipeline.setPartitionThresholdMb(0);
+        try {
+            summary = xmlProcessingService.processProductsXml(productXml);
+        } finally {
+            pipeline.setPartitionThresholdMb(threshold);
+        }
+        assertThat(summary.getTotal()).isEqualTo(4);
+        assertThat(summary.getSkipped()).isEqualTo(1);
+        assertThat(snapshot()).isEqualTo(sequential);
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT name FROM products WHERE product_id = '1003'", String.class))
+                .isEqualTo("Футболка \"Базовая\" & логотип");
+    }
+
+    @Test
+    void referencesToProductsWrittenDuringImportResolveOnTheNextImport() throws Exception {
+        File productXml = new ClassPathResource("xml/product.xml").getFile();
+        String feed = Files.readString(productXml.toPath(), StandardCharsets.UTF_8);
+        int first = feed.indexOf("<product>");
+        int second = feed.indexOf("<product>", first + 1);
+        int third = feed.indexOf("<product>", second + 1);
+        // 1002 идет раньше ссылающегося на него 1001 и записывается отдельной порцией
+        File reordered = File.createTempFile("product_reordered", ".xml");
+        Files.writeString(reordered.toPath(), feed.substring(0, first) + feed.substring(second, third)
+                + feed.substring(first, second) + feed.substring(third), StandardCharsets.UTF_8);
+
+        ImportXmlProperties.Processing processing = properties.getProcessing();
+        int chunkSize = processing.getChunkSize();
+        processing.setChunkSize(1);
+        processing.getPipeline().setEnabled(false);
+        try {
+            xmlProcessingService.processProductsXml(reordered);
+            // разборщик видит снимок на начало импорта, а не товары, записанные по ходу
+            assertThat(count("product_subproducts_entities")).isZero();
+
+            ImportSummary again = xmlProcessingService.processProductsXml(reordered);
+            assertThat(again.getChanged()).isEqualTo(1);
+            assertThat(count("product_subproducts_entities")).isEqualTo(1);
+        } finally {
+            processing.setChunkSize(chunkSize);
+            processing.getPipeline().setEnabled(true);
+            Files.delete(reordered.toPath());
+        }
+    }
+
+    @Test
+    void limitAndFieldSubsetShareTheProductReader() throws Exception {
+        File productXml = new ClassPathResource("xml/product.xml").getFile();
+
+        ImportSummary firstTwo = xmlProcessingService.processFirstNProductsXml(productXml, 2);
+        assertThat(firstTwo.getSaved()).isEqualTo(2);
+        assertThat(count("products")).isEqualTo(2);
+
+        xmlProcessingService.processProductsXml(productXml);
+        jdbcTemplate.update("UPDATE products SET status_id = 9, status_name = 'снят'");
+        StockImportService.StockImportResult statuses = xmlProcessingService.processProductStatusesXml(productXml);
+
+        // у 1004 в файле нет статуса - обновлять нечего
+        assertThat(statuses.getMatched()).isEqualTo(3);
+        assertThat(statuses.getInvalid()).isEqualTo(1);
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT status_name FROM products WHERE product_id = '1003'", String.class)).isEqualTo("до исчерпания");
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT name FROM products WHERE product_id = '1001'", String.class)).isEqualTo("Кружка Cheer Up");
+    }
+
+    @Test
+    void catalogueIsReadInOnePass() throws Exception {
+        xmlProcessingService.processProductsXml(new ClassPathResource("xml/product.xml").getFile());
+
+        ImportSummary summary = xmlProcessingService.processCatalogueXml(
+                new ClassPathResource("xml/catalogue.xml").getFile());
+
+        // ссылки <product id> внутри категорий не считаются товарами
+        assertThat(summary.getTotal()).isEqualTo(4);
+        assertThat(summary.getCreated()).isEqualTo(2);
+        assertThat(summary.getSaved()).isEqualTo(4);
+        assertThat(count("products")).isEqualTo(5);
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM categories WHERE category_id IN ('10', '20')", Integer.class)).isEqualTo(2);
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM category_products cp"
+                + " JOIN categories c ON c.id = cp.category_id WHERE c.category_id = '10'", Integer.class)).isEqualTo(1);
+    }
+
+    @Test
+    void nestedCategoriesAreStoredWithPathAndInterval() throws Exception {
+        ImportSummary summary = xmlProcessingService.processTreeXml(
+                new ClassPathResource("xml/catalogue.xml").getFile());
+
+        assertThat(summary.getFailed()).isZero();
+        assertThat(count("categories")).isEqualTo(3);
+        Map<String, Object> child = jdbcTemplate.queryForMap(
+                "SELECT parent_id, level, path FROM categories WHERE category_id = '11'");
+        assertThat(child.get("parent_id")).isEqualTo("10");
+        assertThat(child.get("level")).isEqualTo(2);
+        assertThat(child.get("path")).isEqualTo("/10/11/");
+
+        assertThat(categoryService.getSubtree("10", true)).extracting(Category::getCategoryId)
+                .containsExactly("10", "11");
+        assertThat(categoryService.getSubtree("20", true)).extracting(Category::getCategoryId)
+                .containsExactly("20");
+        assertThat(categoryService.getCategoryTree(true)).extracting(Category::getCategoryId)
+                .containsExactlyInAnyOrder("10", "11", "20");
+    }
+
+    private List<Map<String, Object>> snapshot() {
+        return jdbcTemplate.queryForList("SELECT product_id, name, content, status_name, content_hash"
+                + " FROM products ORDER BY product_id");
+    }
+
+    @Test
+    void fullReloadSwapsStagedTablesAndKeepsReferences() throws Exception {
+        File productXml = new ClassPathResource("xml/product.xml").getFile();
+        xmlProcessingService.processProductsXml(productXml);
+        Long pk = jdbcTemplate.queryForObject("SELECT id FROM products WHERE product_id = '1001'", Long.class);
+        jdbcTemplate.update("UPDATE products SET quantity = 7 WHERE product_id = '1001'");
+        jdbcTemplate.update("INSERT INTO products (id, product_id, name, is_active) VALUES (99999, '9999', 'Снят', TRUE)");
+        jdbcTemplate.update("INSERT INTO categories (id, category_id, name, is_active) VALUES (500, '10', 'Кружки', TRUE)");
+        jdbcTemplate.update("INSERT INTO category_products (category_id, product_id) VALUES (500, ?), (500, 99999)", pk);
+
+        ImportSummary summary = xmlProcessingService.reloadProductsXml(productXml);
+
+        assertThat(summary.getSaved()).isEqualTo(3);
+        assertThat(count("products")).isEqualTo(3);
+        assertThat(jdbcTemplate.queryForObject("SELECT id FROM products WHERE product_id = '1001'", Long.class))
+                .isEqualTo(pk);
+        // остатки из stock.xml в product.xml не приходят и переносятся из живой таблицы
+        assertThat(jdbcTemplate.queryForObject("SELECT quantity FROM products WHERE product_id = '1001'", Integer.class))
+                .isEqualTo(7);
+        assertThat(count("product_alerts")).isEqualTo(3);
+        assertThat(count("product_subproducts_entities")).isEqualTo(1);
+        assertThat(jdbcTemplate.queryForList("SELECT product_id FROM category_products", Long.class))
+                .containsExactly(pk);
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM information_schema.tables"
+                + " WHERE table_name LIKE '%_stage' OR table_name LIKE '%_old'", Integer.class)).isZero();
+        // внешний ключ category_products перенаправлен на новую таблицу products
+        assertThatThrownBy(() -> jdbcTemplate.update(
+                "INSERT INTO category_products (category_id, product_id) VALUES (500, 99999)"))
+                .isInstanceOf(DataIntegrityViolationException.class);
+
+        ImportSummary again = xmlProcessingService.reloadProductsXml(productXml);
+        assertThat(again.getUnchanged()).isEqualTo(3);
+        assertThat(count("products")).isEqualTo(3);
+    }
+
+    @Test
+    void fullReloadKeepsLiveTablesWhenTooFewRowsAreStaged() throws Exception {
+        File productXml = new ClassPathResource("xml/product.xml").getFile();
+        xmlProcessingService.processProductsXml(productXml);
+        double minRowRatio = properties.getFullReload().getMinRowRatio();
+        properties.getFullReload().setMinRowRatio(2.0);
+        try {
+            assertThatThrownBy(() -> xmlProcessingService.reloadProductsXml(productXml))
+                    .isInstanceOf(IllegalStateException.class);
+        } finally {
+            properties.getFullReload().setMinRowRatio(minRowRatio);
+        }
+
+        assertThat(count("products")).isEqualTo(3);
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM information_schema.tables"
+                + " WHERE table_name LIKE '%_stage'", Integer.class)).isZero();
+    }
+
+    @Test
+    void productsMissingFromTheFeedAreDeactivated() throws Exception {
+        File productXml = new ClassPathResource("xml/product.xml").getFile();
+        xmlProcessingService.processProductsXml(productXml);
+        jdbcTemplate.update("INSERT INTO products (id, product_id, name, is_active) VALUES (99998, '9998', 'Снят', TRUE)");
+        jdbcTemplate.update("INSERT INTO products (id, product_id, name, is_active) VALUES (99999, 'old-9999', 'Снят', TRUE)");
+
+        // 2 из 5 активных товаров нет в файле - больше порога в 20%
+        ImportSummary guarded = xmlProcessingService.processProductsXml(productXml);
+        assertThat(guarded.getDeactivated()).isZero();
+        assertThat(activeCount()).isEqualTo(5);
+
+        double maxPercent = properties.getDeactivation().getMaxPercent();
+        properties.getDeactivation().setMaxPercent(50);
+        try {
+            ImportSummary swept = xmlProcessingService.processProductsXml(productXml);
+            assertThat(swept.getDeactivated()).isEqualTo(2);
+        } finally {
+            properties.getDeactivation().setMaxPercent(maxPercent);
+        }
+        assertThat(activeCount()).isEqualTo(3);
+        assertThat(jdbcTemplate.queryForList("SELECT product_id FROM products WHERE is_active = FALSE", String.class))
+                .containsExactlyInAnyOrder("9998", "old-9999");
+    }
+
+    @Test
+    void categoryWithUnparsableFragmentIsNotDeactivated() throws Exception {
+        File catalogueXml = new ClassPathResource("xml/catalogue.xml").getFile();
+        xmlProcessingService.processTreeXml(catalogueXml);
+        // разбор категории 20 падает на нечисловом sort_order
+        String feed = Files.readString(catalogueXml.toPath(), StandardCharsets.UTF_8)
+                .replace("<category id=\"20\" level=\"1\" sort_order=\"2\">",
+                        "<category id=\"20\" level=\"1\" sort_order=\"второй\">");
+        File malformed = File.createTempFile("tree_malformed", ".xml");
+        Files.writeString(malformed.toPath(), feed, StandardCharsets.UTF_8);
+
+        double maxPercent = properties.getDeactivation().getMaxPercent();
+        properties.getDeactivation().setMaxPercent(50);
+        try {
+            ImportSummary summary = xmlProcessingService.processTreeXml(malformed);
+            assertThat(summary.getMalformed()).isEqualTo(1);
+            assertThat(summary.getDeactivated()).isZero();
+        } finally {
+            properties.getDeactivation().setMaxPercent(maxPercent);
+            Files.delete(malformed.toPath());
+        }
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM categories WHERE is_active = TRUE",
+                Integer.class)).isEqualTo(3);
+    }
+
+    private int activeCount() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM products WHERE is_active = TRUE", Integer.class);
+    }
+
+    private int count(String table) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table, Integer.class);
+    }
+}
@@ -0,0 +1,124 @@
+package import_xml.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ReadIdleTimeoutTests {
+    private static final int TIMEOUT_MS = 300;
+    private static final int CHUNKS = 15;
+    private static final int CHUNK_DELAY_MS = 100;
+
+    private volatile boolean stall;
+    private volatile boolean stallBeforeHeaders;
+    private ServerSocket serverSocket;
+    private RestTemplate restTemplate;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        serverSocket = new ServerSocket(0);
+        Thread server = new Thread(this::serve, "stub-http");
+        server.setDaemon(true);
+        server.start();
+
+        HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        restTemplate = new RestTemplate(new JdkClientHttpRequestFactory(httpClient));
+        restTemplate.setInterceptors(List.of(new ReadIdleTimeout(Duration.ofMillis(TIMEOUT_MS))));
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        serverSocket.close();
+    }
+
+    @Test
+    void slowBodyLongerThanTheTimeoutIsReadCompletely() {
+        long started = System.nanoTime();
+        byte[] body = download();
+
+        assertThat(body).hasSize(CHUNKS * 10);
+        assertThat(Duration.ofNanos(System.nanoTime() - started)).isGreaterThan(Duration.ofMillis(TIMEOUT_MS * 3));
+    }
+
+    @Test
+    void stalledBodyFailsWithSocketTimeout() {
+        stall = true;
+        long started = System.nanoTime();
+
+        assertThatThrownBy(this::download)
+                .isInstanceOf(ResourceAccessException.class)
+                .hasCauseInstanceOf(SocketTimeoutException.class);
+        assertThat(Duration.ofNanos(System.nanoTime() - started)).isLessThan(Duration.ofSeconds(3));
+    }
+
+    @Test
+    void missingResponseHeadersFailWithSocketTimeout() {
+        stallBeforeHeaders = true;
+        long started = System.nanoTime();
+
+        assertThatThrownBy(this::download)
+                .isInstanceOf(ResourceAccessException.class)
+                .hasCauseInstanceOf(SocketTimeoutException.class);
+        assertThat(Duration.ofNanos(System.nanoTime() - started)).isLessThan(Duration.ofSeconds(3));
+        assertThat(Thread.currentThread().isInterrupted()).isFalse();
+    }
+
+    private byte[] download() {
+        URI uri = URI.create("http://localhost:" + serverSocket.getLocalPort() + "/feed.xml");
+        return restTemplate.execute(uri, HttpMethod.GET, null, response -> response.getBody().readAllBytes());
+    }
+
+    /**
+     * Отдает CHUNKS кусков по 10 байт с паузой CHUNK_DELAY_MS; в режиме stall после второго куска
+     * замолкает на 5 секунд, в режиме stallBeforeHeaders молчит до отправки заголовков.
+     */
+    private void serve() {
+        while (!serverSocket.isClosed()) {
+            try (Socket socket = serverSocket.accept()) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                        StandardCharsets.ISO_8859_1));
+                String line;
+                while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                    // заголовки запроса не нужны
+                }
+                if (stallBeforeHeaders) {
+                    Thread.sleep(5000);
+                }
+                OutputStream out = socket.getOutputStream();
+                out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + CHUNKS * 10 + "\r\nConnection: close\r\n\r\n")
+                        .getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+                for (int i = 0; i < CHUNKS; i++) {
+                    if (stall && i == 2) {
+                        Thread.sleep(5000);
+                    }
+                    out.write("0123456789".getBytes(StandardCharsets.ISO_8859_1));
+                    out.flush();
+                    Thread.sleep(CHUNK_DELAY_MS);
+                }
+            } catch (IOException | InterruptedException e) {
+                // клиент закрыл соединение или сервер остановлен
+            }
+        }
+    }
+}
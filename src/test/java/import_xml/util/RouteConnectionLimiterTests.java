@@ -0,0 +1,51 @@
+package import_xml.util;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RouteConnectionLimiterTests {
+
+    @Test
+    void requestsWaitForAFreeConnectionOnTheirRoute() throws Exception {
+        RouteConnectionLimiter limiter = new RouteConnectionLimiter(1);
+        MockClientHttpRequest first = new MockClientHttpRequest(HttpMethod.GET, URI.create("https://api.example/a"));
+        MockClientHttpRequest second = new MockClientHttpRequest(HttpMethod.GET, URI.create("https://api.example/b"));
+        MockClientHttpRequest other = new MockClientHttpRequest(HttpMethod.GET, URI.create("https://shop.example/"));
+
+        ClientHttpResponse held = limiter.intercept(first, new byte[0], (request, body) -> ok());
+        // другой маршрут не ждет
+        limiter.intercept(other, new byte[0], (request, body) -> ok()).close();
+        CompletableFuture<ClientHttpResponse> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return limiter.intercept(second, new byte[0], (request, body) -> ok());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        Thread.sleep(100);
+        assertThat(waiting).isNotDone();
+        assertThat(limiter.getLeased()).isEqualTo(1);
+        assertThat(limiter.getPending()).isEqualTo(1);
+
+        held.close();
+        waiting.get(5, TimeUnit.SECONDS).close();
+        assertThat(limiter.getLeased()).isZero();
+        assertThat(limiter.getRoutes()).isEqualTo(2);
+        assertThat(limiter.getRequests()).isEqualTo(3);
+    }
+
+    private static ClientHttpResponse ok() {
+        return new MockClientHttpResponse(new byte[0], HttpStatus.OK);
+    }
+}
@@ -0,0 +1,59 @@
+package import_xml.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenBucketTests {
+    private static final long SECOND = 1_000_000_000L;
+
+    private final AtomicLong now = new AtomicLong(10 * SECOND);
+    private final TokenBucket bucket = new TokenBucket("test", 4, 2, now::get);
+
+    @Test
+    void burstIsFreeAndFurtherRequestsAreSpacedExactly() {
+        assertThat(bucket.reserve()).isZero();
+        assertThat(bucket.reserve()).isZero();
+        // 4 запроса в секунду: каждый следующий - через 250 мс после предыдущего
+        assertThat(bucket.reserve()).isEqualTo(SECOND / 4);
+        assertThat(bucket.reserve()).isEqualTo(SECOND / 2);
+        assertThat(bucket.available()).isZero();
+        assertThat(bucket.getWaitedSeconds()).isEqualTo(0.75);
+    }
+
+    @Test
+    void tryAcquireDoesNotReserveAhead() {
+        assertThat(bucket.tryAcquire()).isTrue();
+        assertThat(bucket.tryAcquire()).isTrue();
+        assertThat(bucket.tryAcquire()).isFalse();
+
+        now.addAndGet(SECOND / 4);
+        assertThat(bucket.tryAcquire()).isTrue();
+        assertThat(bucket.tryAcquire()).isFalse();
+
+        // за простой ведро наполняется только до burst
+        now.addAndGet(10 * SECOND);
+        assertThat(bucket.available()).isEqualTo(2.0);
+        assertThat(bucket.getAcquired()).isEqualTo(3);
+    }
+
+    @Test
+    void acquireAsyncCompletesWhenTheReservedTokenArrives() throws Exception {
+        // токены из burst выдаются сразу, без планирования
+        assertThat(bucket.acquireAsync()).isCompleted();
+        assertThat(bucket.acquireAsync()).isCompleted();
+
+        long start = System.nanoTime();
+        CompletableFuture<Void> delayed = bucket.acquireAsync();
+        assertThat(delayed).isNotDone();
+        delayed.get(5, TimeUnit.SECONDS);
+        // третий токен появится через 250 мс
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(SECOND / 4);
+        assertThat(bucket.getAcquired()).isEqualTo(3);
+        assertThat(bucket.getWaitedSeconds()).isEqualTo(0.25);
+    }
+}
@@ -0,0 +1,65 @@
+package import_xml.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class XmlPartitionerTests {
+    private static final long SIZE = Integer.MAX_VALUE + 4096L;
+    private static final byte[] HEAD = "<product id=\"1\">".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TAIL = "</product>".getBytes(StandardCharsets.US_ASCII);
+
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // разреженный файл: на диске занимают место только первый и последний блоки
+        file = Files.createTempFile("partition", ".xml");
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.write(HEAD);
+            raf.seek(SIZE - TAIL.length);
+            raf.write(TAIL);
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    void partitionLargerThanTwoGigabytesIsReadThroughWindows() throws Exception {
+        XmlPartitioner.Partition partition = new XmlPartitioner.Partition(file, "UTF-8", 0, SIZE, 0, 1);
+        String prefix = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><xml-partition>";
+        String suffix = "</xml-partition>";
+
+        byte[] head;
+        long total;
+        byte[] last = new byte[0];
+        byte[] buffer = new byte[1 << 20];
+        try (InputStream in = partition.open()) {
+            head = in.readNBytes(prefix.length() + HEAD.length);
+            total = head.length;
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                total += n;
+                byte[] joined = Arrays.copyOf(last, last.length + n);
+                System.arraycopy(buffer, 0, joined, last.length, n);
+                last = Arrays.copyOfRange(joined, Math.max(0, joined.length - 64), joined.length);
+            }
+        }
+
+        assertThat(total).isEqualTo(prefix.length() + SIZE + suffix.length());
+        assertThat(new String(head, StandardCharsets.US_ASCII)).isEqualTo(prefix + "<product id=\"1\">");
+        assertThat(new String(last, StandardCharsets.US_ASCII)).endsWith("</product>" + suffix);
+    }
+}